@@ -0,0 +1,111 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dsp.BandpassSampler;
+import dsp.FirFilter;
+import dsp.Interpolator;
+import dsp.Mixer;
+
+/**
+ * Bandpass sampling of channel A: 20x linear interpolation, mixing with the
+ * 1MHz oscillator and the 101 tap filter. legacyArrayList is the boxed path
+ * processBandpassChannelA originally used, kernelChain runs the three dsp
+ * kernels one after the other and fusedSampler is BandpassSampler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BandpassBenchmark {
+
+	private static final int FACTOR = 20;
+
+	@Param({"1000", "10000", "25000", "50000"})
+	public int numSamples;
+
+	private double[] samples;
+	private double[] filter;
+	private double[] upsampled;
+	private double[] out;
+	private double[] heldOscillator;
+	private BandpassSampler sampler;
+
+	@Setup
+	public void setup() throws Throwable {
+		samples = Frames.voltages(numSamples, new Random(4810));
+		filter = (double[]) Handles.staticField("DigiscopeServer",
+				"BANDPASS_FILTER");
+
+		upsampled = new double[Interpolator.outputLength(numSamples, FACTOR)];
+		out = new double[upsampled.length];
+		heldOscillator = Mixer.sineTable(FACTOR, FACTOR);
+		sampler = new BandpassSampler(filter, FACTOR,
+				Mixer.sineTable(FACTOR, 1));
+	}
+
+	@Benchmark
+	public double[] legacyArrayList() {
+		ArrayList<Double> values = new ArrayList<Double>();
+
+		for (int i = 0; i < numSamples; i++) {
+			values.add(samples[i] * (Math.sin(2 * Math.PI * 1000000 * i / 20000000)));
+
+			if (i != (samples.length - 1)) {
+				double start = samples[i];
+				double interval = (samples[i + 1] - start) / 20.0;
+				for (int j = 1; j < 20; j++) {
+					values.add((start + (interval * j)) *
+							(Math.sin(2 * Math.PI * 1000000 * i / 20000000)));
+				}
+			}
+		}
+
+		double[] upsampled = values.stream().mapToDouble(
+				Double::doubleValue).toArray();
+		double[] filtered = new double[upsampled.length];
+
+		for (int i = 0; i < upsampled.length; i++) {
+			double sum = 0;
+			for (int j = 0; j < filter.length; j++) {
+				if (i - j >= 0) {
+					sum += filter[j] * upsampled[i - j];
+				}
+			}
+			filtered[i] = sum;
+		}
+
+		return filtered;
+	}
+
+	@Benchmark
+	public double[] kernelChain() {
+		Interpolator.linear(samples, numSamples, FACTOR, upsampled);
+		Mixer.mix(upsampled, heldOscillator, upsampled, 0, upsampled.length);
+		FirFilter.filter(upsampled, filter, out, 0, upsampled.length);
+		return out;
+	}
+
+	@Benchmark
+	public double[] fusedSampler() {
+		sampler.process(samples, numSamples, out);
+		return out;
+	}
+
+}
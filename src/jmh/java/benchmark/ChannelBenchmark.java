@@ -0,0 +1,110 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dsp.MinMaxPyramid;
+
+/**
+ * The per capture channel calculations in DigiscopeModel and
+ * OscilloscopeChannel: the filter channel with a loaded FIR or IIR filter,
+ * setting a channel's samples, which works out its measurements and its
+ * frequency with the FFT, and building the min/max pyramid the display draws
+ * the channel from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBenchmark {
+
+	private static final MethodHandle GET_FILTER_CHANNEL = Handles.method(
+			"DigiscopeModel", "getFilterChannel", Handles.type("FilterChannel"));
+	private static final MethodHandle GET_CHANNEL_A = Handles.method(
+			"DigiscopeModel", "getChannelA", Handles.type("ChannelA"));
+	private static final MethodHandle SET_FILTER_TYPE = Handles.method(
+			"FilterChannel", "setFilterType", void.class, String.class);
+	private static final MethodHandle SET_FIR_FILTER = Handles.method(
+			"FilterChannel", "setFirFilter", void.class, double[].class);
+	private static final MethodHandle SET_IIR_FILTER = Handles.method(
+			"FilterChannel", "setIirFilter", void.class, double[].class,
+			double[].class);
+	private static final MethodHandle COMPUTE_FILTER_SAMPLES = Handles.method(
+			"DigiscopeModel", "computeFilterSamples", double[].class,
+			double[].class);
+	private static final MethodHandle SET_CHANNEL_SAMPLES = Handles.method(
+			"OscilloscopeChannel", "setChannelSamples", void.class,
+			double[].class, int.class);
+
+	@Param({"1000", "10000", "25000", "50000"})
+	public int numSamples;
+
+	private double[] samples;
+	private Object firModel;
+	private Object iirModel;
+	private Object channelA;
+
+	@Setup
+	public void setup() throws Throwable {
+		Random random = new Random(4810);
+		samples = Frames.voltages(numSamples, random);
+
+		double[] taps = new double[101];
+		for (int i = 0; i < taps.length; i++) {
+			taps[i] = random.nextGaussian() / taps.length;
+		}
+
+		firModel = Handles.newInstance("DigiscopeModel");
+		Object firChannel = GET_FILTER_CHANNEL.invoke(firModel);
+		SET_FIR_FILTER.invoke(firChannel, taps);
+		SET_FILTER_TYPE.invoke(firChannel, "FIR");
+
+		// 4th order Butterworth low pass at a tenth of the sampling rate, as
+		// the two columns of a filter file (a then b)
+		iirModel = Handles.newInstance("DigiscopeModel");
+		Object iirChannel = GET_FILTER_CHANNEL.invoke(iirModel);
+		SET_IIR_FILTER.invoke(iirChannel,
+				new double[]{1, -2.369513, 2.313988, -1.054665, 0.187379},
+				new double[]{0.004824, 0.019297, 0.028945, 0.019297, 0.004824});
+		SET_FILTER_TYPE.invoke(iirChannel, "IIR");
+
+		channelA = GET_CHANNEL_A.invoke(Handles.newInstance("DigiscopeModel"));
+	}
+
+	@Benchmark
+	public double[] firFilterChannel() throws Throwable {
+		return (double[]) COMPUTE_FILTER_SAMPLES.invoke(firModel, samples);
+	}
+
+	@Benchmark
+	public double[] iirFilterChannel() throws Throwable {
+		return (double[]) COMPUTE_FILTER_SAMPLES.invoke(iirModel, samples);
+	}
+
+	@Benchmark
+	public Object setChannelSamples() throws Throwable {
+		SET_CHANNEL_SAMPLES.invoke(channelA, samples, 100000);
+		return channelA;
+	}
+
+	@Benchmark
+	public MinMaxPyramid buildPyramid() {
+		return new MinMaxPyramid(samples);
+	}
+
+}
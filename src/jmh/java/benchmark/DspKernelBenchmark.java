@@ -0,0 +1,121 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dsp.FftConvolver;
+import dsp.FirFilter;
+import dsp.IirFilter;
+import dsp.Interpolator;
+import dsp.Mixer;
+
+/**
+ * The dsp kernels, each writing into a preallocated buffer. legacyFir is the
+ * allocating loop with a branch in the inner loop that the model and the
+ * bandpass path used before the kernels were shared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DspKernelBenchmark {
+
+	@Param({"1000", "10000", "25000", "50000"})
+	public int numSamples;
+
+	@Param({"101"})
+	public int numTaps;
+
+	private double[] samples;
+	private double[] taps;
+	private double[] iirB;
+	private double[] iirA;
+	private double[] oscillator;
+	private double[] out;
+	private double[] upsampled;
+	private FftConvolver convolver;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(4810);
+		samples = Frames.voltages(numSamples, random);
+
+		taps = new double[numTaps];
+		for (int i = 0; i < numTaps; i++) {
+			taps[i] = random.nextGaussian() / numTaps;
+		}
+
+		// 4th order Butterworth low pass at a tenth of the sampling rate
+		iirB = new double[]{0.004824, 0.019297, 0.028945, 0.019297, 0.004824};
+		iirA = new double[]{1, -2.369513, 2.313988, -1.054665, 0.187379};
+
+		oscillator = Mixer.sineTable(20, 20);
+		out = new double[numSamples];
+		upsampled = new double[Interpolator.outputLength(numSamples, 20)];
+		convolver = new FftConvolver(taps, numSamples);
+	}
+
+	@Benchmark
+	public double[] legacyFir() {
+		double[] filtered = new double[numSamples];
+
+		for (int i = 0; i < numSamples; i++) {
+			double sum = 0;
+			for (int j = 0; j < taps.length; j++) {
+				if (i - j < 0) {
+					sum += 0;
+				} else {
+					sum += taps[j] * samples[i - j];
+				}
+			}
+			filtered[i] = sum;
+		}
+
+		return filtered;
+	}
+
+	@Benchmark
+	public double[] firKernel() {
+		FirFilter.filter(samples, taps, out, 0, numSamples);
+		return out;
+	}
+
+	@Benchmark
+	public double[] fftConvolution() {
+		convolver.convolve(samples, numSamples, out);
+		return out;
+	}
+
+	@Benchmark
+	public double[] iirKernel() {
+		IirFilter.filter(samples, iirB, iirA, out, 0, numSamples);
+		return out;
+	}
+
+	@Benchmark
+	public double[] mixKernel() {
+		Mixer.mix(samples, oscillator, out, 0, numSamples);
+		return out;
+	}
+
+	@Benchmark
+	public double[] interpolateKernel() {
+		Interpolator.linear(samples, numSamples, 20, upsampled);
+		return upsampled;
+	}
+
+}
@@ -0,0 +1,117 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Capture to model latency: the time from the raw frame bytes arriving on the
+ * socket stream to both channels' voltages being ready for the model. The
+ * legacy method is the per sample readFully/ByteBuffer.wrap path that
+ * DigiscopeServer used before frames were decoded in bulk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecodeBenchmark {
+
+	private static final short SEND_SAMPLE_END = 0x4040;
+
+	private static final MethodHandle READ_FRAME = Handles.method(
+			"SampleFrameDecoder", "readFrame", ByteBuffer.class,
+			DataInputStream.class, int.class);
+	private static final MethodHandle DECODE_SAMPLES = Handles.staticMethod(
+			"SampleFrameDecoder", "decodeSamples", void.class, ByteBuffer.class,
+			int.class, double[].class, double[].class);
+	private static final MethodHandle GET_FOOTER_COMMAND = Handles.staticMethod(
+			"SampleFrameDecoder", "getFooterCommand", short.class,
+			ByteBuffer.class, int.class);
+	private static final MethodHandle RELEASE = Handles.method(
+			"SampleFrameDecoder", "release", void.class, ByteBuffer.class);
+
+	@Param({"1000", "10000", "25000", "50000"})
+	public int numSamples;
+
+	private byte[] wireFrame;
+	private Object decoder;
+
+	@Setup
+	public void setup() {
+		wireFrame = Frames.wireFrame(numSamples, new Random(4810));
+		decoder = Handles.newInstance("SampleFrameDecoder");
+	}
+
+	@Benchmark
+	public double[][] legacyPerSampleDecode() throws IOException {
+		DataInputStream input = new DataInputStream(
+				new ByteArrayInputStream(wireFrame));
+
+		double[] channelASamples = new double[numSamples];
+		double[] channelBSamples = new double[numSamples];
+		byte[] inputData = new byte[2];
+		byte[] endData = new byte[4];
+
+		for (int i = 0; i < numSamples; i++) {
+			input.readFully(inputData);
+			byte[] chanASample = {inputData[1], inputData[0]};
+			channelASamples[i] = 3.3 * ByteBuffer.wrap(chanASample).getShort()
+					/ 4095;
+		}
+
+		for (int i = 0; i < numSamples; i++) {
+			input.readFully(inputData);
+			byte[] chanBSample = {inputData[1], inputData[0]};
+			channelBSamples[i] = 3.3 * ByteBuffer.wrap(chanBSample).getShort()
+					/ 4095;
+		}
+
+		input.readFully(endData);
+		byte[] lastData = {endData[1], endData[0]};
+		if (ByteBuffer.wrap(lastData).getShort() != SEND_SAMPLE_END) {
+			throw new IllegalStateException("Bad footer");
+		}
+
+		return new double[][]{channelASamples, channelBSamples};
+	}
+
+	@Benchmark
+	public double[][] bulkFrameDecode() throws Throwable {
+		DataInputStream input = new DataInputStream(
+				new ByteArrayInputStream(wireFrame));
+
+		double[] channelASamples = new double[numSamples];
+		double[] channelBSamples = new double[numSamples];
+
+		ByteBuffer frame = (ByteBuffer) READ_FRAME.invoke(decoder, input,
+				numSamples);
+		DECODE_SAMPLES.invoke(frame, numSamples, channelASamples,
+				channelBSamples);
+		if ((short) GET_FOOTER_COMMAND.invoke(frame, numSamples)
+				!= SEND_SAMPLE_END) {
+			throw new IllegalStateException("Bad footer");
+		}
+		RELEASE.invoke(decoder, frame);
+
+		return new double[][]{channelASamples, channelBSamples};
+	}
+
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic captures shared by the benchmarks.
+ */
+final class Frames {
+
+	private static final short SEND_SAMPLE_END = 0x4040;
+
+	private Frames() {}
+
+	/**
+	 * Builds the bytes the firmware sends after SEND_SAMPLE_START: the
+	 * channel A block, the channel B block and the footer, little endian.
+	 * Channel A is a noisy sine and channel B a noisy square wave, both as
+	 * 12 bit ADC codes.
+	 */
+	static byte[] wireFrame(int numSamples, Random random) {
+		ByteBuffer frame = ByteBuffer.allocate(4 * numSamples + 4).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		for (int i = 0; i < numSamples; i++) {
+			frame.putShort(toCode(sine(i) + 0.01 * random.nextGaussian()));
+		}
+
+		for (int i = 0; i < numSamples; i++) {
+			frame.putShort(toCode(square(i) + 0.01 * random.nextGaussian()));
+		}
+
+		frame.putShort(SEND_SAMPLE_END);
+		frame.putShort((short) 0);
+		return frame.array();
+	}
+
+	/**
+	 * @return voltages of a noisy 1.2kHz sine sampled at 100kHz
+	 */
+	static double[] voltages(int numSamples, Random random) {
+		double[] samples = new double[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			samples[i] = sine(i) + 0.01 * random.nextGaussian();
+		}
+		return samples;
+	}
+
+	private static double sine(int i) {
+		return 1.65 + 1.2 * Math.sin(2 * Math.PI * 1200 * i / 100000.0);
+	}
+
+	private static double square(int i) {
+		return (i / 40) % 2 == 0 ? 0.5 : 2.5;
+	}
+
+	private static short toCode(double voltage) {
+		long code = Math.round(voltage * 4095 / 3.3);
+		return (short) Math.max(0, Math.min(4095, code));
+	}
+
+}
@@ -0,0 +1,97 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * JMH refuses benchmark classes in the default package, and classes in a
+ * named package cannot import the application's default package classes. The
+ * benchmarks therefore reach the application through method handles looked up
+ * once when the benchmark class is loaded.
+ */
+final class Handles {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+	private Handles() {}
+
+	/**
+	 * Loads one of the application's classes by its simple name.
+	 * @param className - The name of the class in the default package
+	 * @return the class
+	 */
+	static Class<?> type(String className) {
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Missing application class " +
+					className, e);
+		}
+	}
+
+	/**
+	 * @return a handle to a public constructor of an application class
+	 */
+	static MethodHandle constructor(String className, Class<?>... parameters) {
+		try {
+			return LOOKUP.findConstructor(type(className),
+					MethodType.methodType(void.class, parameters));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return a handle to a public instance method of an application class
+	 */
+	static MethodHandle method(String className, String name,
+			Class<?> returnType, Class<?>... parameters) {
+		try {
+			return LOOKUP.findVirtual(type(className), name,
+					MethodType.methodType(returnType, parameters));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return a handle to a public static method of an application class
+	 */
+	static MethodHandle staticMethod(String className, String name,
+			Class<?> returnType, Class<?>... parameters) {
+		try {
+			return LOOKUP.findStatic(type(className), name,
+					MethodType.methodType(returnType, parameters));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a static field of an application class, whatever its access.
+	 */
+	static Object staticField(String className, String name) {
+		try {
+			Field field = type(className).getDeclaredField(name);
+			field.setAccessible(true);
+			return field.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates an instance of an application class with a public no argument
+	 * constructor.
+	 */
+	static Object newInstance(String className) {
+		try {
+			return constructor(className).invoke();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The math channel over a capture, for equations like the ones users type:
+ * a sum, a scaled difference, a power and one that uses the filter channel.
+ * Each is run on one thread and, from the default threshold up, split across
+ * the common fork-join pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathChannelBenchmark {
+
+	private static final MethodHandle GET_MATH_CHANNEL = Handles.method(
+			"DigiscopeModel", "getMathChannel", Handles.type("MathChannel"));
+	private static final MethodHandle COMPILE = Handles.staticMethod(
+			"MathExpression", "compile", Handles.type("MathExpression"),
+			String.class);
+	private static final MethodHandle SET_EQUATION = Handles.method(
+			"MathChannel", "setEquation", void.class, String.class,
+			Handles.type("MathExpression"));
+	private static final MethodHandle SET_PARALLEL_THRESHOLD = Handles.method(
+			"DigiscopeModel", "setParallelThreshold", void.class, int.class);
+	private static final MethodHandle COMPUTE_MATH_SAMPLES = Handles.method(
+			"DigiscopeModel", "computeMathSamples", double[].class,
+			double[].class, double[].class, double[].class);
+
+	@Param({"1000", "10000", "25000", "50000"})
+	public int numSamples;
+
+	@Param({"A+B", "(A-B)*2.5", "A^2+B^2", "A-F/2"})
+	public String equation;
+
+	// Integer.MAX_VALUE is always sequential, 8192 is the default threshold
+	@Param({"2147483647", "8192"})
+	public int parallelThreshold;
+
+	private double[] channelASamples;
+	private double[] channelBSamples;
+	private double[] filterChannelSamples;
+	private Object model;
+
+	@Setup
+	public void setup() throws Throwable {
+		Random random = new Random(4810);
+		channelASamples = Frames.voltages(numSamples, random);
+		channelBSamples = Frames.voltages(numSamples, random);
+		filterChannelSamples = Frames.voltages(numSamples, random);
+
+		model = Handles.newInstance("DigiscopeModel");
+		SET_EQUATION.invoke(GET_MATH_CHANNEL.invoke(model), equation,
+				COMPILE.invoke(equation));
+		SET_PARALLEL_THRESHOLD.invoke(model, parallelThreshold);
+	}
+
+	@Benchmark
+	public double[] mathChannel() throws Throwable {
+		return (double[]) COMPUTE_MATH_SAMPLES.invoke(model, channelASamples,
+				channelBSamples, filterChannelSamples);
+	}
+
+}
@@ -0,0 +1,150 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dsp.MinMaxPyramid;
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+
+/**
+ * Plotting a channel the way OscilloscopeDisplay.plotChannel does, into an
+ * offscreen Java2D surface the size of the display so it runs headless: the
+ * trace is drawn with TraceRenderer, then the visible samples are measured.
+ * OscilloscopeDisplay itself is an applet, which cannot be created without a
+ * screen. A horizontal scaling factor of 1 draws per column envelopes from
+ * the pyramid; 50 zooms in far enough to draw lines for the shorter records.
+ * plotChannel builds the trace from the pyramid each time, as for a new
+ * capture; replotVerticalScale alternates the vertical resolution, which
+ * reuses the trace's vertices; pan moves the viewport across the record a
+ * division at a time, wrapping at the end, and should cost about the same
+ * wherever in the record it is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+	// The size of the display and of one vertical division
+	private static final int WIDTH = 1000;
+	private static final int HEIGHT = 650;
+	private static final float VERTICAL_SECTION_SIZE = HEIGHT / 12f;
+
+	private static final int[] CHANNEL_COLOR = {0, 255, 0};
+	private static final double VERTICAL_RESOLUTION = 0.5;
+
+	private static final MethodHandle NEW_TRACE_RENDERER = Handles.constructor(
+			"TraceRenderer", float.class, float.class, float.class);
+	private static final Class<?> VIEWPORT = Handles.type("Viewport");
+	private static final MethodHandle NEW_VIEWPORT = Handles.constructor(
+			"Viewport", int.class, double.class);
+	private static final MethodHandle PAN_BY = Handles.method("Viewport",
+			"panBy", VIEWPORT, double.class, int.class);
+	private static final MethodHandle GET_START_INDEX = Handles.method(
+			"Viewport", "getStartIndex", int.class);
+	private static final MethodHandle RENDER = Handles.method("TraceRenderer",
+			"render", int.class, PGraphics.class, MinMaxPyramid.class,
+			int[].class, double.class, VIEWPORT);
+	private static final MethodHandle RENDER_TRIGGER = Handles.method(
+			"TraceRenderer", "renderTrigger", void.class, PGraphics.class,
+			int.class, int.class, VIEWPORT);
+	private static final MethodHandle CLEAR = Handles.method("TraceRenderer",
+			"clear", void.class);
+	private static final MethodHandle SET_VISIBLE_CHANNEL_SAMPLES =
+			Handles.method("OscilloscopeChannel", "setVisibleChannelSamples",
+					void.class, double[].class, int.class, int.class,
+					double.class, double.class, int.class);
+
+	@Param({"1000", "10000", "25000", "50000"})
+	public int numSamples;
+
+	@Param({"1", "50"})
+	public double horizontalScalingFactor;
+
+	private double[] samples;
+	private MinMaxPyramid pyramid;
+	private PGraphicsJava2D graphics;
+	private Object traceRenderer;
+	private Object channel;
+	private Object viewport;
+
+	@Setup
+	public void setup() throws Throwable {
+		System.setProperty("java.awt.headless", "true");
+
+		samples = Frames.voltages(numSamples, new Random(4810));
+		pyramid = new MinMaxPyramid(samples);
+
+		graphics = new PGraphicsJava2D();
+		graphics.setPrimary(false);
+		graphics.setSize(WIDTH, HEIGHT);
+
+		traceRenderer = NEW_TRACE_RENDERER.invoke((float) WIDTH,
+				(float) HEIGHT, VERTICAL_SECTION_SIZE);
+		channel = Handles.newInstance("ChannelA");
+		viewport = NEW_VIEWPORT.invoke(0, horizontalScalingFactor);
+	}
+
+	private int replots;
+
+	@Benchmark
+	public Object plotChannel() throws Throwable {
+		CLEAR.invoke(traceRenderer);
+		return plot(VERTICAL_RESOLUTION);
+	}
+
+	@Benchmark
+	public Object replotVerticalScale() throws Throwable {
+		return plot(replots++ % 2 == 0 ? VERTICAL_RESOLUTION :
+				2 * VERTICAL_RESOLUTION);
+	}
+
+	@Benchmark
+	public Object pan() throws Throwable {
+		Object panned = PAN_BY.invoke(viewport, 1000.0 / 16, numSamples);
+
+		// back to the start once the end of the record is on the display
+		viewport = (int) GET_START_INDEX.invoke(panned) ==
+				(int) GET_START_INDEX.invoke(viewport) ?
+				NEW_VIEWPORT.invoke(0, horizontalScalingFactor) : panned;
+
+		return plot(VERTICAL_RESOLUTION);
+	}
+
+	private Object plot(double verticalResolution) throws Throwable {
+		graphics.beginDraw();
+		graphics.background(0);
+
+		int visibleEnd = (int) RENDER.invoke(traceRenderer, (PGraphics) graphics,
+				pyramid, CHANNEL_COLOR, verticalResolution, viewport);
+		RENDER_TRIGGER.invoke(traceRenderer, (PGraphics) graphics, numSamples,
+				numSamples / 2, viewport);
+
+		double screenVoltage = HEIGHT / 2 / VERTICAL_SECTION_SIZE *
+				verticalResolution;
+		SET_VISIBLE_CHANNEL_SAMPLES.invoke(channel, samples,
+				Math.min((int) GET_START_INDEX.invoke(viewport), visibleEnd),
+				visibleEnd,
+				-screenVoltage, screenVoltage, 100000);
+
+		graphics.endDraw();
+		return graphics;
+	}
+
+}
@@ -0,0 +1,125 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A single capture on its way through the capture pipeline. Each stage fills
+ * in its own part of the frame, and every array belongs to the frame, so a
+ * frame can be worked on by one stage while the next capture is read and
+ * the previous one is drawn.
+ */
+public class CaptureFrame {
+
+	private final long sequenceNumber;
+	private final long acquiredNanos;
+	private final int numSamples;
+	private final short triggerIndex;
+	private final int samplingRate;
+	private final boolean bandpassOn;
+
+	// Filled in by the decode stage
+	private ByteBuffer rawFrame;
+	private double[] channelASamples;
+	private double[] channelBSamples;
+
+	// Filled in by the DSP stage
+	private double[] bandpassedSamples;
+	private double[] mathChannelSamples;
+	private double[] filterChannelSamples;
+
+	/**
+	 * @param sequenceNumber - The number of the capture since connecting
+	 * @param rawFrame - The frame as read from the firmware
+	 * @param numSamples - The number of samples per channel
+	 * @param triggerIndex - The index of the trigger point
+	 * @param samplingRate - The sampling rate the samples were taken at
+	 * @param bandpassOn - Whether bandpass sampling was on for the capture
+	 */
+	public CaptureFrame(long sequenceNumber, ByteBuffer rawFrame,
+			int numSamples, short triggerIndex, int samplingRate,
+			boolean bandpassOn) {
+		this.sequenceNumber = sequenceNumber;
+		this.acquiredNanos = System.nanoTime();
+		this.rawFrame = rawFrame;
+		this.numSamples = numSamples;
+		this.triggerIndex = triggerIndex;
+		this.samplingRate = samplingRate;
+		this.bandpassOn = bandpassOn;
+	}
+
+	/*************************************************
+	 * Getter/ Setter methods
+	 *************************************************/
+
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	public long getAcquiredNanos() {
+		return acquiredNanos;
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	public short getTriggerIndex() {
+		return triggerIndex;
+	}
+
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	public boolean getBandpassOn() {
+		return bandpassOn;
+	}
+
+	public ByteBuffer getRawFrame() {
+		return rawFrame;
+	}
+
+	/**
+	 * Lets go of the raw frame once it has been decoded
+	 */
+	public void clearRawFrame() {
+		this.rawFrame = null;
+	}
+
+	public double[] getChannelASamples() {
+		return channelASamples;
+	}
+
+	public double[] getChannelBSamples() {
+		return channelBSamples;
+	}
+
+	public void setChannelSamples(double[] channelASamples,
+			double[] channelBSamples) {
+		this.channelASamples = channelASamples;
+		this.channelBSamples = channelBSamples;
+	}
+
+	public double[] getBandpassedSamples() {
+		return bandpassedSamples;
+	}
+
+	public void setBandpassedSamples(double[] bandpassedSamples) {
+		this.bandpassedSamples = bandpassedSamples;
+	}
+
+	public double[] getMathChannelSamples() {
+		return mathChannelSamples;
+	}
+
+	public void setMathChannelSamples(double[] mathChannelSamples) {
+		this.mathChannelSamples = mathChannelSamples;
+	}
+
+	public double[] getFilterChannelSamples() {
+		return filterChannelSamples;
+	}
+
+	public void setFilterChannelSamples(double[] filterChannelSamples) {
+		this.filterChannelSamples = filterChannelSamples;
+	}
+
+}
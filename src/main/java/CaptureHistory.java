@@ -0,0 +1,304 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class keeps the most recent captures, so an earlier trigger can be
+ * looked at again after the channels have moved on to the next capture.
+ *
+ * Captures are kept as the raw 12 bit ADC readings the firmware sent (2
+ * bytes per sample rather than 8 as voltages) in a single direct buffer
+ * allocated once, so the history does not add to the heap or to garbage
+ * collection however many captures it holds. The buffer is used as a ring:
+ * each capture (a segment) is written after the last one, wrapping to the
+ * start when it reaches the end, and the oldest segments are evicted to make
+ * room. Segments are numbered from 0 in the order they were added, and any
+ * segment still held can be got by its number in constant time.
+ */
+public class CaptureHistory {
+
+	static final int DEFAULT_BUDGET_MB = 64;
+	static final int DEFAULT_MAX_SEGMENTS = 4096;
+
+	// Holds the channel A and channel B blocks of each segment. Allocated
+	// with the first segment, so a model that never connects (e.g. in batch
+	// processing) does not reserve the budget.
+	private ByteBuffer storage;
+	private final int budgetBytes;
+
+	// Per segment details, indexed by segment number % maxSegments
+	private final int maxSegments;
+	private final int[] offsets;
+	private final int[] numSamples;
+	private final short[] triggerIndexes;
+	private final int[] samplingRates;
+	private final boolean[] bandpassOn;
+	private final long[] acquiredNanos;
+
+	// Segment numbers of the oldest segment held and the next one added
+	private long firstSegment;
+	private long nextSegment;
+
+	// Where the next segment will be written
+	private int writePosition;
+
+	private long evictedCount;
+
+	/**
+	 * @param budgetMB - How much memory to keep captures in, in megabytes
+	 * @param maxSegments - The most captures to keep, however small
+	 */
+	public CaptureHistory(int budgetMB, int maxSegments) {
+		if (budgetMB <= 0 || budgetMB > 2047) {
+			throw new IllegalArgumentException(
+					"History budget must be between 1 and 2047MB");
+		}
+
+		this.budgetBytes = budgetMB * 1024 * 1024;
+		this.maxSegments = maxSegments;
+		this.offsets = new int[maxSegments];
+		this.numSamples = new int[maxSegments];
+		this.triggerIndexes = new short[maxSegments];
+		this.samplingRates = new int[maxSegments];
+		this.bandpassOn = new boolean[maxSegments];
+		this.acquiredNanos = new long[maxSegments];
+	}
+
+	public CaptureHistory() {
+		this(DEFAULT_BUDGET_MB, DEFAULT_MAX_SEGMENTS);
+	}
+
+	/**
+	 * Copies the channel A and channel B blocks of a frame into the history,
+	 * evicting the oldest segments if there is no room.
+	 * @param frame - The little endian frame, as SampleFrameDecoder.readFrame
+	 *                returns it. Its position is untouched.
+	 * @param numSamples - The number of samples per channel in the frame
+	 * @param triggerIndex - The index of the trigger point
+	 * @param samplingRate - The sampling rate the frame was captured at
+	 * @param bandpassOn - Whether bandpass sampling was on
+	 * @return the segment number, or -1 if the frame is bigger than the
+	 *         whole history
+	 */
+	public synchronized long append(ByteBuffer frame, int numSamples,
+			short triggerIndex, int samplingRate, boolean bandpassOn) {
+		int size = getSegmentSize(numSamples);
+
+		if (size > budgetBytes) {
+			return -1;
+		}
+
+		if (storage == null) {
+			storage = ByteBuffer.allocateDirect(budgetBytes)
+					.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		if (nextSegment - firstSegment == maxSegments) {
+			evictOldest();
+		}
+
+		if (writePosition + size > budgetBytes) {
+			// the segments left at the end of the buffer are the oldest, so
+			// they go before wrapping round to the start
+			while (firstSegment < nextSegment &&
+					offsets[slot(firstSegment)] >= writePosition) {
+				evictOldest();
+			}
+			writePosition = 0;
+		}
+
+		// evict whatever the new segment would overwrite
+		while (firstSegment < nextSegment &&
+				offsets[slot(firstSegment)] >= writePosition &&
+				offsets[slot(firstSegment)] < writePosition + size) {
+			evictOldest();
+		}
+
+		ByteBuffer source = frame.duplicate();
+		source.position(0).limit(size);
+		ByteBuffer destination = storage.duplicate();
+		destination.position(writePosition);
+		destination.put(source);
+
+		int slot = slot(nextSegment);
+		this.offsets[slot] = writePosition;
+		this.numSamples[slot] = numSamples;
+		this.triggerIndexes[slot] = triggerIndex;
+		this.samplingRates[slot] = samplingRate;
+		this.bandpassOn[slot] = bandpassOn;
+		this.acquiredNanos[slot] = System.nanoTime();
+
+		writePosition += size;
+		return nextSegment++;
+	}
+
+	/**
+	 * Copies a segment back out as a whole frame, footer included, which can
+	 * be submitted to the capture pipeline. The copy stays valid after the
+	 * segment is evicted.
+	 * @param segment - The segment number
+	 * @return the little endian frame, or null if the segment is not held
+	 */
+	public synchronized ByteBuffer copyFrame(long segment) {
+		if (!contains(segment)) {
+			return null;
+		}
+
+		int slot = slot(segment);
+		int size = getSegmentSize(numSamples[slot]);
+
+		ByteBuffer source = storage.duplicate();
+		source.position(offsets[slot]).limit(offsets[slot] + size);
+
+		ByteBuffer frame = ByteBuffer.allocate(
+				SampleFrameDecoder.getFrameSize(numSamples[slot]))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		frame.put(source);
+		frame.putShort(size, DigiscopeServer.SEND_SAMPLE_END);
+		frame.clear();
+
+		return frame;
+	}
+
+	/**
+	 * Runs a segment through the capture pipeline again, with the settings
+	 * it was captured with, so it is processed and drawn as if it had just
+	 * come from the firmware.
+	 * @param segment - The segment number
+	 * @param pipeline - The pipeline to submit the segment to
+	 * @return whether the segment was still held
+	 */
+	public boolean resubmit(long segment, CapturePipeline pipeline) {
+		int segmentNumSamples;
+		short triggerIndex;
+		int samplingRate;
+		boolean segmentBandpassOn;
+		ByteBuffer frame;
+
+		synchronized (this) {
+			frame = copyFrame(segment);
+			if (frame == null) {
+				return false;
+			}
+
+			int slot = slot(segment);
+			segmentNumSamples = numSamples[slot];
+			triggerIndex = triggerIndexes[slot];
+			samplingRate = samplingRates[slot];
+			segmentBandpassOn = bandpassOn[slot];
+		}
+
+		pipeline.submit(frame, segmentNumSamples, triggerIndex, samplingRate,
+				segmentBandpassOn);
+		return true;
+	}
+
+	/**
+	 * @param segment - The segment number
+	 * @return whether the segment is still held
+	 */
+	public synchronized boolean contains(long segment) {
+		return segment >= firstSegment && segment < nextSegment;
+	}
+
+	/**
+	 * Drops every segment
+	 */
+	public synchronized void clear() {
+		firstSegment = nextSegment;
+		writePosition = 0;
+	}
+
+	/**
+	 * @return a summary of how much of the history is in use
+	 */
+	@Override
+	public synchronized String toString() {
+		return "Capture history: " + getSegmentCount() + " captures (" +
+				firstSegment + " to " + (nextSegment - 1) + "), " +
+				evictedCount + " evicted, " + budgetBytes / (1024 * 1024) +
+				"MB budget";
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	/**
+	 * @return the number of the oldest segment held
+	 */
+	public synchronized long getFirstSegment() {
+		return firstSegment;
+	}
+
+	/**
+	 * @return the number of the newest segment held, -1 if none have been
+	 *         added
+	 */
+	public synchronized long getLastSegment() {
+		return nextSegment - 1;
+	}
+
+	public synchronized int getSegmentCount() {
+		return (int) (nextSegment - firstSegment);
+	}
+
+	public synchronized long getEvictedCount() {
+		return evictedCount;
+	}
+
+	public synchronized int getNumSamples(long segment) {
+		return numSamples[checkedSlot(segment)];
+	}
+
+	public synchronized short getTriggerIndex(long segment) {
+		return triggerIndexes[checkedSlot(segment)];
+	}
+
+	public synchronized int getSamplingRate(long segment) {
+		return samplingRates[checkedSlot(segment)];
+	}
+
+	public synchronized boolean getBandpassOn(long segment) {
+		return bandpassOn[checkedSlot(segment)];
+	}
+
+	public synchronized long getAcquiredNanos(long segment) {
+		return acquiredNanos[checkedSlot(segment)];
+	}
+
+	/**
+	 * @return the memory the history keeps captures in, in bytes
+	 */
+	public int getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * The channel A and channel B blocks, without the footer
+	 */
+	private static int getSegmentSize(int numSamples) {
+		return 2 * numSamples * SampleFrameDecoder.BYTES_PER_SAMPLE;
+	}
+
+	private int slot(long segment) {
+		return (int) (segment % maxSegments);
+	}
+
+	private int checkedSlot(long segment) {
+		if (!contains(segment)) {
+			throw new IndexOutOfBoundsException("Segment " + segment +
+					" is not in the history");
+		}
+		return slot(segment);
+	}
+
+	private void evictOldest() {
+		firstSegment++;
+		evictedCount++;
+	}
+
+}
@@ -0,0 +1,243 @@
+import java.nio.ByteBuffer;
+
+/**
+ * This class is the capture pipeline that the samples read from the firmware
+ * go through, so the socket is free to read the next capture while the last
+ * one is being processed. A capture moves through four stages, each on its
+ * own thread with a bounded queue in front of it:
+ * 1. Decode - convert the raw frame into channel A and B voltages
+ * 2. DSP - bandpass sampling, and the filter and math channels
+ * 3. Measurements - set the channels, which works out their measurements
+ * 4. Render - hand the channels to the display, which draws them on its own
+ *    thread at a capped frame rate
+ * If a stage cannot keep up, the oldest capture waiting for it is dropped.
+ */
+public class CapturePipeline {
+
+	// How many captures can wait for each stage
+	static final int STAGE_CAPACITY = 2;
+
+	// How often (in captures) the stage statistics are logged
+	static final int STATISTICS_INTERVAL = 100;
+
+	private final DigiscopeModel model;
+	private final SampleFrameDecoder frameDecoder;
+
+	private final PipelineStage<CaptureFrame> decodeStage;
+	private final PipelineStage<CaptureFrame> dspStage;
+	private final PipelineStage<CaptureFrame> measurementStage;
+	private final PipelineStage<CaptureFrame> renderStage;
+
+	private long nextSequenceNumber;
+	private volatile long lastEndToEndNanos;
+
+	/**
+	 * @param model - The model holding the channels and their settings
+	 * @param frameDecoder - The decoder the raw frames were read with, so
+	 *                       their buffers can be handed back once decoded
+	 */
+	public CapturePipeline(DigiscopeModel model,
+			SampleFrameDecoder frameDecoder) {
+		this.model = model;
+		this.frameDecoder = frameDecoder;
+
+		renderStage = new PipelineStage<>("render", STAGE_CAPACITY,
+				this::render);
+		measurementStage = new PipelineStage<>("measurements", STAGE_CAPACITY,
+				this::measure);
+		dspStage = new PipelineStage<>("dsp", STAGE_CAPACITY, this::process);
+		decodeStage = new PipelineStage<>("decode", STAGE_CAPACITY,
+				this::decode);
+	}
+
+	/**
+	 * Queues a frame that has been read from the firmware. This does not
+	 * block, so the caller can go straight back to reading the socket.
+	 * @param rawFrame - The frame, from SampleFrameDecoder.readFrame
+	 * @param numSamples - The number of samples per channel in the frame
+	 * @param triggerIndex - The index of the trigger point
+	 */
+	public void submit(ByteBuffer rawFrame, int numSamples,
+			short triggerIndex) {
+		submit(rawFrame, numSamples, triggerIndex, model.getSamplingRate(),
+				model.getBandpassSampling().equals("On"));
+	}
+
+	/**
+	 * Queues a frame with the settings it was captured with, e.g. a frame
+	 * replayed from a capture file.
+	 * @param rawFrame - The frame, laid out as SampleFrameDecoder.readFrame
+	 *                   returns it
+	 * @param numSamples - The number of samples per channel in the frame
+	 * @param triggerIndex - The index of the trigger point
+	 * @param samplingRate - The sampling rate the frame was captured at
+	 * @param bandpassOn - Whether bandpass sampling was on
+	 */
+	public void submit(ByteBuffer rawFrame, int numSamples,
+			short triggerIndex, int samplingRate, boolean bandpassOn) {
+		CaptureFrame frame = new CaptureFrame(nextSequenceNumber++, rawFrame,
+				numSamples, triggerIndex, samplingRate, bandpassOn);
+
+		decodeStage.submit(frame);
+	}
+
+	/**
+	 * Stops all the stages, discarding any captures in flight
+	 */
+	public void shutdown() {
+		decodeStage.shutdown();
+		dspStage.shutdown();
+		measurementStage.shutdown();
+		renderStage.shutdown();
+		System.out.println(getStatistics());
+	}
+
+	/**
+	 * @return a summary of every stage's counters, latency and queue depth,
+	 *         of how often each channel was computed, of the frames the
+	 *         display drew and dropped, and of the events coalesced for the
+	 *         user interface
+	 */
+	public String getStatistics() {
+		OscilloscopeDisplay display = model.getOscilloscopeDisplay();
+
+		return "Capture pipeline (end to end " +
+				String.format("%.2fms", lastEndToEndNanos / 1e6) + ")\n  " +
+				decodeStage + "\n  " + dspStage + "\n  " + measurementStage +
+				"\n  " + renderStage + "\n" + model.getChannelGraph() + "\n" +
+				(display != null ? display.getRenderScheduler() + "\n" : "") +
+				model.getEventCoalescer();
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	public PipelineStage<CaptureFrame> getDecodeStage() {
+		return decodeStage;
+	}
+
+	public PipelineStage<CaptureFrame> getDspStage() {
+		return dspStage;
+	}
+
+	public PipelineStage<CaptureFrame> getMeasurementStage() {
+		return measurementStage;
+	}
+
+	public PipelineStage<CaptureFrame> getRenderStage() {
+		return renderStage;
+	}
+
+	/*************************************************
+	 * Stages
+	 *************************************************/
+
+	/**
+	 * Converts the raw frame into voltages and hands its buffer back
+	 */
+	private void decode(CaptureFrame frame) {
+		int numSamples = frame.getNumSamples();
+		double[] channelASamples = new double[numSamples];
+		double[] channelBSamples = new double[numSamples];
+
+		SampleFrameDecoder.decodeSamples(frame.getRawFrame(), numSamples,
+				channelASamples, channelBSamples);
+		frameDecoder.release(frame.getRawFrame());
+		frame.clearRawFrame();
+
+		frame.setChannelSamples(channelASamples, channelBSamples);
+		dspStage.submit(frame);
+	}
+
+	/**
+	 * Works out the bandpassed, filter and math channel samples through the
+	 * model's channel graph, which computes whichever of the filter and math
+	 * channels feeds the other first, and each channel only once.
+	 */
+	private void process(CaptureFrame frame) {
+		ChannelGraph channelGraph = model.getChannelGraph();
+		channelGraph.setSource(ChannelGraph.A, frame.getChannelASamples());
+		channelGraph.setSource(ChannelGraph.B, frame.getChannelBSamples());
+
+		if (frame.getBandpassOn()) {
+			// upsample by a factor of 20, multiply by the 1Mhz sine wave and
+			// filter in one pass
+			frame.setBandpassedSamples(channelGraph.get(ChannelGraph.BANDPASS));
+		}
+
+		boolean filterAvailable =
+				model.getFilterChannel().getAvailableForPlotting();
+		boolean mathAvailable = model.getMathChannel().getAvailableForPlotting();
+
+		if (filterAvailable) {
+			frame.setFilterChannelSamples(channelGraph.get(ChannelGraph.FILTER));
+		}
+
+		// the math channel also follows the filter channel when it is the
+		// filter's input
+		if (mathAvailable || (filterAvailable &&
+				ChannelGraph.MATH.equals(model.getFilterChannelInput()))) {
+			frame.setMathChannelSamples(channelGraph.get(ChannelGraph.MATH));
+		}
+
+		measurementStage.submit(frame);
+	}
+
+	/**
+	 * Sets the frame's samples on the channels, which works out their
+	 * measurements, and builds the min/max pyramids the display draws from
+	 */
+	private void measure(CaptureFrame frame) {
+		int samplingRate = frame.getSamplingRate();
+
+		model.getChannelA().setChannelSamples(frame.getChannelASamples(),
+				samplingRate);
+		model.getChannelB().setChannelSamples(frame.getChannelBSamples(),
+				samplingRate);
+		model.getChannelA().getSamplePyramid();
+		model.getChannelB().getSamplePyramid();
+
+		if (frame.getBandpassedSamples() != null) {
+			model.getChannelA().setBandpassedSamples(
+					frame.getBandpassedSamples());
+			model.getChannelA().getBandpassedPyramid();
+		}
+
+		if (frame.getFilterChannelSamples() != null) {
+			model.getFilterChannel().setChannelSamples(
+					frame.getFilterChannelSamples(), samplingRate);
+			model.getFilterChannel().getSamplePyramid();
+		}
+
+		if (frame.getMathChannelSamples() != null) {
+			model.getMathChannel().setChannelSamples(
+					frame.getMathChannelSamples(), samplingRate);
+			model.getMathChannel().getSamplePyramid();
+		}
+
+		renderStage.submit(frame);
+	}
+
+	/**
+	 * Hands the channels the user wants plotted to the display as a frame,
+	 * which the display draws on its own thread (dropping it if a newer one
+	 * arrives first) and then updates the measurement labels
+	 */
+	private void render(CaptureFrame frame) {
+		OscilloscopeDisplay display = model.getOscilloscopeDisplay();
+
+		display.plotCapture(model.getVoltsPerDivisionInDouble(),
+				frame.getTriggerIndex(), frame.getBandpassedSamples() != null);
+
+		lastEndToEndNanos = System.nanoTime() - frame.getAcquiredNanos();
+
+		// the controller's listener runs this on the Swing thread
+		model.emit(DigiscopeEvent.SET_SCALING_COMBO_BOXES);
+
+		if ((frame.getSequenceNumber() + 1) % STATISTICS_INTERVAL == 0) {
+			System.out.println(getStatistics());
+		}
+	}
+
+}
@@ -0,0 +1,199 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class records what the firmware sends to an append only capture file,
+ * so a session can be replayed later with CaptureReplay. Everything in the
+ * file is little endian, like the firmware's messages.
+ *
+ * The file starts with a magic number and version, followed by records:
+ * - Config: 'C', timestamp (long), command (short), value (short)
+ * - Frame: 'F', timestamp (long), samples per channel (int), sampling rate
+ *   (int), bandpass on (byte), trigger index (short), frame size (int), then
+ *   the raw frame: the channel A and B blocks and the footer
+ * Timestamps are in nanoseconds from when recording started, and a session
+ * appended to an existing file carries on from the file's last timestamp, so
+ * they never go backwards. Each frame
+ * carries the settings needed to process it, and config records keep every
+ * setting the firmware reported in between.
+ */
+public class CaptureRecorder implements Closeable {
+
+	static final int MAGIC = 0x50435344; // "DSCP"
+	static final int VERSION = 1;
+	static final int FILE_HEADER_SIZE = 8;
+
+	static final byte CONFIG_RECORD = 'C';
+	static final byte FRAME_RECORD = 'F';
+	static final int CONFIG_RECORD_SIZE = 13;
+	static final int FRAME_HEADER_SIZE = 24;
+
+	private final FileChannel channel;
+	private final long startNanos;
+	private final ByteBuffer header = ByteBuffer.allocateDirect(
+			FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer[] frameRecord = new ByteBuffer[2];
+	private long framesRecorded;
+
+	/**
+	 * Opens a capture file for appending, writing the file header if the
+	 * file is new. A record cut short at the end of an existing file (e.g.
+	 * from a crash while recording) is cut off before appending after it.
+	 * @param file - The capture file
+	 * @throws IOException if the file exists and is not a capture file
+	 */
+	public CaptureRecorder(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		if (channel.size() == 0) {
+			startNanos = System.nanoTime();
+			header.clear();
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(header);
+			return;
+		}
+
+		try {
+			startNanos = System.nanoTime() - findEnd(file);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records a configuration message from the firmware
+	 * @param command - The command
+	 * @param value - The value of the command
+	 * @throws IOException
+	 */
+	public synchronized void recordConfig(short command, short value)
+			throws IOException {
+		header.clear();
+		header.put(CONFIG_RECORD).putLong(System.nanoTime() - startNanos)
+				.putShort(command).putShort(value).flip();
+		writeFully(header);
+	}
+
+	/**
+	 * Records a frame, as read by SampleFrameDecoder.readFrame. The frame
+	 * buffer's position is left untouched.
+	 * @param frame - The raw frame
+	 * @param numSamples - The number of samples per channel in the frame
+	 * @param triggerIndex - The index of the trigger point
+	 * @param samplingRate - The sampling rate in effect
+	 * @param bandpassOn - Whether bandpass sampling is on
+	 * @throws IOException
+	 */
+	public synchronized void recordFrame(ByteBuffer frame, int numSamples,
+			short triggerIndex, int samplingRate, boolean bandpassOn)
+			throws IOException {
+		int frameSize = SampleFrameDecoder.getFrameSize(numSamples);
+
+		header.clear();
+		header.put(FRAME_RECORD).putLong(System.nanoTime() - startNanos)
+				.putInt(numSamples).putInt(samplingRate)
+				.put((byte) (bandpassOn ? 1 : 0)).putShort(triggerIndex)
+				.putInt(frameSize).flip();
+
+		ByteBuffer body = frame.duplicate();
+		body.clear().limit(frameSize);
+
+		// header and frame in one gathering write
+		frameRecord[0] = header;
+		frameRecord[1] = body;
+		while (body.hasRemaining()) {
+			channel.write(frameRecord);
+		}
+
+		framesRecorded++;
+	}
+
+	public synchronized long getFramesRecorded() {
+		return framesRecorded;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Walks the records of an existing file, leaving the channel positioned
+	 * after the last complete one and cutting off anything after it.
+	 * @param file - The capture file, for the error message
+	 * @return the timestamp of the last record, or 0 if there are none
+	 */
+	private long findEnd(Path file) throws IOException {
+		long size = channel.size();
+
+		header.clear().limit(FILE_HEADER_SIZE);
+		if (size < FILE_HEADER_SIZE || readFully(0) < FILE_HEADER_SIZE ||
+				header.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a capture file");
+		}
+
+		long position = FILE_HEADER_SIZE;
+		long lastTimestamp = 0;
+
+		while (true) {
+			header.clear();
+			if (readFully(position) < CONFIG_RECORD_SIZE) {
+				break;
+			}
+
+			long next;
+			byte type = header.get(0);
+			if (type == CONFIG_RECORD) {
+				next = position + CONFIG_RECORD_SIZE;
+			} else if (type == FRAME_RECORD &&
+					header.position() == FRAME_HEADER_SIZE) {
+				next = position + FRAME_HEADER_SIZE + header.getInt(20);
+			} else {
+				break;
+			}
+
+			if (next <= position || next > size) {
+				break;
+			}
+			lastTimestamp = header.getLong(1);
+			position = next;
+		}
+
+		if (position < size) {
+			System.out.println("Cutting off " + (size - position) +
+					" bytes after the last complete record of " + file);
+			channel.truncate(position);
+		}
+		channel.position(position);
+
+		return lastTimestamp;
+	}
+
+	/**
+	 * Reads into the header buffer from the given position until it is full
+	 * or the file ends
+	 * @return the number of bytes read
+	 */
+	private int readFully(long position) throws IOException {
+		while (header.hasRemaining()) {
+			if (channel.read(header, position + header.position()) < 0) {
+				break;
+			}
+		}
+		return header.position();
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
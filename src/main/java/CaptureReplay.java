@@ -0,0 +1,344 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class replays a capture file written by CaptureRecorder through the
+ * capture pipeline, either as fast as the pipeline takes frames (for
+ * benchmarking the processing and render stages) or at the timing they were
+ * recorded with.
+ *
+ * The file is memory mapped a window at a time with FileChannel.map, and
+ * only the offset of each frame record is kept on the heap, so a session of
+ * several gigabytes can be opened and seeked by frame index without reading
+ * it into memory.
+ *
+ * Config records are replayed too, in their place between the frames, so the
+ * settings the frames are displayed with (e.g. volts per division) are the
+ * ones the firmware reported when they were recorded.
+ */
+public class CaptureReplay implements Closeable {
+
+	// How much of the file is mapped at a time. Frames larger than this are
+	// mapped on their own.
+	static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+	// How long to wait for the pipeline to take a frame when replaying as
+	// fast as possible
+	static final long BACKOFF_NANOS = 100000;
+
+	private final FileChannel channel;
+	private final long fileSize;
+
+	// Offset of each frame record in the file
+	private long[] frameOffsets = new long[1024];
+	private int frameCount;
+
+	// The currently mapped window of the file
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+
+	// Offset of each config record in the file, and how many of them come
+	// before each frame
+	private long[] configOffsets = new long[64];
+	private int configCount;
+	private int[] configsBefore = new int[1024];
+
+	private volatile boolean stopRequested;
+
+	/**
+	 * Applies a config record as it is replayed
+	 */
+	public interface ConfigHandler {
+		/**
+		 * @param command - The command the firmware sent
+		 * @param value - The value of the command
+		 */
+		void apply(short command, short value);
+	}
+
+	/**
+	 * Opens a capture file and indexes its frames. A record cut short at the
+	 * end of the file (e.g. from a crash while recording) is ignored.
+	 * @param file - The capture file
+	 * @throws IOException if the file is not a capture file
+	 */
+	public CaptureReplay(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		fileSize = channel.size();
+
+		if (fileSize < CaptureRecorder.FILE_HEADER_SIZE ||
+				map(0, CaptureRecorder.FILE_HEADER_SIZE).getInt(0) !=
+				CaptureRecorder.MAGIC) {
+			channel.close();
+			throw new IOException(file + " is not a capture file");
+		}
+
+		buildIndex();
+	}
+
+	/*************************************************
+	 * Frame access
+	 *************************************************/
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public int getConfigCount() {
+		return configCount;
+	}
+
+	/**
+	 * Gets the raw frame (channel A block, channel B block and footer) of a
+	 * frame record, in the same little endian layout that
+	 * SampleFrameDecoder.readFrame returns. The buffer is a view of the
+	 * mapped file.
+	 * @param index - The index of the frame
+	 * @return the raw frame
+	 * @throws IOException
+	 */
+	public ByteBuffer getFrame(int index) throws IOException {
+		long offset = frameOffsets[index];
+		int frameSize = header(index).getInt(offset(offset) + 20);
+		ByteBuffer frame = map(offset + CaptureRecorder.FRAME_HEADER_SIZE,
+				frameSize).slice();
+		frame.limit(frameSize);
+		return frame.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return the time the frame was recorded at, in nanoseconds from when
+	 * 		   recording started
+	 */
+	public long getTimestampNanos(int index) throws IOException {
+		return header(index).getLong(offset(frameOffsets[index]) + 1);
+	}
+
+	public int getNumSamples(int index) throws IOException {
+		return header(index).getInt(offset(frameOffsets[index]) + 9);
+	}
+
+	public int getSamplingRate(int index) throws IOException {
+		return header(index).getInt(offset(frameOffsets[index]) + 13);
+	}
+
+	public boolean getBandpassOn(int index) throws IOException {
+		return header(index).get(offset(frameOffsets[index]) + 17) != 0;
+	}
+
+	public short getTriggerIndex(int index) throws IOException {
+		return header(index).getShort(offset(frameOffsets[index]) + 18);
+	}
+
+	/**
+	 * @return the time the config record was recorded at, in nanoseconds from
+	 * 		   when recording started
+	 */
+	public long getConfigTimestampNanos(int index) throws IOException {
+		long offset = configOffsets[index];
+		return map(offset, CaptureRecorder.CONFIG_RECORD_SIZE)
+				.getLong(offset(offset) + 1);
+	}
+
+	public short getConfigCommand(int index) throws IOException {
+		long offset = configOffsets[index];
+		return map(offset, CaptureRecorder.CONFIG_RECORD_SIZE)
+				.getShort(offset(offset) + 9);
+	}
+
+	public short getConfigValue(int index) throws IOException {
+		long offset = configOffsets[index];
+		return map(offset, CaptureRecorder.CONFIG_RECORD_SIZE)
+				.getShort(offset(offset) + 11);
+	}
+
+	/*************************************************
+	 * Replay
+	 *************************************************/
+
+	/**
+	 * Replays frames through the capture pipeline, on the calling thread.
+	 * When replaying as fast as possible, each frame waits for room in the
+	 * pipeline's first stage rather than being dropped there.
+	 *
+	 * Config records are handed to the config handler in file order, each
+	 * before the frames recorded after it. Those recorded before the first
+	 * frame replayed are applied straight away, so replay starts with the
+	 * settings in effect at that frame.
+	 * @param pipeline - The pipeline to submit the frames to
+	 * @param fromFrame - The index of the first frame to replay
+	 * @param originalTiming - Whether to keep the recorded time between
+	 *                         frames, or go as fast as possible
+	 * @param configHandler - Applies the config records
+	 * @return the number of frames replayed
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int replay(CapturePipeline pipeline, int fromFrame,
+			boolean originalTiming, ConfigHandler configHandler)
+			throws IOException, InterruptedException {
+		stopRequested = false;
+
+		long startNanos = System.nanoTime();
+		long firstTimestamp = fromFrame < frameCount ?
+				getTimestampNanos(fromFrame) : 0;
+		int replayed = 0;
+		int config = 0;
+
+		for (int i = fromFrame; i < frameCount && !stopRequested; i++) {
+			for (; config < configsBefore[i]; config++) {
+				if (originalTiming) {
+					sleepUntil(startNanos + getConfigTimestampNanos(config) -
+							firstTimestamp);
+				}
+				configHandler.apply(getConfigCommand(config),
+						getConfigValue(config));
+			}
+
+			if (originalTiming) {
+				sleepUntil(startNanos + getTimestampNanos(i) - firstTimestamp);
+			} else {
+				while (pipeline.getDecodeStage().getQueueDepth() >=
+						CapturePipeline.STAGE_CAPACITY) {
+					Thread.sleep(0, (int) BACKOFF_NANOS);
+				}
+			}
+
+			pipeline.submit(getFrame(i), getNumSamples(i), getTriggerIndex(i),
+					getSamplingRate(i), getBandpassOn(i));
+			replayed++;
+		}
+
+		// settings changed after the last frame
+		for (; config < configCount && !stopRequested; config++) {
+			configHandler.apply(getConfigCommand(config),
+					getConfigValue(config));
+		}
+
+		return replayed;
+	}
+
+	/**
+	 * Stops a replay in progress after the current frame
+	 */
+	public void stop() {
+		stopRequested = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * Sleeps until System.nanoTime() reaches the given time
+	 */
+	private static void sleepUntil(long due) throws InterruptedException {
+		long wait = due - System.nanoTime();
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+
+	/**
+	 * Walks the records from the start of the file, noting where each frame
+	 * and config record starts.
+	 */
+	private void buildIndex() throws IOException {
+		long position = CaptureRecorder.FILE_HEADER_SIZE;
+
+		while (position < fileSize) {
+			byte type = map(position, 1).get(offset(position));
+
+			if (type == CaptureRecorder.CONFIG_RECORD) {
+				if (position + CaptureRecorder.CONFIG_RECORD_SIZE > fileSize) {
+					break;
+				}
+
+				if (configCount == configOffsets.length) {
+					configOffsets = Arrays.copyOf(configOffsets,
+							configCount * 2);
+				}
+				configOffsets[configCount++] = position;
+				position += CaptureRecorder.CONFIG_RECORD_SIZE;
+			} else if (type == CaptureRecorder.FRAME_RECORD) {
+				if (position + CaptureRecorder.FRAME_HEADER_SIZE > fileSize) {
+					break;
+				}
+
+				int frameSize = map(position, CaptureRecorder.FRAME_HEADER_SIZE)
+						.getInt(offset(position) + 20);
+				long next = position + CaptureRecorder.FRAME_HEADER_SIZE +
+						frameSize;
+
+				if (next > fileSize) {
+					break;
+				}
+
+				if (frameCount == frameOffsets.length) {
+					frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+					configsBefore = Arrays.copyOf(configsBefore, frameCount * 2);
+				}
+				configsBefore[frameCount] = configCount;
+				frameOffsets[frameCount++] = position;
+				position = next;
+			} else {
+				System.out.println("Unknown record at " + position +
+						", stopping there");
+				break;
+			}
+		}
+
+		System.out.println("Indexed " + frameCount + " frames and " +
+				configCount + " config records");
+	}
+
+	/**
+	 * Maps the header of a frame record
+	 */
+	private MappedByteBuffer header(int index) throws IOException {
+		return map(frameOffsets[index], CaptureRecorder.FRAME_HEADER_SIZE);
+	}
+
+	/**
+	 * Makes sure the given part of the file is in the mapped window, moving
+	 * the window to start there if it is not.
+	 * @param position - The start of the part of the file needed
+	 * @param length - The length of the part of the file needed
+	 * @return the window, position it at offset(position)
+	 */
+	private MappedByteBuffer map(long position, int length) throws IOException {
+		if (window == null || position < windowStart ||
+				position + length > windowEnd) {
+			windowStart = position;
+			windowEnd = Math.min(fileSize,
+					position + Math.max(WINDOW_SIZE, length));
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					windowEnd - windowStart);
+			window.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		window.position(offset(position));
+		return window;
+	}
+
+	/**
+	 * @return where a file position is within the mapped window
+	 */
+	private int offset(long position) {
+		return (int) (position - windowStart);
+	}
+
+}
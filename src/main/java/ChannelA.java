@@ -1,3 +1,5 @@
+import dsp.MinMaxPyramid;
+
 /**
  * An class to represent Channel A, and store specific properties relating to 
  * it's channel. This includes it's channel offset, and graph line color to
@@ -8,6 +10,7 @@
 public class ChannelA extends OscilloscopeChannel {
 
 	double[] bandpassedSamples;
+	private MinMaxPyramid bandpassedPyramid;
 
     public ChannelA() {
         // Channel A has red graph line color
@@ -17,12 +20,25 @@ public class ChannelA extends OscilloscopeChannel {
 
     }
     
-    public void setBandpassedSamples(double[] bandpassedSamples) {
+    public synchronized void setBandpassedSamples(double[] bandpassedSamples) {
     	this.bandpassedSamples = bandpassedSamples;
+    	this.bandpassedPyramid = null;
     }
     
     public double[] getbandpassedSamples() {
     	return bandpassedSamples;
     }
 
+    /**
+     * Gets the min/max pyramid of the bandpassed samples, building it the
+     * first time it is needed after the samples are set.
+     * @return the min/max pyramid of the bandpassed samples
+     */
+    public synchronized MinMaxPyramid getBandpassedPyramid() {
+    	if (bandpassedPyramid == null) {
+    		bandpassedPyramid = new MinMaxPyramid(bandpassedSamples);
+    	}
+    	return bandpassedPyramid;
+    }
+
 }
@@ -0,0 +1,271 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is the dataflow graph of the channels: which channels each
+ * channel is worked out from. Sources (channels A and B) are set once per
+ * capture, and derived channels (bandpass, filter, math, and any added later)
+ * are computed from their inputs when they are asked for.
+ *
+ * A derived channel is only computed if something asks for it, at most once
+ * however many channels depend on it, and only again once one of its inputs
+ * or its parameters (e.g. the math equation or the filter file) have
+ * changed. Each node has a version that goes up whenever its samples change,
+ * and remembers the versions of its inputs it was last computed from.
+ *
+ * The inputs of a node can not depend on the node itself, so e.g. the
+ * filter channel can not take the math channel as input while the math
+ * equation uses the filter channel. wouldCreateCycle checks a change before
+ * it is made.
+ */
+public class ChannelGraph {
+
+	// The channels the model adds to the graph
+	public static final String A = "A";
+	public static final String B = "B";
+	public static final String BANDPASS = "Bandpass";
+	public static final String FILTER = "Filter";
+	public static final String MATH = "Math";
+
+	/**
+	 * Works out a derived channel's samples
+	 */
+	public interface Computation {
+		/**
+		 * @param inputs - The samples of each input, in the order they were
+		 *                 set
+		 * @return the node's samples
+		 */
+		double[] compute(double[][] inputs);
+	}
+
+	private static final class Node {
+		private final String name;
+		private final Computation computation;
+		private Node[] inputs = new Node[0];
+
+		private double[] samples;
+		private long version;
+
+		// Goes up when the inputs or parameters change
+		private long parameterVersion;
+
+		// What the samples were last computed from
+		private long computedParameterVersion = -1;
+		private long[] computedInputVersions = new long[0];
+
+		private long computeCount;
+
+		Node(String name, Computation computation) {
+			this.name = name;
+			this.computation = computation;
+		}
+	}
+
+	private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+	/**
+	 * Adds a channel whose samples are set rather than computed
+	 * @param name - The channel's name
+	 */
+	public synchronized void addSource(String name) {
+		addNode(name, null);
+	}
+
+	/**
+	 * Adds a channel computed from other channels
+	 * @param name - The channel's name
+	 * @param computation - Works the channel out from its inputs
+	 * @param inputs - The names of the channels it is computed from
+	 * @throws IllegalArgumentException if the name is taken, an input does
+	 *         not exist or the inputs would make a cycle
+	 */
+	public synchronized void addNode(String name, Computation computation,
+			String... inputs) {
+		if (nodes.containsKey(name)) {
+			throw new IllegalArgumentException("Channel " + name +
+					" is already in the graph");
+		}
+
+		nodes.put(name, new Node(name, computation));
+		setInputs(name, inputs);
+	}
+
+	/**
+	 * Changes the channels a channel is computed from. The channel is
+	 * recomputed the next time it is asked for, even if the inputs are the
+	 * same.
+	 * @param name - The channel's name
+	 * @param inputs - The names of the channels it is computed from
+	 * @throws IllegalArgumentException if an input does not exist or the
+	 *         inputs would make a cycle
+	 */
+	public synchronized void setInputs(String name, String... inputs) {
+		Node node = getNode(name);
+
+		if (wouldCreateCycle(name, inputs)) {
+			throw new IllegalArgumentException("Channel " + name +
+					" can not depend on " + Arrays.toString(inputs) +
+					": deadlock dependency");
+		}
+
+		Node[] inputNodes = new Node[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			inputNodes[i] = getNode(inputs[i]);
+		}
+
+		node.inputs = inputNodes;
+		node.parameterVersion++;
+	}
+
+	/**
+	 * @param name - The channel's name
+	 * @param inputs - The names of the channels it would be computed from
+	 * @return whether computing the channel from the inputs would make it
+	 *         depend on itself
+	 */
+	public synchronized boolean wouldCreateCycle(String name,
+			String... inputs) {
+		Node node = getNode(name);
+		Deque<Node> toVisit = new ArrayDeque<>();
+
+		for (String input : inputs) {
+			toVisit.push(getNode(input));
+		}
+
+		// walk everything the new inputs depend on, looking for the node
+		while (!toVisit.isEmpty()) {
+			Node visiting = toVisit.pop();
+			if (visiting == node) {
+				return true;
+			}
+			for (Node input : visiting.inputs) {
+				toVisit.push(input);
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Marks a channel's parameters as changed (e.g. a new filter file), so
+	 * it is recomputed the next time it is asked for
+	 * @param name - The channel's name
+	 */
+	public synchronized void invalidate(String name) {
+		getNode(name).parameterVersion++;
+	}
+
+	/**
+	 * Sets a source channel's samples, e.g. for a new capture
+	 * @param name - The channel's name
+	 * @param samples - The samples
+	 */
+	public synchronized void setSource(String name, double[] samples) {
+		Node node = getNode(name);
+
+		if (node.computation != null) {
+			throw new IllegalArgumentException("Channel " + name +
+					" is computed, not set");
+		}
+
+		if (node.samples != samples) {
+			node.samples = samples;
+			node.version++;
+		}
+	}
+
+	/**
+	 * Gets a channel's samples, computing it and any of its inputs that are
+	 * out of date first
+	 * @param name - The channel's name
+	 * @return the samples, or null if a source has not been set
+	 */
+	public synchronized double[] get(String name) {
+		return evaluate(getNode(name));
+	}
+
+	/**
+	 * @param name - The channel's name
+	 * @return how many times the channel has been computed
+	 */
+	public synchronized long getComputeCount(String name) {
+		return getNode(name).computeCount;
+	}
+
+	/**
+	 * @return each channel with its inputs and how many times it has been
+	 *         computed
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder("Channel graph:");
+
+		for (Node node : nodes.values()) {
+			builder.append("\n  ").append(node.name);
+
+			if (node.computation != null) {
+				builder.append(" <- ");
+				for (int i = 0; i < node.inputs.length; i++) {
+					builder.append(i > 0 ? ", " : "").append(node.inputs[i].name);
+				}
+				builder.append(" (computed ").append(node.computeCount)
+						.append(" times)");
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	private Node getNode(String name) {
+		Node node = nodes.get(name);
+
+		if (node == null) {
+			throw new IllegalArgumentException("No channel " + name +
+					" in the graph");
+		}
+
+		return node;
+	}
+
+	/**
+	 * Brings the node's inputs up to date, then the node itself if it is
+	 * out of date. The graph has no cycles, so this always finishes.
+	 */
+	private double[] evaluate(Node node) {
+		if (node.computation == null) {
+			return node.samples;
+		}
+
+		int numInputs = node.inputs.length;
+		double[][] inputSamples = new double[numInputs][];
+		long[] inputVersions = new long[numInputs];
+
+		for (int i = 0; i < numInputs; i++) {
+			inputSamples[i] = evaluate(node.inputs[i]);
+			inputVersions[i] = node.inputs[i].version;
+		}
+
+		if (node.computedParameterVersion == node.parameterVersion &&
+				Arrays.equals(node.computedInputVersions, inputVersions)) {
+			return node.samples;
+		}
+
+		node.samples = node.computation.compute(inputSamples);
+		node.version++;
+		node.computeCount++;
+
+		node.computedParameterVersion = node.parameterVersion;
+		node.computedInputVersions = inputVersions;
+
+		return node.samples;
+	}
+
+}
@@ -0,0 +1,94 @@
+import dsp.MeasurementAccumulator;
+
+/**
+ * This class is an immutable snapshot of a channel's measurements. The
+ * measurements of a capture are worked out on the capture pipeline's
+ * measurement stage, and those of the visible samples when the display plots
+ * them on its animation thread; each is published as a whole new snapshot,
+ * so the labels read on the Swing thread never mix values from two windows
+ * or two captures.
+ */
+public final class ChannelMeasurements {
+
+	// What a channel shows before it has any samples
+	static final ChannelMeasurements NONE =
+			new ChannelMeasurements(0, 0, 0, 0, 0, 0, false);
+
+	private final double minVoltage;
+	private final double maxVoltage;
+	private final double maxP2Pvoltage;
+	private final double averageVoltage;
+	private final double standardVoltageDeviation;
+	private final double frequency;
+	private final boolean verticallyOffTheScreen;
+
+	public ChannelMeasurements(double minVoltage, double maxVoltage,
+			double maxP2Pvoltage, double averageVoltage,
+			double standardVoltageDeviation, double frequency,
+			boolean verticallyOffTheScreen) {
+		this.minVoltage = minVoltage;
+		this.maxVoltage = maxVoltage;
+		this.maxP2Pvoltage = maxP2Pvoltage;
+		this.averageVoltage = averageVoltage;
+		this.standardVoltageDeviation = standardVoltageDeviation;
+		this.frequency = frequency;
+		this.verticallyOffTheScreen = verticallyOffTheScreen;
+	}
+
+	/**
+	 * Makes a snapshot from accumulated measurements. If nothing was
+	 * accumulated the voltages are negative infinity, which is displayed as
+	 * n/a.
+	 * @param accumulator - The accumulator holding the measurements
+	 * @param frequency - The frequency of the samples
+	 * @param verticallyOffTheScreen - Whether samples were off the screen
+	 * @return the snapshot
+	 */
+	public static ChannelMeasurements of(MeasurementAccumulator accumulator,
+			double frequency, boolean verticallyOffTheScreen) {
+		if (accumulator.getCount() == 0) {
+			return new ChannelMeasurements(Double.NEGATIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+					frequency, verticallyOffTheScreen);
+		}
+
+		return new ChannelMeasurements(accumulator.getMin(),
+				accumulator.getMax(), accumulator.getPeakToPeak(),
+				accumulator.getMean(), accumulator.getStandardDeviation(),
+				frequency, verticallyOffTheScreen);
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	public double getMinVoltage() {
+		return minVoltage;
+	}
+
+	public double getMaxVoltage() {
+		return maxVoltage;
+	}
+
+	public double getMaxP2Pvoltage() {
+		return maxP2Pvoltage;
+	}
+
+	public double getAverageVoltage() {
+		return averageVoltage;
+	}
+
+	public double getStandardVoltageDeviation() {
+		return standardVoltageDeviation;
+	}
+
+	public double getFrequency() {
+		return frequency;
+	}
+
+	public boolean getVerticallyOffTheScreen() {
+		return verticallyOffTheScreen;
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.nio.file.Paths;
+
 /**
  * This class contains the main method for entry into the application.
  * @author Lisa Liu-Thorrold
@@ -18,6 +20,13 @@ public class Digiscope {
 		DigiscopeModel model = new DigiscopeModel();
 		new DigiscopeController(model, container);
 		container.run();
+
+		// replay a recorded session instead of waiting for the device
+		String replayFile = System.getProperty("digiscope.replayFile");
+		if (replayFile != null) {
+			model.getDigiscopeServer().startReplay(Paths.get(replayFile),
+					Boolean.getBoolean("digiscope.replayOriginalTiming"));
+		}
 		
 	}
 
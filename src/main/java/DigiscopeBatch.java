@@ -0,0 +1,407 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dsp.BiquadCascade;
+import dsp.FirFilter;
+import dsp.IirFilter;
+import dsp.MeasurementAccumulator;
+
+/**
+ * This class is the headless entry point for analysing saved sample files
+ * (e.g. samples.csv or example1.txt) without the user interface. Each file
+ * is streamed through the same filter, math channel and measurement code as
+ * live captures, a chunk at a time, so files bigger than the heap can be
+ * processed. Files are processed in parallel, one per core.
+ *
+ * For each input file two files are written to the output directory:
+ * - name.channels.csv: channel A, channel B, math and filter samples
+ * - name.measurements.csv: min, max, p2p, mean, std dev and frequency of
+ *   each channel
+ *
+ * Usage: DigiscopeBatch [--filter file.csv] [--filter-input A|B|Math]
+ *        [--math equation] [--sampling-rate 100000] [--chunk 262144]
+ *        [--out dir] file...
+ */
+public class DigiscopeBatch {
+
+	static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+	private double[][] filterColumns;
+	private String filterChannelInput = "A";
+	private String mathEquation;
+	private int samplingRate = 100000;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private Path outputDirectory;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		DigiscopeBatch batch = new DigiscopeBatch();
+		List<Path> files = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--filter":
+				batch.filterColumns = readFilterFile(Paths.get(args[++i]));
+				break;
+			case "--filter-input":
+				batch.filterChannelInput = args[++i];
+				break;
+			case "--math":
+				batch.mathEquation = args[++i];
+				break;
+			case "--sampling-rate":
+				batch.samplingRate = Integer.parseInt(args[++i]);
+				break;
+			case "--chunk":
+				batch.chunkSize = Integer.parseInt(args[++i]);
+				break;
+			case "--out":
+				batch.outputDirectory = Paths.get(args[++i]);
+				break;
+			default:
+				files.add(Paths.get(args[i]));
+			}
+		}
+
+		if (files.isEmpty()) {
+			printUsage();
+			System.exit(1);
+		}
+
+		// the math channel has to exist to be filtered
+		if (batch.filterColumns != null &&
+				batch.filterChannelInput.equals("Math") &&
+				batch.mathEquation == null) {
+			System.out.println("--filter-input Math needs a --math equation");
+			printUsage();
+			System.exit(1);
+		}
+
+		System.exit(batch.run(files) ? 0 : 1);
+	}
+
+	/**
+	 * Processes the files in parallel, one per core
+	 * @param files - The sample files to process
+	 * @return whether every file was processed
+	 * @throws InterruptedException
+	 */
+	public boolean run(List<Path> files) throws InterruptedException {
+		int threads = Math.min(files.size(),
+				Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<>();
+
+		for (Path file : files) {
+			results.add(executor.submit(() -> {
+				long start = System.nanoTime();
+				processFile(file);
+				System.out.println(String.format("Processed %s in %.2fs", file,
+						(System.nanoTime() - start) / 1e9));
+				return null;
+			}));
+		}
+
+		executor.shutdown();
+		boolean ok = true;
+
+		for (int i = 0; i < files.size(); i++) {
+			try {
+				results.get(i).get();
+			} catch (Exception e) {
+				System.out.println("Error processing " + files.get(i));
+				e.printStackTrace();
+				ok = false;
+			}
+		}
+
+		return ok;
+	}
+
+	/**
+	 * Streams a file through the channel calculations, writing the derived
+	 * channels and the measurements out
+	 * @param file - The sample file to process
+	 * @throws IOException
+	 */
+	public void processFile(Path file) throws IOException {
+		DigiscopeModel model = createModel();
+		MathExpression expression = model.getMathChannel().getExpression();
+		boolean hasFilter = filterColumns != null;
+		boolean hasMath = expression != null;
+
+		String name = file.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+		Path directory = outputDirectory != null ? outputDirectory :
+				file.toAbsolutePath().getParent();
+
+		double[] channelASamples = new double[chunkSize];
+		double[] channelBSamples = new double[chunkSize];
+		StreamingFilter filter = hasFilter ?
+				new StreamingFilter(filterColumns, chunkSize) : null;
+		ChannelSummary[] summaries = {
+				new ChannelSummary("A", model.getChannelA()),
+				new ChannelSummary("B", model.getChannelB()),
+				new ChannelSummary("Math", model.getMathChannel()),
+				new ChannelSummary("Filter", model.getFilterChannel())};
+
+		try (SampleFileReader reader = new SampleFileReader(
+				Files.newBufferedReader(file, StandardCharsets.UTF_8));
+				BufferedWriter channelsOut = Files.newBufferedWriter(
+				directory.resolve(name + ".channels.csv"),
+				StandardCharsets.UTF_8)) {
+
+			// single column files only have channel A, B reads as 0V
+			boolean hasChannelB = reader.hasChannelB();
+			channelsOut.write("A" + (hasChannelB ? ",B" : "") +
+					(hasMath ? ",Math" : "") +
+					(hasFilter ? ",Filter" : ""));
+			channelsOut.newLine();
+
+			int count;
+			while ((count = reader.read(channelASamples, channelBSamples,
+					chunkSize)) > 0) {
+
+				double[] a = exactLength(channelASamples, count);
+				double[] b = exactLength(channelBSamples, count);
+				double[] math = null;
+				double[] filtered = null;
+
+				// whichever of math and filter feeds the other goes first
+				if (hasMath && hasFilter && filterChannelInput.equals("Math")) {
+					math = model.computeMathSamples(a, b, null);
+					filtered = filter.apply(math, count);
+				} else {
+					if (hasFilter) {
+						filtered = filter.apply(
+								model.selectFilterInput(a, b, null), count);
+					}
+					if (hasMath) {
+						math = model.computeMathSamples(a, b, filtered);
+					}
+				}
+
+				summaries[0].accept(a, samplingRate);
+				if (hasChannelB) {
+					summaries[1].accept(b, samplingRate);
+				}
+				if (hasMath) {
+					summaries[2].accept(math, samplingRate);
+				}
+				if (hasFilter) {
+					summaries[3].accept(filtered, samplingRate);
+				}
+
+				writeChannels(channelsOut, count, a, hasChannelB ? b : null,
+						math, filtered);
+			}
+		}
+
+		try (BufferedWriter measurementsOut = Files.newBufferedWriter(
+				directory.resolve(name + ".measurements.csv"),
+				StandardCharsets.UTF_8)) {
+			measurementsOut.write("channel,min,max,p2p,mean,std,frequency");
+			measurementsOut.newLine();
+
+			for (ChannelSummary summary : summaries) {
+				if (summary.measurements.getCount() > 0) {
+					measurementsOut.write(summary.toString());
+					measurementsOut.newLine();
+				}
+			}
+		}
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	private static void printUsage() {
+		System.out.println("Usage: DigiscopeBatch [--filter file.csv] " +
+				"[--filter-input A|B|Math] [--math equation] " +
+				"[--sampling-rate 100000] [--chunk 262144] [--out dir] " +
+				"file...");
+	}
+
+	/**
+	 * Sets up a model for one file, as the user interface would, so files can
+	 * be processed in parallel without sharing channels
+	 */
+	private DigiscopeModel createModel() {
+		DigiscopeModel model = new DigiscopeModel();
+		model.setSamplingRate(samplingRate);
+		// the channel graph rejects a math equation that uses the filter
+		// channel when the filter channel input is math
+		if (filterColumns != null) {
+			model.setFilterChannelInput(filterChannelInput);
+		}
+
+		if (mathEquation != null) {
+			model.setMathEquation(mathEquation,
+					MathExpression.compile(mathEquation));
+			model.getMathChannel().setAvailableForPlotting(true);
+		}
+
+		return model;
+	}
+
+	/**
+	 * @return the array itself if it is full, otherwise a copy of the start
+	 */
+	private static double[] exactLength(double[] samples, int count) {
+		return samples.length == count ? samples :
+				Arrays.copyOf(samples, count);
+	}
+
+	private static void writeChannels(Writer out, int count, double[] a,
+			double[] b, double[] math, double[] filtered) throws IOException {
+		StringBuilder row = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			row.setLength(0);
+			row.append(a[i]);
+			if (b != null) {
+				row.append(',').append(b[i]);
+			}
+			if (math != null) {
+				row.append(',').append(math[i]);
+			}
+			if (filtered != null) {
+				row.append(',').append(filtered[i]);
+			}
+			row.append('\n');
+			out.append(row);
+		}
+	}
+
+	/**
+	 * Reads a filter file in the same format as the user interface: one
+	 * column is a FIR filter, two columns are an IIR filter.
+	 * @param file - The filter file
+	 * @return the columns of the file
+	 * @throws IOException
+	 */
+	static double[][] readFilterFile(Path file) throws IOException {
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		int columns = lines.get(0).split(",").length;
+		double[][] filter = new double[columns][lines.size()];
+
+		for (int i = 0; i < lines.size(); i++) {
+			String[] values = lines.get(i).split(",");
+			for (int c = 0; c < columns; c++) {
+				filter[c][i] = Double.parseDouble(values[c].trim());
+			}
+		}
+
+		return filter;
+	}
+
+	/**
+	 * Applies the filter channel's filter a chunk at a time. The last few
+	 * input (and for IIR, output) samples of each chunk are kept in front of
+	 * the next one, so the result is the same as filtering the whole record
+	 * in one go. An IIR filter that factors into biquads keeps its own state
+	 * between chunks instead.
+	 */
+	private static final class StreamingFilter {
+		private final double[] fir;
+		private final double[] iirFilter1;
+		private final double[] iirFilter2;
+		private final BiquadCascade cascade;
+		private final int history;
+		private final double[] in;
+		private final double[] out;
+		private boolean first = true;
+
+		StreamingFilter(double[][] columns, int chunkSize) {
+			if (columns.length == 1) {
+				fir = columns[0];
+				iirFilter1 = null;
+				iirFilter2 = null;
+				cascade = null;
+				history = fir.length - 1;
+			} else {
+				fir = null;
+				iirFilter1 = columns[0];
+				iirFilter2 = columns[1];
+				cascade = BiquadCascade.design(iirFilter2, iirFilter1);
+				history = Math.max(iirFilter1.length, iirFilter2.length) - 1;
+			}
+
+			in = new double[history + chunkSize];
+			out = new double[history + chunkSize];
+		}
+
+		double[] apply(double[] samples, int count) {
+			if (cascade != null) {
+				double[] filtered = new double[count];
+				cascade.filter(samples, filtered, 0, count);
+				return filtered;
+			}
+
+			if (!first) {
+				// carry the end of the last chunk over
+				System.arraycopy(in, in.length - history, in, 0, history);
+				System.arraycopy(out, out.length - history, out, 0, history);
+			}
+			first = false;
+
+			System.arraycopy(samples, 0, in, history, count);
+
+			if (fir != null) {
+				FirFilter.filter(in, fir, out, history, history + count);
+			} else {
+				IirFilter.filter(in, iirFilter2, iirFilter1, out, history,
+						history + count);
+			}
+
+			return Arrays.copyOfRange(out, history, history + count);
+		}
+	}
+
+	/**
+	 * Measurements of a channel over a whole file. Min, max, mean and std dev
+	 * are accumulated exactly across chunks. The frequency is worked out per
+	 * chunk by the channel and averaged, weighted by chunk length, so it is
+	 * the same as the user interface's when the file fits in one chunk.
+	 */
+	private static final class ChannelSummary {
+		private final String name;
+		private final OscilloscopeChannel channel;
+		private final MeasurementAccumulator measurements =
+				new MeasurementAccumulator();
+		private double weightedFrequency;
+
+		ChannelSummary(String name, OscilloscopeChannel channel) {
+			this.name = name;
+			this.channel = channel;
+		}
+
+		void accept(double[] samples, int samplingRate) {
+			measurements.accept(samples, 0, samples.length);
+			channel.setChannelSamples(samples, samplingRate);
+			weightedFrequency += channel.getFrequency() * samples.length;
+		}
+
+		@Override
+		public String toString() {
+			return name + "," + measurements.getMin() + "," +
+					measurements.getMax() + "," + measurements.getPeakToPeak() +
+					"," + measurements.getMean() + "," +
+					measurements.getStandardDeviation() + "," +
+					weightedFrequency / measurements.getCount();
+		}
+	}
+
+}
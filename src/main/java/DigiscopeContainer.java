@@ -429,7 +429,7 @@ public class DigiscopeContainer extends EventEmitter {
 		 *************************************************/
 		
 		connectButton = new JButton("Connect");
-		connectButton.addActionListener(event -> this.emit("connect"));
+		connectButton.addActionListener(event -> this.emit(DigiscopeEvent.CONNECT));
 		connectButton.setBounds(1312, 98, 117, 29);
 		frame.getContentPane().add(connectButton);
 		
@@ -440,25 +440,25 @@ public class DigiscopeContainer extends EventEmitter {
 		channelACheckBox = new JCheckBox("Channel A");
 		channelACheckBox.setBounds(1005, 150, 113, 23);
 		channelACheckBox.addActionListener(event ->
-				this.emit("channelACheckBoxChecked"));
+				this.emit(DigiscopeEvent.CHANNEL_A_CHECK_BOX_CHECKED));
 		frame.getContentPane().add(channelACheckBox);
 		
 		channelBCheckBox = new JCheckBox("Channel B");
 		channelBCheckBox.setBounds(1124, 150, 95, 23);
 		channelBCheckBox.addActionListener(event ->
-				this.emit("channelBCheckBoxChecked"));
+				this.emit(DigiscopeEvent.CHANNEL_B_CHECK_BOX_CHECKED));
 		frame.getContentPane().add(channelBCheckBox);
 		
 		mathChannelCheckBox = new JCheckBox("Math Channel");
 		mathChannelCheckBox.setBounds(1221, 150, 102, 23);
 		mathChannelCheckBox.addActionListener(event ->
-				this.emit("mathChannelCheckBoxChecked"));
+				this.emit(DigiscopeEvent.MATH_CHANNEL_CHECK_BOX_CHECKED));
 		frame.getContentPane().add(mathChannelCheckBox);
 		
 		filterChannelCheckBox = new JCheckBox("Filter Channel");
 		filterChannelCheckBox.setBounds(1327, 150, 102, 23);
 		filterChannelCheckBox.addActionListener(event ->
-				this.emit("filterChannelCheckBoxChecked"));
+				this.emit(DigiscopeEvent.FILTER_CHANNEL_CHECK_BOX_CHECKED));
 		frame.getContentPane().add(filterChannelCheckBox);
 
 		
@@ -543,7 +543,7 @@ public class DigiscopeContainer extends EventEmitter {
 				"Send Configurations to Firmware");
 		sendConfigToFirmwareButton.setBounds(1090, 427, 250, 29);
 		sendConfigToFirmwareButton.addActionListener(event -> 
-				this.emit("sendConfigurationsToFirmware"));		
+				this.emit(DigiscopeEvent.SEND_CONFIGURATIONS_TO_FIRMWARE));		
 		frame.getContentPane().add(sendConfigToFirmwareButton);
 		
 		samplingModeComboBox = new JComboBox<String>();
@@ -586,7 +586,7 @@ public class DigiscopeContainer extends EventEmitter {
 		JButton setMathEquationButton = new JButton("Set Math Eq.");
 		setMathEquationButton.setBounds(1327, 539, 117, 29);
 		setMathEquationButton.addActionListener(event -> 
-				this.emit("setMathEquation"));
+				this.emit(DigiscopeEvent.SET_MATH_EQUATION));
 		frame.getContentPane().add(setMathEquationButton);
 		
 		/*************************************************
@@ -612,7 +612,7 @@ public class DigiscopeContainer extends EventEmitter {
 		filterInputChannelComboBoxModel.addElement("B");
 		filterInputChannelComboBox.setSelectedIndex(-1);
 		filterInputChannelComboBox.addActionListener(event -> 
-				this.emit("filterInputChannelChanged"));	
+				this.emit(DigiscopeEvent.FILTER_INPUT_CHANNEL_CHANGED));	
 		filterInputChannelComboBox.setBounds(1124, 606, 93, 27);
 		frame.getContentPane().add(filterInputChannelComboBox);
 		
@@ -623,7 +623,7 @@ public class DigiscopeContainer extends EventEmitter {
 		JButton loadFilterFileButton = new JButton("Load");
 		loadFilterFileButton.setBounds(1238, 605, 85, 29);
 		loadFilterFileButton.addActionListener(event -> 
-				this.emit("parseFilterChannelInputFile"));		
+				this.emit(DigiscopeEvent.PARSE_FILTER_CHANNEL_INPUT_FILE));		
 		frame.getContentPane().add(loadFilterFileButton);
 		
 		filterTypeInfoLabel = new JLabel("");
@@ -637,7 +637,7 @@ public class DigiscopeContainer extends EventEmitter {
 		forceTriggerButton = new JButton("Force Trigger");
 		forceTriggerButton.setBounds(737, 656, 117, 29);
 		forceTriggerButton.addActionListener(event -> 
-				this.emit("forceTriggerButtonPressed"));	
+				this.emit(DigiscopeEvent.FORCE_TRIGGER_BUTTON_PRESSED));	
 		forceTriggerButton.setEnabled(false);
 		frame.getContentPane().add(forceTriggerButton);
 		
@@ -645,7 +645,7 @@ public class DigiscopeContainer extends EventEmitter {
 		rearmTriggerButton.setBounds(866, 656, 117, 29);
 		rearmTriggerButton.setEnabled(false);
 		rearmTriggerButton.addActionListener(event -> 
-				this.emit("rearmTriggerButtonPressed"));	
+				this.emit(DigiscopeEvent.REARM_TRIGGER_BUTTON_PRESSED));	
 		frame.getContentPane().add(rearmTriggerButton);
 		
 		currentSamplingRateInfoLabel = new JLabel("");
@@ -671,7 +671,7 @@ public class DigiscopeContainer extends EventEmitter {
 		verticalRangeDisplayComboBox.setBounds(895, 686, 102, 27);
 		verticalRangeDisplayComboBox.setSelectedIndex(-1);
 		verticalRangeDisplayComboBox.addActionListener(event -> 
-				this.emit("verticalRangeResolutionChanged"));
+				this.emit(DigiscopeEvent.VERTICAL_RANGE_RESOLUTION_CHANGED));
 
 		frame.getContentPane().add(verticalRangeDisplayComboBox);
 
@@ -700,7 +700,7 @@ public class DigiscopeContainer extends EventEmitter {
 		horizontalRangeDisplayComboBox.setBounds(895, 711, 102, 27);
 		horizontalRangeDisplayComboBox.setSelectedIndex(-1);
 		horizontalRangeDisplayComboBox.addActionListener(event -> 
-				this.emit("horizontalRangeResolutionChanged"));
+				this.emit(DigiscopeEvent.HORIZONTAL_RANGE_RESOLUTION_CHANGED));
 		frame.getContentPane().add(horizontalRangeDisplayComboBox);
 		
 		
@@ -737,7 +737,7 @@ public class DigiscopeContainer extends EventEmitter {
 				"Send Function Generator Configuration to Firmware");
 		sendFunctionGenConfigToFirmwareButton.setBounds(1046, 740, 355, 29);
 		sendFunctionGenConfigToFirmwareButton.addActionListener(event -> 
-				this.emit("sendFunctionGeneratorConfig"));
+				this.emit(DigiscopeEvent.SEND_FUNCTION_GENERATOR_CONFIG));
 		frame.getContentPane().add(sendFunctionGenConfigToFirmwareButton);
 		
 		functionGeneratorOutputComboBox = new JComboBox<String>();
@@ -42,39 +42,42 @@ public class DigiscopeController {
 		initOscilloscopeDisplay();
 
 		// Add listeners for the GUI components
-		view.addListener("connect", event -> connectToDevice());
-		view.addListener("sendFunctionGeneratorConfig", event -> sendFunctionGeneratorConfig());
-		view.addListener("parseFilterChannelInputFile", event -> parseFilterChannelInputFile());
-		view.addListener("forceTriggerButtonPressed" , event -> forceTriggerButtonPressed());
-		view.addListener("rearmTriggerButtonPressed", event -> rearmTriggerButtonPressed());
-		view.addListener("sendConfigurationsToFirmware", event -> sendConfigurationsToFirmware());
-		view.addListener("setMathEquation", event -> setMathEquation());
-		view.addListener("channelACheckBoxChecked", event -> channelACheckBoxChecked());
-		view.addListener("channelBCheckBoxChecked", event -> channelBCheckBoxChecked());
-		view.addListener("mathChannelCheckBoxChecked", event -> mathChannelCheckBoxChecked());
-		view.addListener("filterChannelCheckBoxChecked", event -> filterChannelCheckBoxChecked());
-		view.addListener("verticalRangeResolutionChanged", event -> verticalRangeResolutionChanged());
-		view.addListener("horizontalRangeResolutionChanged", event -> horizontalRangeResolutionChanged());
-		view.addListener("filterInputChannelChanged", event -> updateFilterChannelInput());
-
-		// Listeners for events from the touchscreen lcd display
-		model.addListener("updateMeasurementLabels", event -> updateMeasurementLabels());
-		model.addListener("setScalingComboBoxes", event -> setScalingComboBoxes());
-		model.addListener("sampleVoltageSelected", event -> samplingVoltageSelected());
-		model.addListener("changeChannelCoupling", event -> changeChannelCoupling());
-		model.addListener("changeTriggerMode", event -> changeTriggerMode());
-		model.addListener("changeTriggerType", event -> changeTriggerType());
-		model.addListener("voltsPerDivisionChanged", event -> changeVoltsPerDivision());
-		model.addListener("timePerDivisionChanged", event -> changeTimePerDivision());
-		model.addListener("triggerThresholdChanged", event -> changeTriggerThreshold());
-		model.addListener("functionOutputConfigChanged", event -> functionOutputConfigChanged());
-		model.addListener("funcGenWaveTypeChanged", event -> funcGenWaveTypeChanged());
-		model.addListener("funcGenP2PVoltageChanged", event -> funcGenP2PVoltageChanged());
-		model.addListener("funcGenOffsetChanged", event -> funcGenOffsetChanged());
-		model.addListener("funcGenFrequencyChanged", event -> funcGenFrequencyChanged());
-		model.addListener("samplingRateChanged", event -> samplingRateChanged());
-		model.addListener("incorrectSamplesSent", event -> incorrectSamplesSent());
-		model.addListener("deviceStatusChanged", event -> deviceStatusChanged());
+		view.addListener(DigiscopeEvent.CONNECT, event -> connectToDevice());
+		view.addListener(DigiscopeEvent.SEND_FUNCTION_GENERATOR_CONFIG, event -> sendFunctionGeneratorConfig());
+		view.addListener(DigiscopeEvent.PARSE_FILTER_CHANNEL_INPUT_FILE, event -> parseFilterChannelInputFile());
+		view.addListener(DigiscopeEvent.FORCE_TRIGGER_BUTTON_PRESSED , event -> forceTriggerButtonPressed());
+		view.addListener(DigiscopeEvent.REARM_TRIGGER_BUTTON_PRESSED, event -> rearmTriggerButtonPressed());
+		view.addListener(DigiscopeEvent.SEND_CONFIGURATIONS_TO_FIRMWARE, event -> sendConfigurationsToFirmware());
+		view.addListener(DigiscopeEvent.SET_MATH_EQUATION, event -> setMathEquation());
+		view.addListener(DigiscopeEvent.CHANNEL_A_CHECK_BOX_CHECKED, event -> channelACheckBoxChecked());
+		view.addListener(DigiscopeEvent.CHANNEL_B_CHECK_BOX_CHECKED, event -> channelBCheckBoxChecked());
+		view.addListener(DigiscopeEvent.MATH_CHANNEL_CHECK_BOX_CHECKED, event -> mathChannelCheckBoxChecked());
+		view.addListener(DigiscopeEvent.FILTER_CHANNEL_CHECK_BOX_CHECKED, event -> filterChannelCheckBoxChecked());
+		view.addListener(DigiscopeEvent.VERTICAL_RANGE_RESOLUTION_CHANGED, event -> verticalRangeResolutionChanged());
+		view.addListener(DigiscopeEvent.HORIZONTAL_RANGE_RESOLUTION_CHANGED, event -> horizontalRangeResolutionChanged());
+		view.addListener(DigiscopeEvent.FILTER_INPUT_CHANNEL_CHANGED, event -> updateFilterChannelInput());
+
+		// Listeners for events from the touchscreen lcd display. These are
+		// emitted from the socket and capture threads, once or more per
+		// capture, so they are merged and handed to the Swing thread at most
+		// once per frame (see EventCoalescer).
+		model.addListener(DigiscopeEvent.UPDATE_MEASUREMENT_LABELS, EventEmitter.Dispatch.COALESCED, event -> updateMeasurementLabels());
+		model.addListener(DigiscopeEvent.SET_SCALING_COMBO_BOXES, EventEmitter.Dispatch.COALESCED, event -> setScalingComboBoxes());
+		model.addListener(DigiscopeEvent.SAMPLE_VOLTAGE_SELECTED, EventEmitter.Dispatch.COALESCED, event -> samplingVoltageSelected((Double) event.getValue()));
+		model.addListener(DigiscopeEvent.CHANGE_CHANNEL_COUPLING, EventEmitter.Dispatch.COALESCED, event -> changeChannelCoupling());
+		model.addListener(DigiscopeEvent.CHANGE_TRIGGER_MODE, EventEmitter.Dispatch.COALESCED, event -> changeTriggerMode());
+		model.addListener(DigiscopeEvent.CHANGE_TRIGGER_TYPE, EventEmitter.Dispatch.COALESCED, event -> changeTriggerType());
+		model.addListener(DigiscopeEvent.VOLTS_PER_DIVISION_CHANGED, EventEmitter.Dispatch.COALESCED, event -> changeVoltsPerDivision());
+		model.addListener(DigiscopeEvent.TIME_PER_DIVISION_CHANGED, EventEmitter.Dispatch.COALESCED, event -> changeTimePerDivision());
+		model.addListener(DigiscopeEvent.TRIGGER_THRESHOLD_CHANGED, EventEmitter.Dispatch.COALESCED, event -> changeTriggerThreshold());
+		model.addListener(DigiscopeEvent.FUNCTION_OUTPUT_CONFIG_CHANGED, EventEmitter.Dispatch.COALESCED, event -> functionOutputConfigChanged());
+		model.addListener(DigiscopeEvent.FUNC_GEN_WAVE_TYPE_CHANGED, EventEmitter.Dispatch.COALESCED, event -> funcGenWaveTypeChanged());
+		model.addListener(DigiscopeEvent.FUNC_GEN_P2P_VOLTAGE_CHANGED, EventEmitter.Dispatch.COALESCED, event -> funcGenP2PVoltageChanged());
+		model.addListener(DigiscopeEvent.FUNC_GEN_OFFSET_CHANGED, EventEmitter.Dispatch.COALESCED, event -> funcGenOffsetChanged());
+		model.addListener(DigiscopeEvent.FUNC_GEN_FREQUENCY_CHANGED, EventEmitter.Dispatch.COALESCED, event -> funcGenFrequencyChanged());
+		model.addListener(DigiscopeEvent.SAMPLING_RATE_CHANGED, EventEmitter.Dispatch.COALESCED, event -> samplingRateChanged());
+		model.addListener(DigiscopeEvent.INCORRECT_SAMPLES_SENT, EventEmitter.Dispatch.COALESCED, event -> incorrectSamplesSent());
+		model.addListener(DigiscopeEvent.DEVICE_STATUS_CHANGED, EventEmitter.Dispatch.COALESCED, event -> deviceStatusChanged());
 
 	}
 
@@ -90,58 +93,66 @@ public class DigiscopeController {
 	 */
 	private void updateMeasurementLabels() {
 
+		// one snapshot per channel, so the labels are all from the same samples
+		ChannelMeasurements channelA = model.getChannelA().getMeasurements();
+
 		if (model.getChannelAisPlotted()) {
-			view.setChannelAMeasurements(model.getChannelA().getMinVoltage(),
-					model.getChannelA().getMaxVoltage(),
-					model.getChannelA().getMaxP2Pvoltage(),
-					model.getChannelA().getAverageVoltage(),
-					model.getChannelA().getStandardVoltageDeviation(),
-					model.getChannelA().getFrequency(), true,
-					model.getChannelA().getVerticallyOffTheScreen());
+			view.setChannelAMeasurements(channelA.getMinVoltage(),
+					channelA.getMaxVoltage(),
+					channelA.getMaxP2Pvoltage(),
+					channelA.getAverageVoltage(),
+					channelA.getStandardVoltageDeviation(),
+					channelA.getFrequency(), true,
+					channelA.getVerticallyOffTheScreen());
 		} else {
 			view.setChannelAMeasurements(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, false,
-					model.getChannelA().getVerticallyOffTheScreen());
+					channelA.getVerticallyOffTheScreen());
 		}
 
 
+		ChannelMeasurements channelB = model.getChannelB().getMeasurements();
+
 		if (model.getChannelBisPlotted()) {
-			view.setChannelBMeasurements(model.getChannelB().getMinVoltage(),
-					model.getChannelB().getMaxVoltage(), 
-					model.getChannelB().getMaxP2Pvoltage(),
-					model.getChannelB().getAverageVoltage(),
-					model.getChannelB().getStandardVoltageDeviation(), 
-					model.getChannelB().getFrequency(), true,
-					model.getChannelB().getVerticallyOffTheScreen());
+			view.setChannelBMeasurements(channelB.getMinVoltage(),
+					channelB.getMaxVoltage(),
+					channelB.getMaxP2Pvoltage(),
+					channelB.getAverageVoltage(),
+					channelB.getStandardVoltageDeviation(),
+					channelB.getFrequency(), true,
+					channelB.getVerticallyOffTheScreen());
 		} else {
 			view.setChannelBMeasurements(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, false,
-					model.getChannelB().getVerticallyOffTheScreen());
+					channelB.getVerticallyOffTheScreen());
 		}
 
+		ChannelMeasurements mathChannel = model.getMathChannel().getMeasurements();
+
 		if (model.getMathChannelIsPlotted()) {
-			view.setMathChannelMeasurements(model.getMathChannel().getMinVoltage(),
-					model.getMathChannel().getMaxVoltage(), 
-					model.getMathChannel().getMaxP2Pvoltage(),
-					model.getMathChannel().getAverageVoltage(),
-					model.getMathChannel().getStandardVoltageDeviation(), 
-					model.getMathChannel().getFrequency(), true,
-					model.getMathChannel().getVerticallyOffTheScreen());
+			view.setMathChannelMeasurements(mathChannel.getMinVoltage(),
+					mathChannel.getMaxVoltage(),
+					mathChannel.getMaxP2Pvoltage(),
+					mathChannel.getAverageVoltage(),
+					mathChannel.getStandardVoltageDeviation(),
+					mathChannel.getFrequency(), true,
+					mathChannel.getVerticallyOffTheScreen());
 		} else {
 			view.setMathChannelMeasurements(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, false,
-					model.getMathChannel().getVerticallyOffTheScreen());
+					mathChannel.getVerticallyOffTheScreen());
 		}
 
-		if (model.getFilterChannelIsPlotted()) {
-			view.setFilterChannelMeasurements(model.getFilterChannel().getMinVoltage(),
-					model.getFilterChannel().getMaxVoltage(), 
-					model.getFilterChannel().getMaxP2Pvoltage(),
-					model.getFilterChannel().getAverageVoltage(),
-					model.getFilterChannel().getStandardVoltageDeviation(), 
-					model.getFilterChannel().getFrequency(), true,
-					model.getFilterChannel().getVerticallyOffTheScreen());
+		ChannelMeasurements filterChannel = model.getFilterChannel().getMeasurements();
 
+		if (model.getFilterChannelIsPlotted()) {
+			view.setFilterChannelMeasurements(filterChannel.getMinVoltage(),
+					filterChannel.getMaxVoltage(),
+					filterChannel.getMaxP2Pvoltage(),
+					filterChannel.getAverageVoltage(),
+					filterChannel.getStandardVoltageDeviation(),
+					filterChannel.getFrequency(), true,
+					filterChannel.getVerticallyOffTheScreen());
 		} else {
 			view.setFilterChannelMeasurements(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, false,
-					model.getFilterChannel().getVerticallyOffTheScreen());
+					filterChannel.getVerticallyOffTheScreen());
 		}
 
 	}
@@ -168,8 +179,7 @@ public class DigiscopeController {
 	 * This method is invoked when the user has clicked on the screen to 
 	 * display the value of the sample voltage clicked.
 	 */
-	private void samplingVoltageSelected() {
-		double samplingVoltageSelected = model.getSelectedSampleVoltage();
+	private void samplingVoltageSelected(double samplingVoltageSelected) {
 
 		if (samplingVoltageSelected == Double.NEGATIVE_INFINITY) {
 			view.setCurrentSelectedVoltageLabel("");
@@ -203,14 +213,13 @@ public class DigiscopeController {
 		String filterChannelInput =
 				view.getFilterInputChannelComboBoxModel().getSelectedItem().toString();
 
-		if (filterChannelInput.contains("Math")) {
-			if (model.getMathChannel().getEquation().contains("F")) {
-				view.showMessageDialog("Filter Channel Input not allowed: " +
-						"deadlock dependency");
-				view.getFilterInputChannelComboBoxModel().setSelectedItem(
-						model.getFilterChannelInput());
-				return;
-			}
+		if (model.getChannelGraph().wouldCreateCycle(ChannelGraph.FILTER,
+				filterChannelInput)) {
+			view.showMessageDialog("Filter Channel Input not allowed: " +
+					"deadlock dependency");
+			view.getFilterInputChannelComboBoxModel().setSelectedItem(
+					model.getFilterChannelInput());
+			return;
 		}
 
 		model.setFilterChannelInput(filterChannelInput);
@@ -256,7 +265,8 @@ public class DigiscopeController {
 	private void channelACheckBoxChecked() {
 		model.setPlotChannelA(view.getChannelACheckBox().isSelected());
 		if (model.getChannelA().getChannelSamples() != null) {
-			model.getOscilloscopeDisplay().updateResolution(1);
+			model.getOscilloscopeDisplay().updateChannelVisibility(
+					model.getChannelA());
 			updateMeasurementLabels();
 		}
 		
@@ -270,7 +280,8 @@ public class DigiscopeController {
 		model.setPlotChannelB(view.getChannelBCheckBox().isSelected());
 		
 		if (model.getChannelB().getChannelSamples() != null) {
-		model.getOscilloscopeDisplay().updateResolution(1);
+			model.getOscilloscopeDisplay().updateChannelVisibility(
+					model.getChannelB());
 			updateMeasurementLabels();
 		}
 	}
@@ -291,7 +302,8 @@ public class DigiscopeController {
 		model.setPlotMathChannel(view.getMathChannelCheckBox().isSelected());
 		
 		if (model.getMathChannel().getChannelSamples() != null) {
-			model.getOscilloscopeDisplay().updateResolution(1);
+			model.getOscilloscopeDisplay().updateChannelVisibility(
+					model.getMathChannel());
 			updateMeasurementLabels();
 		}
 		
@@ -313,7 +325,8 @@ public class DigiscopeController {
 		model.setPlotFilterChannel(view.getFilterChannelCheckBox().isSelected());
 		
 		if (model.getFilterChannel().getChannelSamples() != null) {
-			model.getOscilloscopeDisplay().updateResolution(1);
+			model.getOscilloscopeDisplay().updateChannelVisibility(
+					model.getFilterChannel());
 			updateMeasurementLabels();
 		}
 	}
@@ -523,6 +536,12 @@ public class DigiscopeController {
 			view.setRearmTriggerButtonEnabled(false);
 		}
 
+		// the device can send a capture as soon as it has the number of
+		// samples, so the model has to expect them before it is sent
+		model.setSamplingMode(samplingMode);
+		model.setBandpassSampling(bandpassSampling);
+		model.setNumSamplesToAcquire(numSamplesToAcquire);
+
 		digiscopeServer.sendFirmwareConfig(channelCoupling, voltsPerDiv,
 				timePerDiv, triggerMode, triggerType, triggerThreshold, 
 				samplingMode, numSamplesToAcquire, channelToTrigger, 
@@ -530,9 +549,6 @@ public class DigiscopeController {
 
 		model.setInitialConfigSent(true);
 		view.setForceTriggerButtonEnabled(true);
-		model.setSamplingMode(samplingMode);
-		model.setBandpassSampling(bandpassSampling);
-		model.setNumSamplesToAcquire(numSamplesToAcquire);
 	}
 
 	/**
@@ -634,6 +650,7 @@ public class DigiscopeController {
 				}
 
 				model.getFilterChannel().setFilterType(filterType);
+				model.getChannelGraph().invalidate(ChannelGraph.FILTER);
 				view.setFilterChannelLabel(filterType);
 
 
@@ -738,8 +755,17 @@ public class DigiscopeController {
 			return;
 		}
 
+		// Parse the equation once here, rather than for every sample
+		MathExpression expression;
+		try {
+			expression = MathExpression.compile(mathEquation);
+		} catch (IllegalArgumentException e) {
+			view.showMessageDialog("Invalid Math Equation");
+			return;
+		}
+
 		if (!model.getFilterChannel().getAvailableForPlotting()
-				&& mathEquation.contains("F")) {
+				&& expression.usesFilterChannel()) {
 			view.showMessageDialog("Filter channel is not being calculated, " +
 					"select plot Filter channel to calculate");
 			view.getMathChannelEquationTextField().setText(
@@ -748,15 +774,13 @@ public class DigiscopeController {
 		}
 
 		// check for deadlock dependency
-		if (model.getFilterChannelInput() != null) {
-			if (model.getFilterChannelInput().contains("Math") &&
-					mathEquation.contains("F")) {
-				view.showMessageDialog("Filter Channel Depends on Math. " +
-						"Deadlock situation - math equation not permitted");
-				view.getMathChannelEquationTextField().setText(
-						model.getMathChannel().getEquation());
-				return;
-			}
+		if (model.getChannelGraph().wouldCreateCycle(ChannelGraph.MATH,
+				model.getMathChannelInputs(expression))) {
+			view.showMessageDialog("Filter Channel Depends on Math. " +
+					"Deadlock situation - math equation not permitted");
+			view.getMathChannelEquationTextField().setText(
+					model.getMathChannel().getEquation());
+			return;
 		}
 
 		// need to check if the channel previously had either a or b, and now has neither
@@ -781,7 +805,7 @@ public class DigiscopeController {
 			}
 		}
 
-		model.getMathChannel().setEquation(mathEquation);
+		model.setMathEquation(mathEquation, expression);
 
 		int index = view.getFilterInputChannelComboBoxModel().getIndexOf("Math");
 
@@ -0,0 +1,48 @@
+/**
+ * The events that the view and the model emit, and the controller listens
+ * to.
+ */
+public enum DigiscopeEvent {
+
+	/*************************************************
+	 * View events, from the Swing components
+	 *************************************************/
+
+	CONNECT,
+	SEND_FUNCTION_GENERATOR_CONFIG,
+	PARSE_FILTER_CHANNEL_INPUT_FILE,
+	FORCE_TRIGGER_BUTTON_PRESSED,
+	REARM_TRIGGER_BUTTON_PRESSED,
+	SEND_CONFIGURATIONS_TO_FIRMWARE,
+	SET_MATH_EQUATION,
+	CHANNEL_A_CHECK_BOX_CHECKED,
+	CHANNEL_B_CHECK_BOX_CHECKED,
+	MATH_CHANNEL_CHECK_BOX_CHECKED,
+	FILTER_CHANNEL_CHECK_BOX_CHECKED,
+	VERTICAL_RANGE_RESOLUTION_CHANGED,
+	HORIZONTAL_RANGE_RESOLUTION_CHANGED,
+	FILTER_INPUT_CHANNEL_CHANGED,
+
+	/*************************************************
+	 * Model events, from captures and the device
+	 *************************************************/
+
+	UPDATE_MEASUREMENT_LABELS,
+	SET_SCALING_COMBO_BOXES,
+	SAMPLE_VOLTAGE_SELECTED,
+	CHANGE_CHANNEL_COUPLING,
+	CHANGE_TRIGGER_MODE,
+	CHANGE_TRIGGER_TYPE,
+	VOLTS_PER_DIVISION_CHANGED,
+	TIME_PER_DIVISION_CHANGED,
+	TRIGGER_THRESHOLD_CHANGED,
+	FUNCTION_OUTPUT_CONFIG_CHANGED,
+	FUNC_GEN_WAVE_TYPE_CHANGED,
+	FUNC_GEN_P2P_VOLTAGE_CHANGED,
+	FUNC_GEN_OFFSET_CHANGED,
+	FUNC_GEN_FREQUENCY_CHANGED,
+	SAMPLING_RATE_CHANGED,
+	INCORRECT_SAMPLES_SENT,
+	DEVICE_STATUS_CHANGED
+
+}
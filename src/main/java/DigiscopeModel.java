@@ -1,5 +1,9 @@
-import java.text.DecimalFormat;
-import com.fathzer.soft.javaluator.DoubleEvaluator;
+import dsp.BandpassSampler;
+import dsp.BiquadCascade;
+import dsp.FftConvolver;
+import dsp.FirFilter;
+import dsp.IirFilter;
+import dsp.ParallelRange;
 
 /**
  * The application's model using the MVC architecture
@@ -40,6 +44,9 @@ public class DigiscopeModel extends EventEmitter {
 	private MathChannel MathChannel;
 	private FilterChannel FilterChannel;
 
+	// Which channels each channel is worked out from
+	private final ChannelGraph channelGraph;
+
 	// Plotting related
 	private Boolean plotChannelA;
 	private Boolean plotChannelB;
@@ -52,6 +59,27 @@ public class DigiscopeModel extends EventEmitter {
 	private double selectedSampleVoltage;
 	private boolean initialConfigSent;
 
+	// FFT convolution plan for the loaded FIR filter, reused across captures
+	private FftConvolver firConvolver;
+
+	// Biquad cascade for the loaded IIR filter, designed once per filter
+	// (null if the filter could not be factored), and the filter columns it
+	// was designed from
+	private BiquadCascade iirCascade;
+	private double[] iirCascadeB;
+	private double[] iirCascadeA;
+
+	// Captures at least this long have their math and FIR filter channels
+	// worked out on the common fork-join pool
+	private volatile int parallelThreshold = Integer.getInteger(
+			"digiscope.parallelThreshold", ParallelRange.DEFAULT_THRESHOLD);
+
+	// Only used by the channel graph's bandpass node
+	private final BandpassSampler bandpassSampler = new BandpassSampler(
+			DigiscopeServer.BANDPASS_FILTER,
+			DigiscopeServer.BANDPASS_UPSAMPLING_FACTOR,
+			DigiscopeServer.BANDPASS_OSCILLATOR);
+
 
 	public DigiscopeModel() {
 		comms = new DigiscopeServer(this);
@@ -60,18 +88,22 @@ public class DigiscopeModel extends EventEmitter {
 		timePerDivisionDisplayed = "";
 		currentFunctionGeneratorConfigurations = 
 				new FunctionGenerator(false, "", 0.0,0.0,(short) 0);
-	}
 
-	public void setOscilloscopeDisplay(OscilloscopeDisplay display) {
-		this.display = display;
-		this.deviceIsConnected = false;
-
-		// Create the channels
+		// Create the channels. They are needed without a display too (e.g.
+		// batch processing), and the display reads their colours when it is
+		// set up.
 		ChannelA = new ChannelA();
 		ChannelB = new ChannelB();
 		MathChannel = new MathChannel();
 		FilterChannel = new FilterChannel();
 
+		channelGraph = createChannelGraph();
+	}
+
+	public void setOscilloscopeDisplay(OscilloscopeDisplay display) {
+		this.display = display;
+		this.deviceIsConnected = false;
+
 		timePerDivision = "";
 		voltsPerDivision = "";
 
@@ -90,106 +122,188 @@ public class DigiscopeModel extends EventEmitter {
 	 * filter calculations.
 	 */
 	public void computeFilterChannel() {
-		String filterType = FilterChannel.getFilterType();
-		double[] samples = null;
+		double[] samples = selectFilterInput(ChannelA.getChannelSamples(),
+				ChannelB.getChannelSamples(), MathChannel.getChannelSamples());
+
+		FilterChannel.setChannelSamples(computeFilterSamples(samples),
+				samplingRate);
+	}
+
+	/**
+	 * Builds the channel graph. A and B are set for each capture, bandpass
+	 * is worked out from A, and the filter and math channels from whatever
+	 * the filter channel input and the math equation use.
+	 */
+	private ChannelGraph createChannelGraph() {
+		ChannelGraph graph = new ChannelGraph();
+
+		graph.addSource(ChannelGraph.A);
+		graph.addSource(ChannelGraph.B);
+		graph.addNode(ChannelGraph.BANDPASS,
+				inputs -> computeBandpassSamples(inputs[0]), ChannelGraph.A);
+
+		// no input until the user picks one
+		graph.addNode(ChannelGraph.FILTER,
+				inputs -> inputs.length == 0 ? null :
+						computeFilterSamples(inputs[0]));
+
+		// no equation until the user sets one, F only if the equation uses it
+		graph.addNode(ChannelGraph.MATH,
+				inputs -> MathChannel.getExpression() == null ? null :
+						computeMathSamples(inputs[0], inputs[1],
+								inputs.length > 2 ? inputs[2] : null),
+				getMathChannelInputs(null));
+
+		return graph;
+	}
+
+	/**
+	 * @param expression - A compiled math equation, or null for none
+	 * @return the channels the math channel is worked out from with the
+	 *         equation
+	 */
+	public String[] getMathChannelInputs(MathExpression expression) {
+		if (expression != null && expression.usesFilterChannel()) {
+			return new String[]{ChannelGraph.A, ChannelGraph.B,
+					ChannelGraph.FILTER};
+		}
+
+		return new String[]{ChannelGraph.A, ChannelGraph.B};
+	}
+
+	/**
+	 * Upsamples channel A, mixes it with the bandpass oscillator and filters
+	 * it in one pass
+	 * @param channelASamples - The channel A samples
+	 * @return the bandpassed samples
+	 */
+	private double[] computeBandpassSamples(double[] channelASamples) {
+		int numSamples = channelASamples.length;
+		double[] bandpassedSamples = new double[
+				bandpassSampler.outputLength(numSamples)];
+
+		bandpassSampler.process(channelASamples, numSamples, bandpassedSamples);
+
+		return bandpassedSamples;
+	}
+
+	/**
+	 * Picks the samples that feed the filter channel, based on the filter
+	 * channel input.
+	 * @param channelASamples - The channel A samples
+	 * @param channelBSamples - The channel B samples
+	 * @param mathChannelSamples - The math channel samples
+	 * @return the samples to filter
+	 */
+	public double[] selectFilterInput(double[] channelASamples,
+			double[] channelBSamples, double[] mathChannelSamples) {
 
 		//need to get the input channel to get the sample
 		switch (filterChannelInput) {
 		case "A":
-			samples = ChannelA.getChannelSamples();
-			break;
+			return channelASamples;
 		case "B":
-			samples = ChannelB.getChannelSamples();
-			break;
+			return channelBSamples;
 		case "Math":
-			samples = MathChannel.getChannelSamples();
-			break;
+			return mathChannelSamples;
 		}
 
+		return null;
+	}
+
+	/**
+	 * Applies the filter channel's filter to a set of samples, without
+	 * touching the filter channel. The FIR plan is shared between captures,
+	 * so this is synchronized for the capture pipeline.
+	 * @param samples - The samples to filter
+	 * @return the filtered samples
+	 */
+	public synchronized double[] computeFilterSamples(double[] samples) {
+		String filterType = FilterChannel.getFilterType();
+
 		// Perform the calculations based on the filter type
 		switch (filterType) {
 		case "FIR":
-			computeFirFilterChannel(samples, FilterChannel.getFirFilter());
-			break;
+			return computeFirFilter(samples, FilterChannel.getFirFilter());
 		case "IIR":
 			Object[] temp = FilterChannel.getIirFilters();
 			double[] iirFilter1 = (double[])temp[0];
 			double[] iirFilter2 = (double[])temp[1];
-			computeIirFilterChannel(samples, iirFilter1, iirFilter2);
-			break;
+			return computeIirFilter(samples, iirFilter1, iirFilter2);
 		}
+
+		return null;
 	}
 
 	/**
-	 * Computers the Filter Channel based on FIR filter using provided samples.
-	 * Sets the samples for the FilterChannel object
+	 * Computes the FIR filter channel samples. Long filters are applied
+	 * with FFT convolution, short ones with the direct form, whichever is
+	 * expected to be faster for the number of taps and samples.
 	 * @param samples - The samples to use for filter channel calculation
 	 * @param filter - The fir filter to apply
+	 * @return the filtered samples
 	 */
-	private void computeFirFilterChannel(double[] samples, double[] filter ) {
+	private double[] computeFirFilter(double[] samples, double[] filter) {
 
 		int size = samples.length;
 		double[] filterChannelSamples = new double[size];
 
-		for (int i=0; i<samples.length; i++) {
-
-			double sum = 0;
-
-			for (int j=0; j<filter.length; j++) {
-				if (i-j < 0) {
-					sum += 0;
-				} else {
-					sum += filter[j] *  samples[i-j];
-				}
+		if (FftConvolver.isFasterThanDirect(filter.length, size)) {
+			// only re-plan when the filter or the record length changes
+			if (firConvolver == null || !firConvolver.isPlannedFor(filter, size)) {
+				firConvolver = new FftConvolver(filter, size);
 			}
 
-			filterChannelSamples[i] = sum;
+			firConvolver.convolve(samples, size, filterChannelSamples);
+		} else {
+			// each chunk reads the samples before it as history, so the
+			// chunks can be filtered in parallel
+			ParallelRange.run(0, size, parallelThreshold, (from, to) ->
+					FirFilter.filter(samples, filter, filterChannelSamples, from,
+							to));
 		}
-		
-		FilterChannel.setChannelSamples(filterChannelSamples, samplingRate);
+
+		return filterChannelSamples;
 	}
 
 	/**
-	 * Computers the Filter Channel based on IIR filter using provided samples.
-	 * Sets the samples for the FilterChannel object. The iir filter is split
+	 * Computes the IIR filter channel samples. The iir filter is split
 	 * into two double arrays (iirFilter1 is the first column in the file,
-	 * iirFilter2 being the second column in the file).
+	 * iirFilter2 being the second column in the file). The filter is run as
+	 * a cascade of biquads, or in direct form if it could not be factored.
 	 * @param samples - The samples to use for filter channel calculation.
 	 * @param iirFilter1 - The iir filter to apply
 	 * @param iirFilter2 - The iir filter to apply
+	 * @return the filtered samples
 	 */
-	private void computeIirFilterChannel(double[] samples, double[] iirFilter1, 
+	private double[] computeIirFilter(double[] samples, double[] iirFilter1,
 			double[] iirFilter2) {
 		
 		int size = samples.length;
 		double[] filterChannelSamples = new double[size];
-		
-		for (int i=0; i<samples.length; i++) {
 
-			double first = 0;
-			double second = 0;
+		// only re-design when a different filter is loaded
+		if (iirFilter2 != iirCascadeB || iirFilter1 != iirCascadeA) {
+			iirCascade = BiquadCascade.design(iirFilter2, iirFilter1);
+			iirCascadeB = iirFilter2;
+			iirCascadeA = iirFilter1;
 
-			for (int j=0; j<iirFilter2.length; j++) {
-				if (i-j < 0) {
-					first += 0;
-				} else {
-					first += iirFilter2[j] *  samples[i-j];
-				}
-			}
-			
-			for (int j=1; j<iirFilter1.length; j++) {
-				if (i-j < 0) {
-					second += 0;
-				} else {
-					second += iirFilter1[j] *  filterChannelSamples[i-j];
-				}
+			if (iirCascade == null) {
+				System.out.println("IIR filter could not be factored into " +
+						"biquads, using the direct form");
 			}
+		}
 
-			filterChannelSamples[i] = (first - second) * (1/iirFilter1[0]);
-			
+		if (iirCascade != null) {
+			// each capture is filtered from rest
+			iirCascade.reset();
+			iirCascade.filter(samples, filterChannelSamples, 0, size);
+		} else {
+			IirFilter.filter(samples, iirFilter2, iirFilter1,
+					filterChannelSamples, 0, size);
 		}
-		
-		FilterChannel.setChannelSamples(filterChannelSamples, samplingRate);
+
+		return filterChannelSamples;
 	}
 
 	/**
@@ -197,40 +311,42 @@ public class DigiscopeModel extends EventEmitter {
 	 * samples.
 	 */
 	public void computeMathChannel() {
+		double[] mathChannelSamples = computeMathSamples(
+				ChannelA.getChannelSamples(), ChannelB.getChannelSamples(),
+				FilterChannel.getChannelSamples());
 
-		int size = ChannelA.getChannelSamples().length;
-		String equation = MathChannel.getEquation();
-
-		double[] mathChannelSamples = new double[size];
-
-		// Need to loop that amount of times. If the expression contains A or B,
-		// need to substitute it with the value from the corresponding array.
-		for (int i=0; i<size; i++) {
-
-			DecimalFormat df = new DecimalFormat("#.#################");      
-
-			String channelASample = df.format(ChannelA.getChannelSamples()[i]);
-			String channelBSample = df.format(ChannelB.getChannelSamples()[i]);
+		// Finally need to set the math channel
+		MathChannel.setChannelSamples(mathChannelSamples, samplingRate);
+	}
 
-			String evalA = equation.replace("A", channelASample);
-			String evalB = evalA.replace("B", channelBSample);
+	/**
+	 * Evaluates the math channel equation over a set of channel samples,
+	 * without touching the math channel.
+	 * @param channelASamples - The channel A samples
+	 * @param channelBSamples - The channel B samples
+	 * @param filterChannelSamples - The filter channel samples, only needed if
+	 *                               the equation refers to F
+	 * @return the math channel samples
+	 */
+	public double[] computeMathSamples(double[] channelASamples,
+			double[] channelBSamples, double[] filterChannelSamples) {
 
-			// If equation contains F, then replace with F, otherwise leave as
-			// is
-			if (equation.contains("F")) {
-				String filterChannelSample = df.format(
-						FilterChannel.getChannelSamples()[i]);
-				String evalFilter = evalB.replace("F", filterChannelSample);
-				mathChannelSamples[i] =  new DoubleEvaluator().evaluate(evalFilter);
-			} else {
-				mathChannelSamples[i] = new DoubleEvaluator().evaluate(evalB);
-			}
+		int size = channelASamples.length;
+		MathExpression expression = MathChannel.getExpression();
 
+		double[] mathChannelSamples = new double[size];
 
-		}
+		// The equation was compiled when it was set, so A, B and F are read
+		// straight out of the channel arrays. The filter channel is only
+		// needed if the equation refers to it. Each sample is independent,
+		// so long captures are split across cores.
+		double[] filterSamples = expression.usesFilterChannel() ?
+				filterChannelSamples : null;
+		ParallelRange.run(0, size, parallelThreshold, (from, to) ->
+				expression.evaluate(channelASamples, channelBSamples,
+						filterSamples, mathChannelSamples, from, to));
 
-		// Finally need to set the math channel
-		MathChannel.setChannelSamples(mathChannelSamples, samplingRate);
+		return mathChannelSamples;
 	}
 	
 
@@ -376,6 +492,38 @@ public class DigiscopeModel extends EventEmitter {
 		return ChannelB;
 	}
 
+	public ChannelGraph getChannelGraph() {
+		return channelGraph;
+	}
+
+	/**
+	 * @param parallelThreshold - The shortest capture to work out the math
+	 *                            and FIR filter channels for in parallel,
+	 *                            Integer.MAX_VALUE to always work them out
+	 *                            on one thread
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the math equation, and the channels the math channel is worked
+	 * out from with it
+	 * @param equation - The equation as entered by the user
+	 * @param expression - The equation compiled by MathExpression.compile
+	 * @throws IllegalArgumentException if the equation uses the filter
+	 *         channel and the filter channel input is Math
+	 */
+	public void setMathEquation(String equation, MathExpression expression) {
+		channelGraph.setInputs(ChannelGraph.MATH,
+				getMathChannelInputs(expression));
+		MathChannel.setEquation(equation, expression);
+	}
+
 	/* Display relate */
 	public String getResolution() { 
 
@@ -528,14 +676,21 @@ public class DigiscopeModel extends EventEmitter {
 	
 	public void setSelectedSampleVoltage(double selectedSampleVoltage) {
 		this.selectedSampleVoltage = selectedSampleVoltage;
-		this.emit("sampleVoltageSelected");
+		this.emit(DigiscopeEvent.SAMPLE_VOLTAGE_SELECTED, selectedSampleVoltage);
 	}
 	
 	public double getSelectedSampleVoltage() {
 		return selectedSampleVoltage;
 	}
 	
+	/**
+	 * @param filterChannelInput - A, B or Math
+	 * @throws IllegalArgumentException if the math equation uses the filter
+	 *         channel and the input is Math
+	 */
 	public void setFilterChannelInput(String filterChannelInput) {
+		channelGraph.setInputs(ChannelGraph.FILTER, filterChannelInput == null ?
+				new String[0] : new String[]{filterChannelInput});
 		this.filterChannelInput = filterChannelInput;
 	}
 	
@@ -1,10 +1,14 @@
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import dsp.Mixer;
+
 /**
  * This class represents the object that the firmware sends samples and commands
  * to (and also to send commands to the firmware). Two separate threads are 
@@ -24,36 +28,78 @@ public class DigiscopeServer {
 	private Thread inboundThread;
 	private Thread outboundThread;
 	private LinkedBlockingQueue<byte []> outboundMessageQueue;
+	private CapturePipeline capturePipeline;
+	private volatile CaptureRecorder captureRecorder;
+	private final CaptureHistory captureHistory;
+	private Thread replayThread;
 	final short padding = 0;
 
 	DataOutputStream dos;
 
 	// command constants
-	final short TIME_PER_DIVISION_COMMAND = 0x3131;
-	final short VOLTAGE_PER_DIVISION_COMMAND = 0x3232;
-	final short TRIGGER_THRESHOLD_COMMAND = 0x3333;
-	final short TRIGGER_MODE_COMMAND = 0x3434;
-	final short TRIGGER_TYPE_COMMAND = 0x3535;
-	final short SAMPLING_MODE_COMMAND = 0x3636;
-	final short NUM_SAMPLES_COMMAND = 0x3737;
-	final short CHANNEL_COUPLING_COMMAND = 0x3838;
-	final short SEND_SAMPLE_START = 0x3939;
-	final short SEND_SAMPLE_END = 0x4040;
-	final short FORCE_TRIGGER_COMMAND = 0x4141;
-	final short REARM_TRIGGER_COMMAND = 0x4242;
-	final short FUNC_GEN_OUTPUT_COMMAND = 0x4343;
-	final short FUNC_GEN_WAVE_TYPE_COMMAND = 0x4444;
-	final short FUNC_GEN_P2P_VOLTAGE_COMMAND = 0x4545;
-	final short FUNC_GEN_OFFSET_COMMAND = 0x4646;
-	final short FUNC_GEN_FREQUENCY_COMMAND = 0x4747;
-	final short SAMPLING_RATE_COMMAND = 0x4848;
-	final short CHANNEL_TO_TRIGGER_COMMAND = 0x4949;
-	final short CHANNEL_OFFSETS_COMMAND = 0x5050;
-	final short DEVICE_STATUS = 0x5151;
-	final short BANDPASS_SAMPLING = 0x5252;
+	static final short TIME_PER_DIVISION_COMMAND = 0x3131;
+	static final short VOLTAGE_PER_DIVISION_COMMAND = 0x3232;
+	static final short TRIGGER_THRESHOLD_COMMAND = 0x3333;
+	static final short TRIGGER_MODE_COMMAND = 0x3434;
+	static final short TRIGGER_TYPE_COMMAND = 0x3535;
+	static final short SAMPLING_MODE_COMMAND = 0x3636;
+	static final short NUM_SAMPLES_COMMAND = 0x3737;
+	static final short CHANNEL_COUPLING_COMMAND = 0x3838;
+	static final short SEND_SAMPLE_START = 0x3939;
+	static final short SEND_SAMPLE_END = 0x4040;
+	static final short FORCE_TRIGGER_COMMAND = 0x4141;
+	static final short REARM_TRIGGER_COMMAND = 0x4242;
+	static final short FUNC_GEN_OUTPUT_COMMAND = 0x4343;
+	static final short FUNC_GEN_WAVE_TYPE_COMMAND = 0x4444;
+	static final short FUNC_GEN_P2P_VOLTAGE_COMMAND = 0x4545;
+	static final short FUNC_GEN_OFFSET_COMMAND = 0x4646;
+	static final short FUNC_GEN_FREQUENCY_COMMAND = 0x4747;
+	static final short SAMPLING_RATE_COMMAND = 0x4848;
+	static final short CHANNEL_TO_TRIGGER_COMMAND = 0x4949;
+	static final short CHANNEL_OFFSETS_COMMAND = 0x5050;
+	static final short DEVICE_STATUS = 0x5151;
+	static final short BANDPASS_SAMPLING = 0x5252;
+
+	// Bandpass sampling upsamples channel A by 20, to an effective sampling
+	// rate of 20MHz
+	static final int BANDPASS_UPSAMPLING_FACTOR = 20;
+
+	// The 1MHz sine wave at 20MHz, evaluated once per input sample and held
+	// across the 20 interpolated points. It repeats every 20 input samples.
+	static final double[] BANDPASS_OSCILLATOR = Mixer.sineTable(
+			BANDPASS_UPSAMPLING_FACTOR, 1);
+
+	// Coefficients from the filter was received from:
+	// http://arc.id.au/FilterDesign.html
+	static final double[] BANDPASS_FILTER = new double[]{ -0.000230, -0.000347,
+			-0.000411, -0.000369, -0.000179, 0.000165, 0.000624, 0.001106,
+			0.001482, 0.001609, 0.001368, 0.000708, -0.000327, -0.001579,
+			-0.002796, -0.003672, -0.003913, -0.003317, -0.001845, 0.000345,
+			0.002888, 0.005273, 0.006934, 0.007378, 0.006311, 0.003737,
+			0.000000, -0.004249, -0.008160, -0.010853, -0.011611,
+			-0.010059, -0.006283, -0.000857, 0.005240, 0.010795,
+			0.014616, 0.015782, 0.013868, 0.009064, 0.002178, -0.005504,
+			-0.012466, -0.017270, -0.018863, -0.016814, -0.011422,
+			-0.003679, 0.004923, 0.012690, 0.018076, 0.020000, 0.018076,
+			0.012690, 0.004923, -0.003679, -0.011422, -0.016814,
+			-0.018863, -0.017270, -0.012466, -0.005504, 0.002178,
+			0.009064, 0.013868, 0.015782, 0.014616, 0.010795, 0.005240,
+			-0.000857, -0.006283, -0.010059, -0.011611, -0.010853,
+			-0.008160, -0.004249, 0.000000, 0.003737, 0.006311,
+			0.007378, 0.006934, 0.005273, 0.002888, 0.000345, -0.001845,
+			-0.003317, -0.003913, -0.003672, -0.002796, -0.001579,
+			-0.000327, 0.000708, 0.001368, 0.001609, 0.001482, 0.001106,
+			0.000624, 0.000165, -0.000179, -0.000369, -0.000411,
+			-0.000347, -0.000230 };
 
 	public DigiscopeServer(DigiscopeModel model) {
 		this.model = model;
+
+		// keep the last captures, within a memory budget that can be set on
+		// the command line
+		this.captureHistory = new CaptureHistory(Integer.getInteger(
+				"digiscope.historyMB", CaptureHistory.DEFAULT_BUDGET_MB),
+				CaptureHistory.DEFAULT_MAX_SEGMENTS);
 	}
 
 	/**
@@ -77,7 +123,17 @@ public class DigiscopeServer {
 
 		outboundMessageQueue = new LinkedBlockingQueue<>();
 
-		inboundThread = new Thread(new DigiscopeServerIn());
+		SampleFrameDecoder frameDecoder = new SampleFrameDecoder();
+		capturePipeline = new CapturePipeline(model, frameDecoder);
+
+		// record the session if a capture file was given on the command line
+		String recordFile = System.getProperty("digiscope.recordFile");
+		if (recordFile != null) {
+			startRecording(Paths.get(recordFile));
+		}
+
+		inboundThread = new Thread(new DigiscopeServerIn(frameDecoder,
+				capturePipeline));
 		inboundThread.start();
 
 		outboundThread = new Thread(new DigiscopeServerOut(outboundMessageQueue));
@@ -102,6 +158,8 @@ public class DigiscopeServer {
 		try {
 			inboundThread.interrupt();
 			outboundThread.interrupt();
+			capturePipeline.shutdown();
+			stopRecording();
 			deviceOut.close();
 			socket.close();
 			input.close();
@@ -111,6 +169,156 @@ public class DigiscopeServer {
 		}
 	}
 
+	/**
+	 * Starts recording everything the firmware sends to a capture file, which
+	 * can be replayed later with startReplay.
+	 * @param file - The capture file to append to
+	 * @throws IOException
+	 */
+	public void startRecording(Path file) throws IOException {
+		stopRecording();
+		captureRecorder = new CaptureRecorder(file);
+		System.out.println("Recording captures to " + file);
+	}
+
+	/**
+	 * Stops recording, if a recording is in progress
+	 */
+	public void stopRecording() {
+		CaptureRecorder recorder = captureRecorder;
+		captureRecorder = null;
+
+		if (recorder != null) {
+			try {
+				System.out.println("Recorded " + recorder.getFramesRecorded() +
+						" frames");
+				recorder.close();
+			} catch (IOException e) {
+				System.out.println("Error closing capture file");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Replays a capture file through the capture pipeline on a background
+	 * thread, as if the frames had come from the firmware.
+	 * @param file - The capture file to replay
+	 * @param originalTiming - Whether to keep the recorded time between
+	 *                         frames, or replay as fast as possible
+	 */
+	public void startReplay(Path file, boolean originalTiming) {
+		if (capturePipeline == null) {
+			capturePipeline = new CapturePipeline(model,
+					new SampleFrameDecoder());
+		}
+
+		replayThread = new Thread(() -> {
+			try (CaptureReplay replay = new CaptureReplay(file)) {
+				long start = System.nanoTime();
+				int replayed = replay.replay(capturePipeline, 0, originalTiming,
+						this::applyConfig);
+				System.out.println(String.format("Replayed %d frames in %.2fs",
+						replayed, (System.nanoTime() - start) / 1e9));
+				System.out.println(capturePipeline.getStatistics());
+			} catch (IOException | InterruptedException e) {
+				System.out.println("Error replaying " + file);
+				e.printStackTrace();
+			}
+		}, "Capture replay");
+		replayThread.start();
+	}
+
+	/**
+	 * Runs a capture kept in the capture history through the channel
+	 * calculations and the display again, without going back to the device.
+	 * @param segment - The capture's segment number in the history
+	 * @return whether the capture was still in the history
+	 */
+	public boolean replayHistory(long segment) {
+		if (capturePipeline == null) {
+			capturePipeline = new CapturePipeline(model,
+					new SampleFrameDecoder());
+		}
+
+		return captureHistory.resubmit(segment, capturePipeline);
+	}
+
+	/**
+	 * Records a message or frame from the firmware if a recording is in
+	 * progress. A failed write stops the recording rather than the capture.
+	 */
+	private void record(RecordWrite write) {
+		CaptureRecorder recorder = captureRecorder;
+		if (recorder == null) {
+			return;
+		}
+
+		try {
+			write.writeTo(recorder);
+		} catch (IOException e) {
+			System.out.println("Error recording, recording stopped");
+			e.printStackTrace();
+			stopRecording();
+		}
+	}
+
+	/**
+	 * Applies a configuration message from the firmware, or one replayed from
+	 * a capture file, to the model.
+	 * @param command - The command
+	 * @param value - The value associated with the command
+	 */
+	private void applyConfig(short command, short value) {
+
+		switch(command) {
+		case CHANNEL_COUPLING_COMMAND:
+			changeChannelCoupling(value);
+			break;
+		case VOLTAGE_PER_DIVISION_COMMAND:
+			changeVoltagePerDiv(value);
+			break;
+		case TIME_PER_DIVISION_COMMAND:
+			changeTimePerDiv(value);
+			break;
+		case TRIGGER_MODE_COMMAND:
+			changeTriggerMode(value);
+			break;
+		case TRIGGER_THRESHOLD_COMMAND:
+			changeTriggerThreshold(value);
+			break;
+		case TRIGGER_TYPE_COMMAND:
+			changeTriggerType(value);
+			break;
+		case FUNC_GEN_OUTPUT_COMMAND:
+			changeFuncGenOutput(value);
+			break;
+		case FUNC_GEN_WAVE_TYPE_COMMAND:
+			changeFuncGenWaveType(value);
+			break;
+		case FUNC_GEN_P2P_VOLTAGE_COMMAND:
+			changeFuncGenP2PVoltage(value);
+			break;
+		case FUNC_GEN_OFFSET_COMMAND:
+			changeFuncGenOffset(value);
+			break;
+		case FUNC_GEN_FREQUENCY_COMMAND:
+			changeFuncGenFrequency(value);
+			break;
+		case SAMPLING_RATE_COMMAND:
+			changeSamplingRate(value);
+			break;
+		case DEVICE_STATUS:
+			changeDeviceStatus(value);
+			break;
+
+		}
+	}
+
+	private interface RecordWrite {
+		void writeTo(CaptureRecorder recorder) throws IOException;
+	}
+
 	/**
 	 * This class represents the thread that is responsible for sending messages
 	 * to the firmware. This is done by constantly taking messages that are put
@@ -147,8 +355,17 @@ public class DigiscopeServer {
 	 */
 	private class DigiscopeServerIn implements Runnable {
 
-		double[] channelASamples;
-		double[] channelBSamples;
+		// Pooled frame buffers, handed back by the pipeline once decoded
+		private final SampleFrameDecoder frameDecoder;
+
+		// Where captures go once they have been read
+		private final CapturePipeline capturePipeline;
+
+		DigiscopeServerIn(SampleFrameDecoder frameDecoder,
+				CapturePipeline capturePipeline) {
+			this.frameDecoder = frameDecoder;
+			this.capturePipeline = capturePipeline;
+		}
 
 		public void run() {
 			try {
@@ -158,20 +375,18 @@ public class DigiscopeServer {
 					boolean eof = false;
 					byte[] inputData = new byte[4];
 
-					int numSamples = 0;
+					// tiva is little endian and java is big endian, so read
+					// the message through a little endian view
+					ByteBuffer message = ByteBuffer.wrap(inputData).order(
+							ByteOrder.LITTLE_ENDIAN);
 
 					while (!eof) {
 						try {
 							// read and use data - read in chunks of 4 bytes
 							input.readFully(inputData);
 
-							// flip them because tiva is little endian and java
-							// is big endian
-							byte[] command = {inputData[1], inputData[0]};
-							byte[] value = {inputData[3], inputData[2]};
-
-							processMessage(ByteBuffer.wrap(command).getShort(),
-									ByteBuffer.wrap(value).getShort());
+							processMessage(message.getShort(0),
+									message.getShort(2));
 						} catch (EOFException e) {
 							eof = true;
 						}
@@ -193,55 +408,16 @@ public class DigiscopeServer {
          */
 		private void processMessage(short command, short value) {
 
-			switch(command) {
-			case CHANNEL_COUPLING_COMMAND:
-				changeChannelCoupling(value);
-				break;
-			case VOLTAGE_PER_DIVISION_COMMAND:
-				changeVoltagePerDiv(value);
-				break;
-			case TIME_PER_DIVISION_COMMAND:
-				changeTimePerDiv(value);
-				break;
-			case TRIGGER_MODE_COMMAND:
-				changeTriggerMode(value);
-				break;
-			case TRIGGER_THRESHOLD_COMMAND:
-				changeTriggerThreshold(value);
-				break;
-			case TRIGGER_TYPE_COMMAND:
-				changeTriggerType(value);
-				break;
-			case FUNC_GEN_OUTPUT_COMMAND:
-				changeFuncGenOutput(value);
-				break;
-			case FUNC_GEN_WAVE_TYPE_COMMAND:
-				changeFuncGenWaveType(value);
-				break;
-			case FUNC_GEN_P2P_VOLTAGE_COMMAND:
-				changeFuncGenP2PVoltage(value);
-				break;
-			case FUNC_GEN_OFFSET_COMMAND:
-				changeFuncGenOffset(value);
-				break;
-			case FUNC_GEN_FREQUENCY_COMMAND:
-				changeFuncGenFrequency(value);
-				break;
-			case SEND_SAMPLE_START:
+			if (command == SEND_SAMPLE_START) {
 				readSamples(value);
-				break;
-			case SAMPLING_RATE_COMMAND:
-				changeSamplingRate(value);
-				break;
-			case DEVICE_STATUS:
-				changeDeviceStatus(value);
-				break;
-
+			} else {
+				record(recorder -> recorder.recordConfig(command, value));
+				applyConfig(command, value);
 			}
 		}
 
 		/**
-		 * Read the samples, and trigger the event if done successfully
+		 * Read the samples, and hand them to the capture pipeline
 		 * @param triggerIndex
          */
 		private void readSamples(short triggerIndex) {
@@ -250,236 +426,41 @@ public class DigiscopeServer {
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
-
-			model.emit("setScalingComboBoxes");
-			System.out.println("Processing samples ok");
-		}
-
-		/*
-		 * Convert raw adc reading to meaningful one.
-		 */
-		private double processSample(short sample) {
-			return (3.3 * sample / 4095);
-		}
-
-		/**
-		 * This method performs bandpass sampling on the values received.
-		 * 1. Generate a 1Mhz sine wave 20 times bigger than the number of samples
-		 *    that we are expecting to receive (linear interpolation by a factor
-		 *    of 20
-		 * 2. Interpolate 20 samples in between each point - equally
-		 * 3. Multiply them together
-		 * 4. Put the samples through a filter
-		 */
-		private void processBandpassChannelA(double[] chanASamples) {
-			// 1khz sine wave
-			int frequency = 1000000;
-			int numSamplesToAcquire = model.getNumSamplesToAcquire();
-			// effective sampling rate
-			int samplingRate = 20000000;
-
-			//upsample by factor of 20
-			double[] chanASamplesBandpassed = new double[numSamplesToAcquire * 20];
-
-			// Coefficients from the filter was received from:
-			// http://arc.id.au/FilterDesign.html
-			double[] filter = new double[]{ -0.000230, -0.000347, -0.000411,
-					-0.000369, -0.000179, 0.000165, 0.000624, 0.001106, 0.001482,
-					0.001609, 0.001368, 0.000708, -0.000327, -0.001579, -0.002796,
-					-0.003672, -0.003913, -0.003317, -0.001845, 0.000345,
-					0.002888, 0.005273, 0.006934, 0.007378, 0.006311, 0.003737,
-					0.000000, -0.004249, -0.008160, -0.010853, -0.011611,
-					-0.010059, -0.006283, -0.000857, 0.005240, 0.010795,
-					0.014616, 0.015782, 0.013868, 0.009064, 0.002178, -0.005504,
-					-0.012466, -0.017270, -0.018863, -0.016814, -0.011422,
-					-0.003679, 0.004923, 0.012690, 0.018076, 0.020000, 0.018076,
-					0.012690, 0.004923, -0.003679, -0.011422, -0.016814,
-					-0.018863, -0.017270, -0.012466, -0.005504, 0.002178,
-					0.009064, 0.013868, 0.015782, 0.014616, 0.010795, 0.005240,
-					-0.000857, -0.006283, -0.010059, -0.011611, -0.010853,
-					-0.008160, -0.004249, 0.000000, 0.003737, 0.006311,
-					0.007378, 0.006934, 0.005273, 0.002888, 0.000345, -0.001845,
-					-0.003317, -0.003913, -0.003672, -0.002796, -0.001579,
-					-0.000327, 0.000708, 0.001368, 0.001609, 0.001482, 0.001106,
-					0.000624, 0.000165, -0.000179, -0.000369, -0.000411,
-					-0.000347, -0.000230 };
-
-			ArrayList<Double> tempBandpassValues = new ArrayList<Double>();
-
-			for (int i=0; i<numSamplesToAcquire; i++) {
-				// Multiply the sample by the 1Mhz frequency to cancel out the
-				// lower frequency
-				tempBandpassValues.add(chanASamples[i] *
-						(Math.sin(2* Math.PI * 1000000 * i / 20000000)));
-
-				// Do the linear interpolation for twenty samples in between
-				// each one. Done by creating 20 evenly stepped points between
-				// the two values. Then multiply these by the 1Mhz sine wave
-				if (i != (chanASamples.length - 1)) {
-					double start = chanASamples[i];
-					double end = chanASamples[i + 1];
-					double interval = (end - start) / 20.0;
-					for (int j = 1; j < 20; j++) {
-						double newVal = start + (interval * j);
-						tempBandpassValues.add(newVal *
-								(Math.sin(2 * Math.PI * 1000000 * i / 20000000)));
-					}
-				}
-			}
-
-			double[] arr = tempBandpassValues.stream().mapToDouble(
-					Double::doubleValue).toArray();
-
-			// put the samples through the filter
-			chanASamplesBandpassed = computeFirFilterChannel(arr, filter);
-
-			// set the result
-			model.getChannelA().setBandpassedSamples(chanASamplesBandpassed);
-		}
-
-		/**
-		 * Puts the samples for the Fir filter and returns the result
-		 * @param samples - The samples to filter
-		 * @param filter - The filter to apply
-         * @return - The filtered samples
-         */
-		private double[] computeFirFilterChannel(double[] samples, double[] filter) {
-			int size = samples.length;
-			double[] filterChannelSamples = new double[size];
-
-			for (int i=0; i<samples.length; i++) {
-
-				double sum = 0;
-
-				for (int j=0; j<filter.length; j++) {
-					if (i-j < 0) {
-						sum += 0;
-					} else {
-						sum += filter[j] *  samples[i-j];
-					}
-				}
-
-				filterChannelSamples[i] = sum;
-
-			}
-
-			return filterChannelSamples;
 		}
 
 		/**
 		 * This method handles reading through the samples when the command is
-		 * received by firmware, sets them and initiates plotting
+		 * received by firmware. The frame is only read here; decoding, the
+		 * channel calculations and plotting happen in the capture pipeline,
+		 * so the socket can be read again straight away.
 		 * @param numSamples - the number of samples to expect per channel
 		 * @param triggerIndex - the index of the trigger point
          * @throws Exception
          */
 		private void processSamples(int numSamples, short triggerIndex) throws Exception {
 
-			channelASamples = new double[numSamples];
-			channelBSamples = new double[numSamples];
-
-			// To store the samples
-			byte[] inputData = new byte[2];
-
-			// To store the footer
-			byte[] endData = new byte[4];
-
 			try {
-				// read channel a samples first
-				for (int i = 0; i < numSamples; i++) {
-					input.readFully(inputData);
-					byte[] chanASample = {inputData[1], inputData[0]};
-					channelASamples[i] = processSample(
-							ByteBuffer.wrap(chanASample).getShort());
-				}
-
-				// read channel b samples second
-				for (int i = 0; i < numSamples; i++) {
-					input.readFully(inputData);
-					byte[] chanBSample = {inputData[1], inputData[0]};
-					channelBSamples[i] = processSample(
-							ByteBuffer.wrap(chanBSample).getShort());
-				}
+				// read the channel a block, channel b block and the footer in
+				// one go
+				ByteBuffer frame = frameDecoder.readFrame(input, numSamples);
 
-				// read and use data
-				input.readFully(endData);
-				byte[] lastData = {endData[1], endData[0]};
-
-				if (ByteBuffer.wrap(lastData).getShort() != SEND_SAMPLE_END) {
-					model.emit("incorrectSamplesSent");
+				if (SampleFrameDecoder.getFooterCommand(frame, numSamples)
+						!= SEND_SAMPLE_END) {
+					model.emit(DigiscopeEvent.INCORRECT_SAMPLES_SENT);
 					// skip reading the samples/garbage after this.
 					input.skip(input.available());
+				} else {
+					// keep a copy before the pipeline hands the buffer back
+					captureHistory.append(frame, numSamples, triggerIndex,
+							model.getSamplingRate(),
+							model.getBandpassSampling().equals("On"));
 				}
 
-				model.getOscilloscopeDisplay().clearGrid();
-				model.getOscilloscopeDisplay().setTriggerIndex(triggerIndex);
-
-				model.getChannelA().setChannelSamples(channelASamples, model.getSamplingRate());
-				model.getChannelB().setChannelSamples(channelBSamples, model.getSamplingRate());
-
-				if (model.getBandpassSampling().equals("On")) {
-					processBandpassChannelA(channelASamples);
-				}
-
-				// Plot channel A if checkbox is checked by user
-				if (model.getChannelAisPlotted()) {
-
-					boolean bandpassOn =
-							model.getBandpassSampling().equals("On") ? true : false;
-
-					model.getOscilloscopeDisplay().initialPlotChannel(
-							model.getVoltsPerDivisionInDouble(),
-							model.getChannelA(), bandpassOn);
-				}
-
-				// Plot channel B if checkbox is checked by user
-				if (model.getChannelBisPlotted()) {
-					model.getOscilloscopeDisplay().initialPlotChannel(
-							model.getVoltsPerDivisionInDouble(),
-							model.getChannelB(), false);
-				}
-
-				// Compute filter channel if it has a valid file, and channel
-				// input. If filter channel input is math, then computer
-				// math channel first
-				if (model.getFilterChannel().getAvailableForPlotting()) {
-					// compute math channel first, if not already computed
-					if (model.getFilterChannelInput().equals("Math") &&
-							!model.getMathChannel().getEquation().contains("F")) {
-						model.computeMathChannel();
-					}
-
-					model.computeFilterChannel();
-				}
-
-				// Compute math channel if it has a valid equation. If the math
-				// equation contains F, the compute the filter channel first.
-				if (model.getMathChannel().getAvailableForPlotting()) {
-					// compute filter channel first, if not already computed
-					if(model.getMathChannel().getEquation().contains("F")) {
-						model.computeFilterChannel();
-					}
-
-					model.computeMathChannel();
-				}
-
-				// Plot filter if checkbox is checked by user
-				if (model.getFilterChannelIsPlotted()) {
-					model.getOscilloscopeDisplay().initialPlotChannel(
-							model.getVoltsPerDivisionInDouble(),
-							model.getFilterChannel(), false);
-
-				}
-
-				// Plot math channel if checkbox is checked by user
-				if (model.getMathChannelIsPlotted()) {
-
-					model.getOscilloscopeDisplay().initialPlotChannel(
-							model.getVoltsPerDivisionInDouble(),
-							model.getMathChannel(), false);
-				}
+				record(recorder -> recorder.recordFrame(frame, numSamples,
+						triggerIndex, model.getSamplingRate(),
+						model.getBandpassSampling().equals("On")));
 
-				model.emit("updateMeasurementLabels");
+				capturePipeline.submit(frame, numSamples, triggerIndex);
 
 			} catch (Exception e) {
 				System.out.println("Error processing samples!!...");
@@ -498,6 +479,14 @@ public class DigiscopeServer {
 		return portNumber;
 	}
 
+	public CapturePipeline getCapturePipeline() {
+		return capturePipeline;
+	}
+
+	public CaptureHistory getCaptureHistory() {
+		return captureHistory;
+	}
+
 	public String getIpAddress() {
 		return ipAddress.getHostAddress();
 	}
@@ -812,21 +801,21 @@ public class DigiscopeServer {
 		}
 
 		model.setChannelCoupling(channelCouplingValue);
-		model.emit("changeChannelCoupling");
+		model.emit(DigiscopeEvent.CHANGE_CHANNEL_COUPLING);
 	}
 
 	// update the configuration on the right panel
 	private void changeVoltagePerDiv(short value) {
 		String voltageValue = getVoltageStringFromMilliVolts(value);
 		model.setVoltsPerDivision(voltageValue);
-		model.emit("voltsPerDivisionChanged");
+		model.emit(DigiscopeEvent.VOLTS_PER_DIVISION_CHANGED);
 	}
 
 	// update the configuration on the right panel
 	private void changeTimePerDiv(short value) {
 		String timePerDivValue = getTimeString(value);
 		model.setTimePerDivision(timePerDivValue);
-		model.emit("timePerDivisionChanged");
+		model.emit(DigiscopeEvent.TIME_PER_DIVISION_CHANGED);
 	}
 
 	private void changeTriggerMode(short value) {
@@ -846,14 +835,14 @@ public class DigiscopeServer {
 		}
 
 		model.setTriggerMode(triggerModeValue);
-		model.emit("changeTriggerMode");
+		model.emit(DigiscopeEvent.CHANGE_TRIGGER_MODE);
 
 	}
 
 
 	private void changeTriggerThreshold(short value) {
 		model.setTriggerThreshold(convertVoltageToString(value));
-		model.emit("triggerThresholdChanged");
+		model.emit(DigiscopeEvent.TRIGGER_THRESHOLD_CHANGED);
 	}
 
 	private void changeFuncGenOutput(short value) {
@@ -870,7 +859,7 @@ public class DigiscopeServer {
 		}
 
 		model.getCurrentFunctionGeneratorConfigurations().setOutputOn(funcGenOutput);
-		model.emit("functionOutputConfigChanged");
+		model.emit(DigiscopeEvent.FUNCTION_OUTPUT_CONFIG_CHANGED);
 
 	}
 
@@ -898,7 +887,7 @@ public class DigiscopeServer {
 
 		model.getCurrentFunctionGeneratorConfigurations().setWaveType(
 				funcGenWaveType);
-		model.emit("funcGenWaveTypeChanged");
+		model.emit(DigiscopeEvent.FUNC_GEN_WAVE_TYPE_CHANGED);
 
 	}
 
@@ -907,25 +896,25 @@ public class DigiscopeServer {
 		double valueInVolts = value/1000.0;
 		model.getCurrentFunctionGeneratorConfigurations().setPeakToPeakVoltage(
 				valueInVolts);
-		model.emit("funcGenP2PVoltageChanged");
+		model.emit(DigiscopeEvent.FUNC_GEN_P2P_VOLTAGE_CHANGED);
 	}
 
 
 	private void changeFuncGenOffset(short value) {
 		double valueInVolts = value/1000.0;
 		model.getCurrentFunctionGeneratorConfigurations().setOffset(valueInVolts);
-		model.emit("funcGenOffsetChanged");
+		model.emit(DigiscopeEvent.FUNC_GEN_OFFSET_CHANGED);
 	}
 
 	private void changeFuncGenFrequency(short value) {
 		model.getCurrentFunctionGeneratorConfigurations().setFrequency(value);
-		model.emit("funcGenFrequencyChanged");
+		model.emit(DigiscopeEvent.FUNC_GEN_FREQUENCY_CHANGED);
 	}
 
 	// the value of the sampling rate will be in khz
 	private void changeSamplingRate(short value) {
 		model.setSamplingRate((int)value*1000);
-		model.emit("samplingRateChanged");
+		model.emit(DigiscopeEvent.SAMPLING_RATE_CHANGED);
 	}
 
 	private void changeDeviceStatus(short value) {
@@ -945,7 +934,7 @@ public class DigiscopeServer {
 		}
 
 		model.setDeviceStatus(deviceStatus);
-		model.emit("deviceStatusChanged");
+		model.emit(DigiscopeEvent.DEVICE_STATUS_CHANGED);
 
 	}
 
@@ -965,7 +954,7 @@ public class DigiscopeServer {
 		}
 
 		model.setTriggerType(triggerTypeValue);
-		model.emit("changeTriggerType");
+		model.emit(DigiscopeEvent.CHANGE_TRIGGER_TYPE);
 
 	}
 
@@ -0,0 +1,385 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand in for the Tiva firmware, for running and profiling the client
+ * without the hardware. It listens for the client over TCP and speaks the
+ * same protocol as the device: commands from the client are 4 bytes (a
+ * big endian command and value), and everything sent back is little endian.
+ *
+ * Configuration commands are stored and echoed back, as the device does when
+ * it applies them. Until the client has sent the number of samples to
+ * acquire (with the rest of its configuration) the trigger stays armed but
+ * silent, as the client cannot read a capture before then. After that, while
+ * the trigger is armed, synthetic captures are streamed at a fixed rate,
+ * each one being a SEND_SAMPLE_START message with the trigger index, the
+ * channel A and B blocks and a SEND_SAMPLE_END footer.
+ * Channel A is the function generator output (sine, square, triangle, ramp
+ * or noise) and channel B is the same wave a quarter of a period later.
+ *
+ * Usage: DigiscopeSimulator [--port 5000] [--rate 20] [--wave Sine]
+ *        [--frequency 1000] [--seed 4810]
+ */
+public class DigiscopeSimulator {
+
+	// The ADC is 12 bit over 3.3V
+	static final double FULL_SCALE_VOLTAGE = 3.3;
+	static final int FULL_SCALE_CODE = 4095;
+
+	// Trigger mode values, as sent by the client
+	static final short TRIGGER_MODE_AUTO = 0x0000;
+	static final short TRIGGER_MODE_NORMAL = 0x0001;
+	static final short TRIGGER_MODE_SINGLE = 0x0002;
+
+	// Device status values, as understood by the client
+	static final short STATUS_ARMED = 0x0000;
+	static final short STATUS_TRIGGERED = 0x0001;
+	static final short STATUS_STOPPED = 0x0002;
+
+	// How often (in captures) the achieved rate is logged
+	static final int LOG_INTERVAL = 100;
+
+	static final String[] WAVE_TYPES = {"Sine", "Square", "Triangle", "Ramp",
+			"Noise"};
+
+	private final int port;
+	private final double triggerRate;
+	private final Random random;
+
+	// Device settings, changed by the client's commands
+	private volatile int numSamples;
+	private volatile int samplingRate = 100000;
+	private volatile short triggerMode = TRIGGER_MODE_AUTO;
+	private volatile int waveType;
+	private volatile double peakToPeakVoltage = 2.0;
+	private volatile double offsetVoltage = 1.65;
+	private volatile double frequency;
+	private volatile boolean funcGenOn = true;
+
+	// Whether the client has sent the number of samples to acquire
+	private volatile boolean configured;
+
+	// Whether a single trigger has fired and needs rearming
+	private volatile boolean stopped;
+
+	private OutputStream output;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> captureTask;
+	private long capturesSent;
+	private long windowStartNanos;
+
+	// Reused between captures
+	private byte[] frame = new byte[0];
+
+	/**
+	 * @param port - The port to listen on
+	 * @param triggerRate - The captures to send per second
+	 * @param waveType - The function generator wave until the client sets it
+	 * @param frequency - The wave frequency in Hz until the client sets it
+	 * @param seed - The seed for the noise
+	 */
+	public DigiscopeSimulator(int port, double triggerRate, String waveType,
+			double frequency, long seed) {
+		this.port = port;
+		this.triggerRate = triggerRate;
+		this.waveType = Math.max(0,
+				Arrays.asList(WAVE_TYPES).indexOf(waveType));
+		this.frequency = frequency;
+		this.random = new Random(seed);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = 5000;
+		double rate = 20;
+		String wave = "Sine";
+		double frequency = 1000;
+		long seed = 4810;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--port":
+				port = Integer.parseInt(args[i + 1]);
+				break;
+			case "--rate":
+				rate = Double.parseDouble(args[i + 1]);
+				break;
+			case "--wave":
+				wave = args[i + 1];
+				break;
+			case "--frequency":
+				frequency = Double.parseDouble(args[i + 1]);
+				break;
+			case "--seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			default:
+				System.out.println("Unknown option " + args[i]);
+			}
+		}
+
+		new DigiscopeSimulator(port, rate, wave, frequency, seed).run();
+	}
+
+	/**
+	 * Serves clients one at a time, until the process is stopped
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		try (ServerSocket serverSocket = new ServerSocket(port)) {
+			System.out.println("Simulator listening on port " + port + " at " +
+					triggerRate + " captures/s");
+
+			while (true) {
+				try (Socket socket = serverSocket.accept()) {
+					System.out.println("Client connected from " +
+							socket.getRemoteSocketAddress());
+					serve(socket);
+				} catch (IOException e) {
+					System.out.println("Client disconnected");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles a connected client: sends the sampling rate and status, starts
+	 * the trigger and applies commands until the client goes away. Captures
+	 * are only sent once the client has configured the number of samples.
+	 * @param socket - The client's socket
+	 * @throws IOException
+	 */
+	private void serve(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		output = socket.getOutputStream();
+		DataInputStream input = new DataInputStream(socket.getInputStream());
+
+		configured = false;
+		stopped = false;
+		capturesSent = 0;
+		windowStartNanos = System.nanoTime();
+
+		send(DigiscopeServer.SAMPLING_RATE_COMMAND, (short) (samplingRate / 1000));
+		send(DigiscopeServer.DEVICE_STATUS, STATUS_ARMED);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		long period = Math.round(1e9 / triggerRate);
+		captureTask = scheduler.scheduleAtFixedRate(this::trigger, period,
+				period, TimeUnit.NANOSECONDS);
+
+		try {
+			// commands from the client are big endian
+			while (true) {
+				short command = input.readShort();
+				short value = input.readShort();
+				processCommand(command, value);
+			}
+		} catch (EOFException e) {
+			System.out.println("Client closed the connection");
+		} finally {
+			captureTask.cancel(false);
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Applies a command from the client
+	 * @param command - The command
+	 * @param value - The value of the command
+	 * @throws IOException
+	 */
+	private void processCommand(short command, short value) throws IOException {
+
+		switch (command) {
+		case DigiscopeServer.NUM_SAMPLES_COMMAND:
+			// sent as an unsigned value, as it can be up to 50000
+			numSamples = value & 0xFFFF;
+			configured = true;
+			break;
+		case DigiscopeServer.TRIGGER_MODE_COMMAND:
+			triggerMode = value;
+			stopped = false;
+			break;
+		case DigiscopeServer.FUNC_GEN_OUTPUT_COMMAND:
+			funcGenOn = value == 0x0000;
+			break;
+		case DigiscopeServer.FUNC_GEN_WAVE_TYPE_COMMAND:
+			waveType = Math.min(Math.max(value, 0), WAVE_TYPES.length - 1);
+			break;
+		case DigiscopeServer.FUNC_GEN_P2P_VOLTAGE_COMMAND:
+			peakToPeakVoltage = value / 1000.0;
+			break;
+		case DigiscopeServer.FUNC_GEN_OFFSET_COMMAND:
+			offsetVoltage = value / 1000.0;
+			break;
+		case DigiscopeServer.FUNC_GEN_FREQUENCY_COMMAND:
+			frequency = value & 0xFFFF;
+			break;
+		case DigiscopeServer.FORCE_TRIGGER_COMMAND:
+			if (configured) {
+				sendCapture();
+			}
+			return;
+		case DigiscopeServer.REARM_TRIGGER_COMMAND:
+			stopped = false;
+			send(DigiscopeServer.DEVICE_STATUS, STATUS_ARMED);
+			return;
+		case DigiscopeServer.TIME_PER_DIVISION_COMMAND:
+		case DigiscopeServer.VOLTAGE_PER_DIVISION_COMMAND:
+		case DigiscopeServer.TRIGGER_THRESHOLD_COMMAND:
+		case DigiscopeServer.TRIGGER_TYPE_COMMAND:
+		case DigiscopeServer.SAMPLING_MODE_COMMAND:
+		case DigiscopeServer.CHANNEL_COUPLING_COMMAND:
+		case DigiscopeServer.CHANNEL_TO_TRIGGER_COMMAND:
+		case DigiscopeServer.CHANNEL_OFFSETS_COMMAND:
+		case DigiscopeServer.BANDPASS_SAMPLING:
+			// only echoed, they do not change the synthetic samples
+			break;
+		default:
+			System.out.println("Unknown command " + Integer.toHexString(command));
+			return;
+		}
+
+		// acknowledge the setting, as the device does
+		send(command, value);
+	}
+
+	/**
+	 * Called at the trigger rate. Sends a capture unless the client has not
+	 * configured the number of samples yet, or a single trigger has already
+	 * fired.
+	 */
+	private void trigger() {
+		if (!configured || stopped) {
+			return;
+		}
+
+		try {
+			sendCapture();
+
+			if (triggerMode == TRIGGER_MODE_SINGLE) {
+				stopped = true;
+				send(DigiscopeServer.DEVICE_STATUS, STATUS_STOPPED);
+			}
+		} catch (IOException e) {
+			// the command thread notices the disconnection
+			captureTask.cancel(false);
+		}
+	}
+
+	/**
+	 * Generates and sends one capture. The wave is started so that it rises
+	 * through its midpoint at the trigger index, in the middle of the record.
+	 * @throws IOException
+	 */
+	private synchronized void sendCapture() throws IOException {
+		int n = numSamples;
+		short triggerIndex = (short) Math.min(n / 2, Short.MAX_VALUE);
+		int frameSize = SampleFrameDecoder.getFrameSize(n);
+
+		if (frame.length < frameSize) {
+			frame = new byte[frameSize];
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+		double samplesPerPeriod = samplingRate / Math.max(frequency, 1e-9);
+
+		// channel A block, then channel B a quarter of a period later
+		for (int i = 0; i < n; i++) {
+			double phase = (i - triggerIndex) / samplesPerPeriod;
+			buffer.putShort(toCode(waveVoltage(phase)));
+		}
+		for (int i = 0; i < n; i++) {
+			double phase = (i - triggerIndex) / samplesPerPeriod - 0.25;
+			buffer.putShort(toCode(waveVoltage(phase)));
+		}
+
+		buffer.putShort(DigiscopeServer.SEND_SAMPLE_END);
+		buffer.putShort((short) 0);
+
+		send(DigiscopeServer.SEND_SAMPLE_START, triggerIndex);
+		output.write(frame, 0, frameSize);
+		output.flush();
+
+		logRate();
+	}
+
+	/**
+	 * Works out the function generator output at a point in its period
+	 * @param phase - The number of periods since the wave rose through its
+	 *                midpoint
+	 * @return the voltage
+	 */
+	private double waveVoltage(double phase) {
+		if (!funcGenOn) {
+			return 0;
+		}
+
+		double fraction = phase - Math.floor(phase);
+		double unit;
+
+		switch (WAVE_TYPES[waveType]) {
+		case "Square":
+			unit = fraction < 0.5 ? 1 : -1;
+			break;
+		case "Triangle":
+			unit = fraction < 0.25 ? 4 * fraction :
+				fraction < 0.75 ? 2 - 4 * fraction : 4 * fraction - 4;
+			break;
+		case "Ramp":
+			unit = fraction < 0.5 ? 2 * fraction : 2 * fraction - 2;
+			break;
+		case "Noise":
+			unit = 2 * random.nextDouble() - 1;
+			break;
+		default:
+			unit = Math.sin(2 * Math.PI * fraction);
+		}
+
+		return offsetVoltage + unit * peakToPeakVoltage / 2;
+	}
+
+	/**
+	 * @return the ADC code for a voltage, clipped to the ADC range
+	 */
+	private static short toCode(double voltage) {
+		long code = Math.round(voltage * FULL_SCALE_CODE / FULL_SCALE_VOLTAGE);
+		return (short) Math.max(0, Math.min(FULL_SCALE_CODE, code));
+	}
+
+	/**
+	 * Sends a 4 byte little endian message to the client
+	 * @throws IOException
+	 */
+	private synchronized void send(short command, short value)
+			throws IOException {
+		ByteBuffer message = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		message.putShort(command);
+		message.putShort(value);
+		output.write(message.array());
+		output.flush();
+	}
+
+	private void logRate() {
+		capturesSent++;
+
+		if (capturesSent % LOG_INTERVAL == 0) {
+			long now = System.nanoTime();
+			System.out.println(String.format("Sent %d captures (%.1f/s)",
+					capturesSent, LOG_INTERVAL * 1e9 / (now - windowStartNanos)));
+			windowStartNanos = now;
+		}
+	}
+
+}
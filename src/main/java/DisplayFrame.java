@@ -0,0 +1,83 @@
+import dsp.MinMaxPyramid;
+
+/**
+ * This class is an immutable snapshot of what the oscilloscope display
+ * should show: the min/max pyramid of each channel to plot, and the
+ * resolution, viewport and trigger point to plot them at. The capture pipeline and the
+ * controller make frames, and the display's render scheduler hands the
+ * latest one to the display to draw.
+ */
+public final class DisplayFrame {
+
+	// One per display layer, in the display's layer order, null for a
+	// channel that is not plotted
+	private final MinMaxPyramid[] pyramids;
+	private final double verticalResolution;
+	private final Viewport viewport;
+	private final short triggerIndex;
+	private final long createdNanos;
+
+	/**
+	 * @param pyramids - The pyramid of each channel to plot, null for a
+	 *                   channel that is not plotted
+	 * @param verticalResolution - The volts per division to plot at
+	 * @param viewport - The part of the records on the display
+	 * @param triggerIndex - The index of the trigger point
+	 */
+	public DisplayFrame(MinMaxPyramid[] pyramids, double verticalResolution,
+			Viewport viewport, short triggerIndex) {
+		this.pyramids = pyramids.clone();
+		this.verticalResolution = verticalResolution;
+		this.viewport = viewport;
+		this.triggerIndex = triggerIndex;
+		this.createdNanos = System.nanoTime();
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	public int getNumLayers() {
+		return pyramids.length;
+	}
+
+	/**
+	 * @param layer - The index of the display layer
+	 * @return the pyramid to plot on the layer, null if the layer's channel
+	 *         is not plotted
+	 */
+	public MinMaxPyramid getPyramid(int layer) {
+		return pyramids[layer];
+	}
+
+	public double getVerticalResolution() {
+		return verticalResolution;
+	}
+
+	public Viewport getViewport() {
+		return viewport;
+	}
+
+	/**
+	 * @return the length of the records in the frame, 0 if no channel is
+	 *         plotted
+	 */
+	public int getNumSamples() {
+		for (MinMaxPyramid pyramid : pyramids) {
+			if (pyramid != null) {
+				return pyramid.getSamples().length;
+			}
+		}
+
+		return 0;
+	}
+
+	public short getTriggerIndex() {
+		return triggerIndex;
+	}
+
+	public long getCreatedNanos() {
+		return createdNanos;
+	}
+
+}
@@ -0,0 +1,193 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * This class merges events that are emitted faster than the user interface
+ * can show them. A coalesced listener is invoked on the Swing event dispatch
+ * thread at most once per frame interval (1 / the maximum refresh rate),
+ * with the latest payload emitted since it was last invoked; earlier ones
+ * are dropped. Listeners are invoked in the order their first pending event
+ * was emitted.
+ */
+public class EventCoalescer {
+
+	static final int DEFAULT_MAX_REFRESH_RATE = 60;
+
+	// Listeners with an event waiting, oldest first
+	private final ConcurrentLinkedQueue<Slot> pending =
+			new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	// Per event type, indexed by ordinal
+	private final AtomicLongArray emitted = new AtomicLongArray(
+			DigiscopeEvent.values().length);
+	private final AtomicLongArray delivered = new AtomicLongArray(
+			DigiscopeEvent.values().length);
+
+	private volatile long frameIntervalNanos;
+	private volatile long lastFlushNanos;
+
+	/**
+	 * @param maxRefreshRate - The most times per second a listener is invoked
+	 */
+	public EventCoalescer(int maxRefreshRate) {
+		setMaxRefreshRate(maxRefreshRate);
+	}
+
+	/**
+	 * @param maxRefreshRate - The most times per second a listener is invoked
+	 */
+	public void setMaxRefreshRate(int maxRefreshRate) {
+		if (maxRefreshRate <= 0) {
+			throw new IllegalArgumentException(
+					"The maximum refresh rate must be positive");
+		}
+		this.frameIntervalNanos = 1000000000L / maxRefreshRate;
+	}
+
+	public int getMaxRefreshRate() {
+		return (int) (1000000000L / frameIntervalNanos);
+	}
+
+	/**
+	 * Creates the slot a listener's latest pending event is kept in
+	 * @param eventType - The event the listener listens to
+	 * @param listener - The listener
+	 * @return the slot to offer events to
+	 */
+	Slot createSlot(DigiscopeEvent eventType, EventEmitter.Listener listener) {
+		return new Slot(eventType, listener);
+	}
+
+	/*************************************************
+	 * Counters
+	 *************************************************/
+
+	/**
+	 * @return how many events have been offered to coalesced listeners
+	 */
+	public long getEmittedCount() {
+		return sum(emitted);
+	}
+
+	/**
+	 * @return how many times coalesced listeners have been invoked
+	 */
+	public long getDeliveredCount() {
+		return sum(delivered);
+	}
+
+	public long getEmittedCount(DigiscopeEvent eventType) {
+		return emitted.get(eventType.ordinal());
+	}
+
+	public long getDeliveredCount(DigiscopeEvent eventType) {
+		return delivered.get(eventType.ordinal());
+	}
+
+	/**
+	 * @return the emitted and delivered counts of each event that has been
+	 *         emitted
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("Event coalescing (" +
+				getMaxRefreshRate() + "Hz): " + getEmittedCount() +
+				" emitted, " + getDeliveredCount() + " delivered");
+
+		for (DigiscopeEvent eventType : DigiscopeEvent.values()) {
+			if (getEmittedCount(eventType) > 0) {
+				builder.append("\n  ").append(eventType).append(": ")
+						.append(getEmittedCount(eventType)).append(" / ")
+						.append(getDeliveredCount(eventType));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * Flushes on the event dispatch thread at the start of the next frame
+	 * interval, unless a flush is already on its way
+	 */
+	private void scheduleFlush() {
+		if (!flushScheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		long delayNanos = lastFlushNanos + frameIntervalNanos -
+				System.nanoTime();
+
+		if (delayNanos <= 0) {
+			SwingUtilities.invokeLater(this::flush);
+		} else {
+			Timer timer = new Timer((int) (delayNanos / 1000000),
+					event -> flush());
+			timer.setRepeats(false);
+			timer.start();
+		}
+	}
+
+	/**
+	 * Invokes every listener with an event pending, with its latest event
+	 */
+	private void flush() {
+		// events emitted from here on need another flush
+		flushScheduled.set(false);
+		lastFlushNanos = System.nanoTime();
+
+		Slot slot;
+		while ((slot = pending.poll()) != null) {
+			Payload payload = slot.latest.getAndSet(null);
+			if (payload != null && slot.listener.isActive()) {
+				slot.listener.deliver(payload);
+				delivered.incrementAndGet(slot.eventType.ordinal());
+			}
+		}
+	}
+
+	private static long sum(AtomicLongArray counts) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * The latest event not yet delivered to one listener
+	 */
+	final class Slot {
+		private final DigiscopeEvent eventType;
+		private final EventEmitter.Listener listener;
+		private final AtomicReference<Payload> latest =
+				new AtomicReference<>();
+
+		private Slot(DigiscopeEvent eventType, EventEmitter.Listener listener) {
+			this.eventType = eventType;
+			this.listener = listener;
+		}
+
+		/**
+		 * Replaces the pending event, queueing the listener if it had none
+		 */
+		void offer(Payload payload) {
+			emitted.incrementAndGet(eventType.ordinal());
+
+			if (latest.getAndSet(payload) == null) {
+				pending.add(this);
+				scheduleFlush();
+			}
+		}
+	}
+
+}
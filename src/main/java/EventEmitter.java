@@ -1,9 +1,11 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
+import javax.swing.SwingUtilities;
+
 
 /**
  * This class was adapted from CSEE3002 team project (Semester 1, 2015)
@@ -15,64 +17,247 @@ import java.util.function.Consumer;
  * An EventEmitter is responsible for managing a set of listeners and publishing
  * events to those listeners when it is informed that the particular event
  * has occurred. The publication works in a simple multicast fashion.
+ *
+ * Each event's listeners are kept in an array that is copied whenever a
+ * listener is added or removed, so emitting an event is a read of one array
+ * and does not lock or allocate. Each listener picks how it is called when
+ * it is added (see Dispatch), so a listener that updates Swing components
+ * can be called on the event dispatch thread whichever thread emits.
  */
 public class EventEmitter {
-	private Map<String, List<Consumer<Payload>>> _listeners = new HashMap<>();
+
+	/**
+	 * How a listener is called when its event is emitted
+	 */
+	public enum Dispatch {
+		// On the emitting thread, before emit returns
+		SYNC,
+		// On the Swing event dispatch thread; straight away if that is the
+		// emitting thread
+		EDT,
+		// On the emitter's background event thread, in the order emitted
+		EXECUTOR,
+		// On the Swing event dispatch thread, at most once per frame
+		// interval, with only the latest event since the last time
+		COALESCED
+	}
+
+	private static final Listener[] NO_LISTENERS = new Listener[0];
+
+	// The listeners of each event, indexed by the event's ordinal. Replaced
+	// rather than changed, under the emitter's lock.
+	private volatile Listener[][] _listeners =
+			new Listener[DigiscopeEvent.values().length][];
+
+	// Created the first time a listener asks for executor dispatch
+	private ExecutorService eventExecutor;
+
+	// Created the first time a listener asks for coalesced dispatch
+	private EventCoalescer eventCoalescer;
+
+	public EventEmitter() {
+		Arrays.fill(_listeners, NO_LISTENERS);
+	}
+
+	/**
+	 * Adds a new listener to be invoked, on the emitting thread, whenever an
+	 * event of the specified type is emitted.
+	 * @param eventType - The event to listen to
+	 * @param listener - Function to invoke when the eventType is emitted.
+	 */
+	public ListenerSubscription addListener(DigiscopeEvent eventType,
+			Consumer<Payload> listener) {
+		return addListener(eventType, Dispatch.SYNC, listener);
+	}
 
 	/**
 	 * Adds a new listener to be invoked whenever an event of the specified
-	 * is emitted.
-	 * @param eventType - The name of the event to listen to
+	 * type is emitted.
+	 * @param eventType - The event to listen to
+	 * @param dispatch - Which thread the listener is invoked on
 	 * @param listener - Function to invoke when the eventType is emitted.
 	 */
-	public ListenerSubscription addListener(String eventType, 
+	public ListenerSubscription addListener(DigiscopeEvent eventType,
+			Dispatch dispatch, Consumer<Payload> listener) {
+		if (dispatch == Dispatch.COALESCED) {
+			return addCoalescedListener(eventType, listener);
+		}
+
+		Executor executor;
+
+		switch (dispatch) {
+		case EDT:
+			executor = EventEmitter::runOnEventDispatchThread;
+			break;
+		case EXECUTOR:
+			executor = getEventExecutor();
+			break;
+		default:
+			executor = null;
+		}
+
+		return addListener(eventType, executor, listener);
+	}
+
+	/**
+	 * Adds a new listener to be invoked through the given executor whenever
+	 * an event of the specified type is emitted.
+	 * @param eventType - The event to listen to
+	 * @param executor - Runs the listener, or null to run it on the emitting
+	 *                   thread
+	 * @param listener - Function to invoke when the eventType is emitted.
+	 */
+	public synchronized ListenerSubscription addListener(
+			DigiscopeEvent eventType, Executor executor,
 			Consumer<Payload> listener) {
-		if (_listeners.get(eventType) == null) {
-			_listeners.put(eventType, new ArrayList<>());
+		return add(new Listener(eventType, executor, listener));
+	}
+
+	/**
+	 * @return the coalescer that coalesced listeners are dispatched through,
+	 *         so its refresh rate can be set and its counters read
+	 */
+	public synchronized EventCoalescer getEventCoalescer() {
+		if (eventCoalescer == null) {
+			eventCoalescer = new EventCoalescer(Integer.getInteger(
+					"digiscope.maxUiRefreshRate",
+					EventCoalescer.DEFAULT_MAX_REFRESH_RATE));
 		}
+		return eventCoalescer;
+	}
+
+	/**
+	 * Emits an event of the given type, with no data. All registered
+	 * handlers for that type will be invoked.
+	 * @param eventType - The event to emit
+	 */
+	public void emit(DigiscopeEvent eventType) {
+		emit(Payload.of(eventType));
+	}
 
-		int key = _listeners.get(eventType).size();
-		_listeners.get(eventType).add(listener);
+	/**
+	 * Emits an event of the given type, carrying a value for the listeners.
+	 * @param eventType - The event to emit
+	 * @param value - The value, which listeners should treat as read only
+	 */
+	public void emit(DigiscopeEvent eventType, Object value) {
+		emit(new Payload(eventType, value));
+	}
 
-		return new ListenerSubscription(this, eventType, key);
+	/**
+	 * Emits an already built payload, shared by every listener
+	 * @param payload - The event and its value
+	 */
+	public void emit(Payload payload) {
+		for (Listener listener : _listeners[payload.getEventType().ordinal()]) {
+			listener.dispatch(payload);
+		}
 	}
 
 	/**
-	 * Emits an event of the given type. All registered handlers for that type
-	 * will be invoked.
-	 * @param eventType - The name of the event to emit
+	 * Removes a listener, so it is not invoked again, even for an event
+	 * emitted before it was removed but not yet delivered.
 	 */
-	public void emit(String eventType) {
+	synchronized void removeListener(Listener removed) {
+		removed.active = false;
+
+		Listener[][] listeners = _listeners.clone();
+		Listener[] current = listeners[removed.eventType.ordinal()];
 
-		List<Consumer<Payload>> listeners = _listeners.get(eventType);
-		if (listeners == null) {
-			return;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == removed) {
+				Listener[] updated = new Listener[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i,
+						updated.length - i);
+				listeners[removed.eventType.ordinal()] = updated;
+				_listeners = listeners;
+				return;
+			}
 		}
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
 
-		listeners.stream().filter(listener -> listener != null).forEach(
-				listener -> listener.accept(new Payload()));
+	private synchronized ListenerSubscription addCoalescedListener(
+			DigiscopeEvent eventType, Consumer<Payload> listener) {
+		Listener added = new Listener(eventType, null, listener);
+		added.slot = getEventCoalescer().createSlot(eventType, added);
+		return add(added);
 	}
 
-}
+	private synchronized ListenerSubscription add(Listener added) {
+		Listener[][] listeners = _listeners.clone();
+		Listener[] current = listeners[added.eventType.ordinal()];
+		Listener[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = added;
+		listeners[added.eventType.ordinal()] = updated;
+		_listeners = listeners;
 
-/**
- * Event payload
- */
-class Payload {}
+		return new ListenerSubscription(this, added);
+	}
 
-/**
- * A subscription token for identifying a particular listener subscription.
- */
-class ListenerSubscription {
-	private EventEmitter emitter;
-	private String eventType;
-	private int key;
-
-	public ListenerSubscription(EventEmitter emitter, String eventType, 
-			int key) {
-		this.emitter = emitter;
-		this.eventType = eventType;
-		this.key = key;
+	private static void runOnEventDispatchThread(Runnable task) {
+		if (SwingUtilities.isEventDispatchThread()) {
+			task.run();
+		} else {
+			SwingUtilities.invokeLater(task);
+		}
+	}
+
+	private synchronized ExecutorService getEventExecutor() {
+		if (eventExecutor == null) {
+			eventExecutor = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, "Event dispatch");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return eventExecutor;
+	}
+
+	/**
+	 * A registered listener and how it is dispatched to
+	 */
+	static final class Listener {
+		private final DigiscopeEvent eventType;
+		private final Executor executor;
+		private final Consumer<Payload> consumer;
+		private volatile boolean active = true;
+
+		// Set for coalesced listeners
+		private EventCoalescer.Slot slot;
+
+		Listener(DigiscopeEvent eventType, Executor executor,
+				Consumer<Payload> consumer) {
+			this.eventType = eventType;
+			this.executor = executor;
+			this.consumer = consumer;
+		}
+
+		void dispatch(Payload payload) {
+			if (slot != null) {
+				slot.offer(payload);
+			} else if (executor == null) {
+				consumer.accept(payload);
+			} else {
+				executor.execute(() -> {
+					if (active) {
+						consumer.accept(payload);
+					}
+				});
+			}
+		}
+
+		boolean isActive() {
+			return active;
+		}
+
+		void deliver(Payload payload) {
+			consumer.accept(payload);
+		}
 	}
 
 }
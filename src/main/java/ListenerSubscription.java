@@ -0,0 +1,22 @@
+/**
+ * A subscription token for identifying a particular listener subscription.
+ */
+class ListenerSubscription {
+	private final EventEmitter emitter;
+	private final EventEmitter.Listener listener;
+
+	public ListenerSubscription(EventEmitter emitter,
+			EventEmitter.Listener listener) {
+		this.emitter = emitter;
+		this.listener = listener;
+	}
+
+	/**
+	 * Removes the listener from the emitter. Calling this more than once
+	 * does nothing.
+	 */
+	public void unsubscribe() {
+		emitter.removeListener(listener);
+	}
+
+}
@@ -9,6 +9,9 @@ public class MathChannel extends OscilloscopeChannel {
 
     String equation;
 
+    // The equation compiled once when it is set
+    private MathExpression expression;
+
     public MathChannel() {
         // Math Channel has yellow graph line color
         int[] graphLineColor = {255,255,0};
@@ -22,14 +25,24 @@ public class MathChannel extends OscilloscopeChannel {
      *  Getter/ Setter methods
      *************************************************/
 
-    public void setEquation(String equation) {
+    /**
+     * Sets the equation along with its compiled form
+     * @param equation - The equation as entered by the user
+     * @param expression - The equation compiled by MathExpression.compile
+     */
+    public void setEquation(String equation, MathExpression expression) {
         this.equation = equation;
+        this.expression = expression;
     }
 
     public String getEquation() {
         return equation;
     }
 
+    public MathExpression getExpression() {
+        return expression;
+    }
+
 
 
 }
@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A math channel equation compiled into a tree of nodes. The equation is
+ * parsed once when it is set, with A, B and F as variable slots, so the
+ * math channel can be evaluated over the channel sample arrays without any
+ * string handling or allocation per sample.
+ *
+ * The grammar follows the javaluator DoubleEvaluator that was previously used
+ * for every sample, for the characters the controller allows:
+ * + and - (lowest precedence), * and /, unary minus, then ^ (left
+ * associative, binding tighter than unary minus, so -2^2 is -4). The
+ * constants pi and e are supported. A, B and F are treated as single values,
+ * so A^2 is the square of A even when A is negative.
+ */
+public class MathExpression {
+
+	/**
+	 * A node in the compiled expression tree.
+	 */
+	private interface Node {
+		double evaluate(double a, double b, double f);
+	}
+
+	private final Node root;
+	private final boolean usesFilterChannel;
+	private final boolean usesPhysicalChannel;
+
+	private MathExpression(Node root, boolean usesFilterChannel,
+			boolean usesPhysicalChannel) {
+		this.root = root;
+		this.usesFilterChannel = usesFilterChannel;
+		this.usesPhysicalChannel = usesPhysicalChannel;
+	}
+
+	/**
+	 * Parses an equation into a compiled expression.
+	 * @param equation - The equation as typed by the user
+	 * @return the compiled expression
+	 * @throws IllegalArgumentException if the equation is not valid
+	 */
+	public static MathExpression compile(String equation) {
+		Parser parser = new Parser(tokenize(equation));
+		Node root = parser.parseExpression();
+
+		if (!parser.atEnd()) {
+			throw new IllegalArgumentException("Unexpected " + parser.peek() +
+					" in " + equation);
+		}
+
+		return new MathExpression(root, parser.usesFilterChannel,
+				parser.usesPhysicalChannel);
+	}
+
+	/**
+	 * Evaluates the expression for a single set of channel values.
+	 * @param a - The channel A value
+	 * @param b - The channel B value
+	 * @param f - The filter channel value
+	 * @return the math channel value
+	 */
+	public double evaluate(double a, double b, double f) {
+		return root.evaluate(a, b, f);
+	}
+
+	/**
+	 * Evaluates the expression over whole channels in a single pass.
+	 * @param a - The channel A samples
+	 * @param b - The channel B samples
+	 * @param f - The filter channel samples, or null if the expression does
+	 *            not use the filter channel
+	 * @param out - Where to write the math channel samples
+	 * @param size - The number of samples to evaluate
+	 */
+	public void evaluate(double[] a, double[] b, double[] f, double[] out,
+			int size) {
+		evaluate(a, b, f, out, 0, size);
+	}
+
+	/**
+	 * Evaluates the expression over part of the channels. The compiled tree
+	 * holds no state, so separate parts can be evaluated on separate threads.
+	 * @param a - The channel A samples
+	 * @param b - The channel B samples
+	 * @param f - The filter channel samples, or null if the expression does
+	 *            not use the filter channel
+	 * @param out - Where to write the math channel samples
+	 * @param from - The first sample to evaluate
+	 * @param to - One past the last sample to evaluate
+	 */
+	public void evaluate(double[] a, double[] b, double[] f, double[] out,
+			int from, int to) {
+		if (f == null) {
+			for (int i = from; i < to; i++) {
+				out[i] = root.evaluate(a[i], b[i], 0);
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				out[i] = root.evaluate(a[i], b[i], f[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return whether the expression depends on the filter channel (F)
+	 */
+	public boolean usesFilterChannel() {
+		return usesFilterChannel;
+	}
+
+	/**
+	 * @return whether the expression depends on channel A or channel B
+	 */
+	public boolean usesPhysicalChannel() {
+		return usesPhysicalChannel;
+	}
+
+	/*************************************************
+	 * Parsing
+	 *************************************************/
+
+	/**
+	 * Splits an equation into tokens. Like javaluator, anything between the
+	 * operators, brackets and whitespace is a single token, so "2A" is
+	 * rejected rather than read as a product.
+	 */
+	private static List<String> tokenize(String equation) {
+		List<String> tokens = new ArrayList<>();
+		int i = 0;
+
+		while (i < equation.length()) {
+			char c = equation.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (isDelimiter(c)) {
+				tokens.add(String.valueOf(c));
+				i++;
+			} else {
+				int start = i;
+				while (i < equation.length() && !isDelimiter(equation.charAt(i))
+						&& !Character.isWhitespace(equation.charAt(i))) {
+					i++;
+				}
+				tokens.add(equation.substring(start, i));
+			}
+		}
+
+		return tokens;
+	}
+
+	private static boolean isDelimiter(char c) {
+		return "+-*/^(),".indexOf(c) != -1;
+	}
+
+	/**
+	 * Recursive descent parser, one method per precedence level.
+	 */
+	private static class Parser {
+		private final List<String> tokens;
+		private int position;
+		private boolean usesFilterChannel;
+		private boolean usesPhysicalChannel;
+
+		Parser(List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		boolean atEnd() {
+			return position == tokens.size();
+		}
+
+		String peek() {
+			return atEnd() ? "end of equation" : tokens.get(position);
+		}
+
+		private boolean accept(String token) {
+			if (!atEnd() && tokens.get(position).equals(token)) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		// expression := term (('+' | '-') term)*
+		Node parseExpression() {
+			Node left = parseTerm();
+
+			while (true) {
+				if (accept("+")) {
+					left = fold(new Add(left, parseTerm()));
+				} else if (accept("-")) {
+					left = fold(new Subtract(left, parseTerm()));
+				} else {
+					return left;
+				}
+			}
+		}
+
+		// term := unary (('*' | '/') unary)*
+		private Node parseTerm() {
+			Node left = parseUnary();
+
+			while (true) {
+				if (accept("*")) {
+					left = fold(new Multiply(left, parseUnary()));
+				} else if (accept("/")) {
+					left = fold(new Divide(left, parseUnary()));
+				} else {
+					return left;
+				}
+			}
+		}
+
+		// unary := '-' unary | power
+		private Node parseUnary() {
+			if (accept("-")) {
+				return fold(new Negate(parseUnary()));
+			}
+			return parsePower();
+		}
+
+		// power := primary ('^' primary)*
+		private Node parsePower() {
+			Node left = parsePrimary();
+
+			while (accept("^")) {
+				left = fold(new Power(left, parsePrimary()));
+			}
+
+			return left;
+		}
+
+		// primary := number | constant | variable | '(' expression ')'
+		private Node parsePrimary() {
+			if (atEnd()) {
+				throw new IllegalArgumentException("Unexpected end of equation");
+			}
+
+			if (accept("(")) {
+				Node inner = parseExpression();
+				if (!accept(")")) {
+					throw new IllegalArgumentException("Parentheses mismatched");
+				}
+				return inner;
+			}
+
+			String token = tokens.get(position++);
+
+			switch (token) {
+			case "A":
+				usesPhysicalChannel = true;
+				return (a, b, f) -> a;
+			case "B":
+				usesPhysicalChannel = true;
+				return (a, b, f) -> b;
+			case "F":
+				usesFilterChannel = true;
+				return (a, b, f) -> f;
+			case "pi":
+				return new Constant(Math.PI);
+			case "e":
+				return new Constant(Math.E);
+			}
+
+			if (!token.matches("[0-9]*\\.?[0-9]*") || token.equals(".")) {
+				throw new IllegalArgumentException(token + " is not a number");
+			}
+
+			return new Constant(Double.parseDouble(token));
+		}
+
+		/**
+		 * Replaces a node whose operands are all constant by its value.
+		 */
+		private Node fold(Node node) {
+			if (node instanceof Operator && ((Operator) node).isConstant()) {
+				return new Constant(node.evaluate(0, 0, 0));
+			}
+			return node;
+		}
+	}
+
+	/*************************************************
+	 * Node types
+	 *************************************************/
+
+	private static final class Constant implements Node {
+		private final double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return value;
+		}
+	}
+
+	private abstract static class Operator implements Node {
+		final Node left;
+		final Node right;
+
+		Operator(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		boolean isConstant() {
+			return left instanceof Constant &&
+					(right == null || right instanceof Constant);
+		}
+	}
+
+	private static final class Add extends Operator {
+		Add(Node left, Node right) {
+			super(left, right);
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return left.evaluate(a, b, f) + right.evaluate(a, b, f);
+		}
+	}
+
+	private static final class Subtract extends Operator {
+		Subtract(Node left, Node right) {
+			super(left, right);
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return left.evaluate(a, b, f) - right.evaluate(a, b, f);
+		}
+	}
+
+	private static final class Multiply extends Operator {
+		Multiply(Node left, Node right) {
+			super(left, right);
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return left.evaluate(a, b, f) * right.evaluate(a, b, f);
+		}
+	}
+
+	private static final class Divide extends Operator {
+		Divide(Node left, Node right) {
+			super(left, right);
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return left.evaluate(a, b, f) / right.evaluate(a, b, f);
+		}
+	}
+
+	private static final class Power extends Operator {
+		Power(Node left, Node right) {
+			super(left, right);
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return Math.pow(left.evaluate(a, b, f), right.evaluate(a, b, f));
+		}
+	}
+
+	private static final class Negate extends Operator {
+		Negate(Node operand) {
+			super(operand, null);
+		}
+
+		public double evaluate(double a, double b, double f) {
+			return -left.evaluate(a, b, f);
+		}
+	}
+
+}
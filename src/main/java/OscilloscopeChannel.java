@@ -1,5 +1,6 @@
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-
+import dsp.FftPlanCache;
+import dsp.MeasurementAccumulator;
+import dsp.MinMaxPyramid;
 import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 
 /**
@@ -12,20 +13,25 @@ import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 public abstract class OscilloscopeChannel {
 
 	// Private instance variables
-	private double minVoltage;
-	private double maxVoltage;
-	private double maxP2Pvoltage;
-	private double averageVoltage;
-	private double standardVoltageDeviation;
-	private double frequency;
 	private int[] graphLineColor;
 	private double[] channelSamples;
 	private boolean availableForPlotting;
 	private double[] visibleChannelSamples;
-	private boolean verticallyOffTheScreen;
+	private int visibleFrom;
+	private int visibleTo;
+
+	// Set on the pipeline's measurement stage and the display's animation
+	// thread, read on the Swing thread, so only ever replaced whole
+	private volatile ChannelMeasurements measurements =
+			ChannelMeasurements.NONE;
+
+	// Reused between captures by the frequency calculation
+	private double[] fftScratch;
+
+	// Built for the display when first needed after each capture
+	private MinMaxPyramid samplePyramid;
 
 	public OscilloscopeChannel() {
-		this.verticallyOffTheScreen = false;
 	}
 
 
@@ -33,41 +39,60 @@ public abstract class OscilloscopeChannel {
 	 * Getter methods
 	 *************************************************/
 
+	/**
+	 * @return the latest measurements, all from the same samples
+	 */
+	public ChannelMeasurements getMeasurements() {
+		return measurements;
+	}
+
 	public double getMinVoltage() {
-		return minVoltage;
+		return measurements.getMinVoltage();
 	}
 
 	public double getMaxVoltage() {
-		return maxVoltage;
+		return measurements.getMaxVoltage();
 	}
 
 	public double getMaxP2Pvoltage() {
-		return maxP2Pvoltage;
+		return measurements.getMaxP2Pvoltage();
 	}
 
 	public double getAverageVoltage() {
-		return averageVoltage;
+		return measurements.getAverageVoltage();
 	}
 
 	public double getFrequency() {
-		return frequency;
+		return measurements.getFrequency();
 	}
 
 	public double[] getChannelSamples() {
 		return channelSamples;
 	}
 	
-	public double[] getVisibleChannelSamples() {
+	/**
+	 * @return the samples being displayed, of which only the window from
+	 * 		   getVisibleFrom() to getVisibleTo() is visible
+	 */
+	public synchronized double[] getVisibleChannelSamples() {
 		return visibleChannelSamples;
 	}
 
+	public synchronized int getVisibleFrom() {
+		return visibleFrom;
+	}
+
+	public synchronized int getVisibleTo() {
+		return visibleTo;
+	}
+
 	public boolean getVerticallyOffTheScreen() {
-		return verticallyOffTheScreen;
+		return measurements.getVerticallyOffTheScreen();
 	}
 
 
 	public double getStandardVoltageDeviation() {
-		return standardVoltageDeviation;
+		return measurements.getStandardVoltageDeviation();
 	}
 
 	public boolean getAvailableForPlotting() {
@@ -76,6 +101,18 @@ public abstract class OscilloscopeChannel {
 
 	public int[] getGraphLineColor() { return graphLineColor; }
 
+	/**
+	 * Gets the min/max pyramid of the channel samples, building it the first
+	 * time it is needed after the samples are set. Zoom changes reuse it.
+	 * @return the min/max pyramid of the channel samples
+	 */
+	public synchronized MinMaxPyramid getSamplePyramid() {
+		if (samplePyramid == null) {
+			samplePyramid = new MinMaxPyramid(channelSamples);
+		}
+		return samplePyramid;
+	}
+
 	/*************************************************
 	 * Setter methods methods
 	 *************************************************/
@@ -85,46 +122,77 @@ public abstract class OscilloscopeChannel {
 	}
 
 
-	public void setVerticallyOffTheScreen(boolean verticallyOffTheScreen) {
-		this.verticallyOffTheScreen = verticallyOffTheScreen;
+	public synchronized void setVerticallyOffTheScreen(
+			boolean verticallyOffTheScreen) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(m.getMinVoltage(),
+				m.getMaxVoltage(), m.getMaxP2Pvoltage(), m.getAverageVoltage(),
+				m.getStandardVoltageDeviation(), m.getFrequency(),
+				verticallyOffTheScreen);
 	}
 
         
 	public void setChannelSamples(double[] channelSamples, int samplingRate) {
-		this.channelSamples = channelSamples;
+		synchronized (this) {
+			this.channelSamples = channelSamples;
+			this.samplePyramid = null;
+		}
 
-		DescriptiveStatistics ds = new DescriptiveStatistics(channelSamples);
-		this.minVoltage = ds.getMin();
-		this.maxVoltage = ds.getMax();
-		this.maxP2Pvoltage = maxVoltage - minVoltage;
-		this.averageVoltage = ds.getMean();
-		this.standardVoltageDeviation = ds.getStandardDeviation();
-		this.frequency = calculateFrequency(channelSamples, samplingRate);
+		MeasurementAccumulator accumulator = new MeasurementAccumulator();
+		accumulator.accept(channelSamples, 0, channelSamples.length);
+		double frequency = calculateFrequency(channelSamples, samplingRate);
 
+		synchronized (this) {
+			measurements = ChannelMeasurements.of(accumulator, frequency,
+					measurements.getVerticallyOffTheScreen());
+		}
 	}
 
-	public void setMinVoltage(double minVoltage) {
-		this.minVoltage = minVoltage;
+	public synchronized void setMinVoltage(double minVoltage) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(minVoltage, m.getMaxVoltage(),
+				m.getMaxP2Pvoltage(), m.getAverageVoltage(),
+				m.getStandardVoltageDeviation(), m.getFrequency(),
+				m.getVerticallyOffTheScreen());
 	}
 
-	public void setMaxVoltage(double maxVoltage) {
-		this.maxVoltage = maxVoltage;
+	public synchronized void setMaxVoltage(double maxVoltage) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(m.getMinVoltage(), maxVoltage,
+				m.getMaxP2Pvoltage(), m.getAverageVoltage(),
+				m.getStandardVoltageDeviation(), m.getFrequency(),
+				m.getVerticallyOffTheScreen());
 	}
 
-	public void setMaxP2Pvoltage(double maxP2Pvoltage) {
-		this.maxP2Pvoltage = maxP2Pvoltage;
+	public synchronized void setMaxP2Pvoltage(double maxP2Pvoltage) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(m.getMinVoltage(),
+				m.getMaxVoltage(), maxP2Pvoltage, m.getAverageVoltage(),
+				m.getStandardVoltageDeviation(), m.getFrequency(),
+				m.getVerticallyOffTheScreen());
 	}
 
-	public void setStandardVoltageDeviation(double stdDev) {
-		this.standardVoltageDeviation = stdDev;
+	public synchronized void setStandardVoltageDeviation(double stdDev) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(m.getMinVoltage(),
+				m.getMaxVoltage(), m.getMaxP2Pvoltage(), m.getAverageVoltage(),
+				stdDev, m.getFrequency(), m.getVerticallyOffTheScreen());
 	}
 
-	public void setAverageVoltage(double averageVoltage) {
-		this.averageVoltage = averageVoltage;
+	public synchronized void setAverageVoltage(double averageVoltage) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(m.getMinVoltage(),
+				m.getMaxVoltage(), m.getMaxP2Pvoltage(), averageVoltage,
+				m.getStandardVoltageDeviation(), m.getFrequency(),
+				m.getVerticallyOffTheScreen());
 	}
 
-	public void setFrequency(double frequency) {
-		this.frequency = frequency;
+	public synchronized void setFrequency(double frequency) {
+		ChannelMeasurements m = measurements;
+		measurements = new ChannelMeasurements(m.getMinVoltage(),
+				m.getMaxVoltage(), m.getMaxP2Pvoltage(), m.getAverageVoltage(),
+				m.getStandardVoltageDeviation(), frequency,
+				m.getVerticallyOffTheScreen());
 	}
 
 	public void setGraphLineColor(int[] graphLineColor) {
@@ -133,73 +201,140 @@ public abstract class OscilloscopeChannel {
 	
 	public void setVisibleChannelSamples(double[] visibleChannelSamples,
 										 int samplingRate) {
-		this.visibleChannelSamples = visibleChannelSamples;
-		
-		if (visibleChannelSamples.length == 0) {
-			this.minVoltage = Double.NEGATIVE_INFINITY;
-			this.maxVoltage = Double.NEGATIVE_INFINITY;
-			this.maxP2Pvoltage = Double.NEGATIVE_INFINITY;
-			this.averageVoltage = Double.NEGATIVE_INFINITY;
-			this.standardVoltageDeviation = Double.NEGATIVE_INFINITY;
-		} else {
-			DescriptiveStatistics ds = new DescriptiveStatistics(
-					visibleChannelSamples);
-			this.minVoltage = ds.getMin();
-			this.maxVoltage = ds.getMax();
-			this.maxP2Pvoltage = maxVoltage - minVoltage;
-			this.averageVoltage = ds.getMean();
-			this.standardVoltageDeviation = ds.getStandardDeviation();
+		setVisibleChannelSamples(visibleChannelSamples, 0,
+				visibleChannelSamples.length, samplingRate);
+	}
+
+	/**
+	 * Recalculates the measurements over the part of the samples that is
+	 * visible on the display, without copying it out of the array.
+	 * @param samples - The samples being displayed
+	 * @param from - The first visible index
+	 * @param to - One past the last visible index
+	 * @param samplingRate - The sampling rate of the samples
+	 */
+	public void setVisibleChannelSamples(double[] samples, int from, int to,
+										 int samplingRate) {
+		MeasurementAccumulator accumulator = new MeasurementAccumulator();
+		accumulator.accept(samples, from, to);
+
+		synchronized (this) {
+			setVisibleWindow(samples, from, to);
+			measurements = ChannelMeasurements.of(accumulator,
+					measurements.getFrequency(),
+					measurements.getVerticallyOffTheScreen());
 		}
+	}
 
+	/**
+	 * Recalculates the measurements over the part of the samples that is
+	 * visible on the display, leaving out samples that are vertically off
+	 * the screen. The channel is flagged as vertically off the screen if
+	 * any sample in the window is outside the voltage range.
+	 * @param samples - The samples being displayed
+	 * @param from - The first visible index
+	 * @param to - One past the last visible index
+	 * @param lowerVoltage - The voltage at the bottom of the screen
+	 * @param upperVoltage - The voltage at the top of the screen
+	 * @param samplingRate - The sampling rate of the samples
+	 */
+	public void setVisibleChannelSamples(double[] samples, int from, int to,
+										 double lowerVoltage,
+										 double upperVoltage,
+										 int samplingRate) {
+		MeasurementAccumulator accumulator = new MeasurementAccumulator();
+		accumulator.acceptWithin(samples, from, to, lowerVoltage,
+				upperVoltage);
+
+		synchronized (this) {
+			setVisibleWindow(samples, from, to);
+			measurements = ChannelMeasurements.of(accumulator,
+					measurements.getFrequency(),
+					accumulator.getRejectedCount() > 0);
+		}
 	}
 	
 	/*************************************************
 	 * Private helper methods
 	 *************************************************/
-	
+
+	private void setVisibleWindow(double[] samples, int from, int to) {
+		this.visibleChannelSamples = samples;
+		this.visibleFrom = from;
+		this.visibleTo = to;
+	}
+
 	/**
-	 * This method calculates the frequency of the samples.
+	 * This method calculates the frequency of the samples, from the largest
+	 * peak in the spectrum. The samples are real, so a real FFT is used and
+	 * only the first half of the spectrum is searched; the second half is its
+	 * mirror image.
 	 * @param channelSamples - The samples to perform the freq calculation on
 	 * @param samplingRate - The sample rate which is necessary for the calculation
 	 * @return the calculated frequency
 	 */
 	private double calculateFrequency(double[] channelSamples, int samplingRate) {
-		
+
 		int numSamples = channelSamples.length;
-		
-		DoubleFFT_1D fft = new DoubleFFT_1D(numSamples);
-		double[] fftData = new double[numSamples*2];
-		double[] magnitude = new double[numSamples];
-		 
-		 for(int i = 0; i < numSamples; i++) {
-			 fftData[2*i] = channelSamples[i];
-			 fftData[2*i+1] = 0;
-		 }
-		 
-		 fft.complexForward(fftData);
-		 
-		 
-		 for (int i = 0; i < numSamples; i++) {
-			 double real = fftData[2*i];
-			 double imag = fftData[2*i+1];
-			 magnitude[i] = Math.sqrt(real*real + imag*imag);
-		 }
-		 
-		 double maxMagnitude = 0.0000000001;
-		 int maxIndex = 0;
-		 
-		 for (int i = 1; i < numSamples; i++) {
-			 if (magnitude[i] > maxMagnitude) {
-				 maxMagnitude = magnitude[i];
-				 maxIndex = i;
-			 }
-		 }
-
-		 if (maxIndex > (channelSamples.length)/2) {
-			 maxIndex = channelSamples.length - maxIndex;
-		 }
-		
-		return  maxIndex * (samplingRate) / numSamples;
+
+		if (numSamples < 2) {
+			return 0;
+		}
+
+		// the plan is shared between channels and captures, the scratch
+		// buffer is reused between captures
+		DoubleFFT_1D fft = FftPlanCache.get(numSamples);
+
+		if (fftScratch == null || fftScratch.length < numSamples) {
+			fftScratch = new double[numSamples];
+		}
+
+		double[] fftData = fftScratch;
+		System.arraycopy(channelSamples, 0, fftData, 0, numSamples);
+
+		fft.realForward(fftData);
+
+		// Compare squared magnitudes, which saves a square root per bin
+		double maxMagnitude = 0.0000000001 * 0.0000000001;
+		int maxIndex = 0;
+
+		for (int i = 1; i <= numSamples / 2; i++) {
+			double magnitude = binMagnitudeSquared(fftData, numSamples, i);
+			if (magnitude > maxMagnitude) {
+				maxMagnitude = magnitude;
+				maxIndex = i;
+			}
+		}
+
+		return (long) maxIndex * samplingRate / numSamples;
 	}
-	
+
+	/**
+	 * Gets the squared magnitude of a bin from jtransforms' packed realForward
+	 * layout. For even sizes a[1] holds the real Nyquist term. For odd sizes
+	 * a[n-1] and a[1] hold the real and imaginary parts of the last bin.
+	 * @param fftData - The packed spectrum
+	 * @param numSamples - The size of the transform
+	 * @param bin - The bin, from 1 to numSamples/2
+	 * @return the squared magnitude of the bin
+	 */
+	private static double binMagnitudeSquared(double[] fftData, int numSamples,
+			int bin) {
+		double real;
+		double imag;
+
+		if (2 * bin == numSamples) {
+			real = fftData[1];
+			imag = 0;
+		} else if (2 * bin == numSamples - 1) {
+			real = fftData[numSamples - 1];
+			imag = fftData[1];
+		} else {
+			real = fftData[2 * bin];
+			imag = fftData[2 * bin + 1];
+		}
+
+		return real * real + imag * imag;
+	}
+
 }
@@ -1,13 +1,36 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-
+import dsp.MinMaxPyramid;
 import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+import processing.event.MouseEvent;
 
 /**
  * This class is the oscilloscope display. It is responsible for plotting the
  * graph data which include the legend(s), and replotting when resolution 
  * changes. It also is responsible for transforming a clicked sample back into
  * a voltage resolution.
+ *
+ * The display is made of cached offscreen layers: the grid and legend, which
+ * is only drawn again when the resolution text changes, and one layer per
+ * channel trace, only plotted again when its samples or the resolution
+ * change. Showing or hiding a channel does not replot the others.
+ *
+ * All of the drawing happens on the display's animation thread. New captures
+ * and resolution changes are handed over as DisplayFrame snapshots through
+ * the render scheduler, and draw() runs at most the scheduler's maximum
+ * frame rate, drawing the latest frame if there is a new one.
+ *
+ * Which part of the records is on the display is kept as a viewport: the
+ * sample at the left edge and the horizontal zoom. Dragging the mouse or
+ * scrolling pans the viewport across the record, and zooming keeps the
+ * sample in the middle of the display where it is. A new capture is shown
+ * whole.
+ *
+ * In persistence mode (toggled with the 'p' key) each channel is shown from
+ * its persistence buffer instead of its trace layer: every capture is
+ * accumulated into the buffer as it arrives, including those whose frame is
+ * dropped, and the display keeps redrawing between captures while the
+ * buffers fade.
  * @author Lisa Liu-Thorrold
  *
  */
@@ -25,113 +48,222 @@ public class OscilloscopeDisplay extends PApplet {
 	private final float VERTICAL_ZERO = WIDTH/2;
 	// the y coordinate that the x axis cuts across.
 	private final float HORIZONTAL_ZERO = HEIGHT/2;
-	private float prevX = (float)0;
-	private float prevY = (float)HEIGHT/2;
-	private short triggerIndex;
+
+	// Hands frames to draw over to the animation thread
+	private final RenderScheduler renderScheduler;
+	private int appliedFps;
+
+	// The last frame submitted, whose resolution, viewport and trigger point
+	// a channel being shown or hidden, or a pan, is plotted with
+	private volatile DisplayFrame lastFrame;
+
+	// The frame the display shows, redrawn as the persistence buffers fade
+	private DisplayFrame shownFrame;
+
+	// Draws the trigger marker over the channel layers
+	private final TraceRenderer triggerRenderer =
+			new TraceRenderer(WIDTH, HEIGHT, VERTICAL_SECTION_SIZE);
+
+	// The grid and legend, and the resolution text it was drawn with
+	private PGraphics gridLayer;
+	private String gridResolution;
+
+	// One transparent layer per channel, in the order they are composited
+	private final OscilloscopeChannel[] layerChannels;
+	private PGraphics[] channelLayers;
+
+	// Each layer's renderer keeps the vertices of its trace, for replotting
+	// at another vertical resolution, and what the layer was last plotted
+	// from and at
+	private TraceRenderer[] traceRenderers;
+	private MinMaxPyramid[] layerPyramids;
+	private double[] layerVerticalResolutions;
+	private Viewport[] layerViewports;
+
+	// One persistence buffer per layer, made when persistence mode is first
+	// turned on, and the images they are shown through
+	private volatile boolean persistence;
+	private volatile PersistenceBuffer[] persistenceBuffers;
+	private PImage[] persistenceImages;
+
+	// Where the mouse was pressed and the viewport then, so a drag pans by
+	// the whole distance dragged rather than rounding each mouse movement
+	// to a sample
+	private int dragStartX;
+	private Viewport dragStartViewport;
 
 	public OscilloscopeDisplay(DigiscopeModel model) {
 		this.model = model;
+		this.renderScheduler = new RenderScheduler(Integer.getInteger(
+				"digiscope.maxFps", RenderScheduler.DEFAULT_MAX_FPS));
+		this.layerChannels = new OscilloscopeChannel[]{model.getChannelA(),
+				model.getChannelB(), model.getFilterChannel(),
+				model.getMathChannel()};
 	}
 
 	public void setup() {
 		size(Math.round(WIDTH), Math.round(HEIGHT));
-		background(51);
+
+		gridLayer = createGraphics(Math.round(WIDTH), Math.round(HEIGHT));
 		drawGrid();
+		image(gridLayer, 0, 0);
+
+		int numLayers = layerChannels.length;
+		channelLayers = new PGraphics[numLayers];
+		traceRenderers = new TraceRenderer[numLayers];
+		layerPyramids = new MinMaxPyramid[numLayers];
+		layerVerticalResolutions = new double[numLayers];
+		layerViewports = new Viewport[numLayers];
+
+		for (int i = 0; i < numLayers; i++) {
+			channelLayers[i] = createGraphics(Math.round(WIDTH),
+					Math.round(HEIGHT));
+			traceRenderers[i] = new TraceRenderer(WIDTH, HEIGHT,
+					VERTICAL_SECTION_SIZE);
+		}
 	}
 
+	/**
+	 * Called by Processing once per frame interval. Draws the latest frame
+	 * submitted since the last call, if any; otherwise the display is left
+	 * as it is.
+	 */
 	public void draw() {
-		noLoop();
+		if (appliedFps != renderScheduler.getMaxFps()) {
+			appliedFps = renderScheduler.getMaxFps();
+			frameRate(appliedFps);
+		}
+
+		DisplayFrame frame = renderScheduler.take();
+
+		if (frame != null) {
+			drawFrame(frame, true);
+		} else if (persistence && shownFrame != null) {
+			// the persistence buffers keep fading between captures
+			drawFrame(shownFrame, false);
+		}
 	}
 
 	/**
-	 * This method is called by the digiscope client when samples are 
-	 * initially received by the client. The samples are initially plotted to 
-	 * fit the width of the display, the one vertical section one unit of 
-	 * vertical resolution. 
-	 * @param samples - The samples to plot
+	 * This method is called by the capture pipeline when samples are
+	 * received by the client. The samples are initially plotted to fit the
+	 * width of the display, the one vertical section one unit of vertical
+	 * resolution.
 	 * @param verticalResolution - The vertical resolution to plot at
-	 * @param channelColors - The line colors of the graph
+	 * @param triggerIndex - The index of the trigger point
+	 * @param bandpass - Whether channel A is plotted from its bandpassed
+	 *                   samples
 	 */
+	public void plotCapture(double verticalResolution, short triggerIndex,
+			boolean bandpass) {
+
+		// All samples are made to initially fit the width of the screen. The
+		// user can zoom in and out thereafter.
+		DisplayFrame frame = makeFrame(verticalResolution,
+				Viewport.wholeRecord(), triggerIndex, bandpass);
+
+		// accumulated here rather than when the frame is drawn, so captures
+		// whose frame is dropped still show
+		if (persistence) {
+			accumulate(frame);
+		}
 
-	/**
-	 * This method is called by the digiscope client when samples are
-	 * initially received by the client. The samples are initially plotted to
-	 * fit the width of the display, the one vertical section one unit of
-	 * vertical resolution.
-	 * @param verticalResolution - The vertical resolution to plot at
-	 * @param channel - The channel to get the samples and colors to plot from
-	 * @param bandpass - Whether this is a bandpass channel to plot or not
-     */
-	public void initialPlotChannel(double verticalResolution,
-			OscilloscopeChannel channel, boolean bandpass) {
+		submitFrame(frame);
+	}
 
-		int[] channelColors = channel.getGraphLineColor();
-		double[] chanSamples;
+	/**
+	 * This method is called when a channel has been checked or unchecked for
+	 * plotting. The channels are drawn at the resolution of the last frame;
+	 * the layers of the other channels are composited as they are.
+	 * @param channel - The channel that was checked or unchecked
+	 */
+	public void updateChannelVisibility(OscilloscopeChannel channel) {
+		DisplayFrame frame = lastFrame;
 
-		if (bandpass) {
-			chanSamples = ((ChannelA)channel).getbandpassedSamples();
-		} else {
-			chanSamples = channel.getChannelSamples();
+		if (frame != null) {
+			submitFrame(makeFrame(frame.getVerticalResolution(),
+					frame.getViewport(), frame.getTriggerIndex(),
+					model.getBandpassSampling().equals("On")));
 		}
+	}
 
-		ArrayList<Double> visibleChannelSamples = new ArrayList<Double>();
-		channel.setVerticallyOffTheScreen(false);
+	/**
+	 * Moves the viewport across the records, keeping it within them
+	 * @param pixels - How far to move, towards the end of the records for
+	 *                 positive
+	 */
+	public void pan(float pixels) {
+		DisplayFrame frame = lastFrame;
 
-		// To handle the first one that isn't plotted - check if it's vertically
-		// off the screen
-		if (!verticallyOffScreen(channel, (float)(-(chanSamples[0] *
-				VERTICAL_SECTION_SIZE * 1/verticalResolution) + HORIZONTAL_ZERO))) {
-			visibleChannelSamples.add(chanSamples[0]);
+		if (frame != null) {
+			pan(frame, frame.getViewport(), pixels);
 		}
+	}
 
-		float x;
-		float y;
-		float widthScaling = (float)1000.0/(float)chanSamples.length;
-
-		prevX = (float)chanSamples[0];
-		prevY = (float)(-(chanSamples[0] * VERTICAL_SECTION_SIZE) + HORIZONTAL_ZERO);
-
-		// Plot Channel. All samples are made to initially fit the width of the
-		// screen. The user can zoom in and out thereafter.
-		for (int i=1; i < chanSamples.length; i++) {
-			stroke(channelColors[0], channelColors[1], channelColors[2]);
-			x = widthScaling * i;
-			y = (float)(-(chanSamples[i] * VERTICAL_SECTION_SIZE *
-					1/verticalResolution) + HORIZONTAL_ZERO);
-			line(prevX,prevY, x, y);
-
-			prevX = x;
-			prevY = y;	
-
-			if (i == triggerIndex) {
-				//draw a vertical line to indicate the trigger point
-				stroke(255,153,204,80);
-				line(x,0,x,HEIGHT);
-			}
+	/**
+	 * Plots the last frame again at a viewport moved from the given one
+	 * @param frame - The last frame
+	 * @param from - The viewport to move from
+	 * @param pixels - How far to move, towards the end of the records for
+	 *                 positive
+	 */
+	private void pan(DisplayFrame frame, Viewport from, float pixels) {
+		Viewport viewport = from.panBy(pixels, frame.getNumSamples());
 
+		if (!viewport.equals(frame.getViewport())) {
+			submitFrame(makeFrame(frame.getVerticalResolution(), viewport,
+					frame.getTriggerIndex(),
+					model.getBandpassSampling().equals("On")));
+		}
+	}
 
-			// Don't plot any longer we are off the horizontal access - waste
-			// of time/processing
-			if(horizontallyOffScreen(x)) {
-				break;
+	/**
+	 * Turns persistence mode on or off. The buffers start empty each time it
+	 * is turned on.
+	 * @param persistence - Whether the channels are shown from their
+	 *                      persistence buffers
+	 */
+	public synchronized void setPersistence(boolean persistence) {
+		if (persistence) {
+			for (PersistenceBuffer buffer : getPersistenceBuffers()) {
+				buffer.clear();
 			}
+		}
 
-			// check if vertically off the screen - if so, add it to the list of
-			// samples that we perform the calculations on - set flag to display
-			// n/a for frequency calculation
-			if (!verticallyOffScreen(channel, y))  {
-				visibleChannelSamples.add(chanSamples[i]);
-			}
+		this.persistence = persistence;
 
+		// draw the last frame again in the new mode
+		DisplayFrame frame = lastFrame;
+		if (frame != null) {
+			renderScheduler.submit(frame);
 		}
+	}
 
-		double[] visibleChannelSamplesArray = visibleChannelSamples.stream().
-				mapToDouble(Double::doubleValue).toArray();
+	public boolean isPersistence() {
+		return persistence;
+	}
 
-		channel.setVisibleChannelSamples(visibleChannelSamplesArray,
-				model.getSamplingRate());
+	/**
+	 * Sets how quickly a channel's persistence buffer fades
+	 * @param channel - The channel
+	 * @param decayMillis - How long the buffer takes to fade to 1/e
+	 */
+	public void setPersistenceDecay(OscilloscopeChannel channel,
+			int decayMillis) {
+		for (int i = 0; i < layerChannels.length; i++) {
+			if (layerChannels[i] == channel) {
+				getPersistenceBuffers()[i].setDecayMillis(decayMillis);
+			}
+		}
+	}
 
-		redraw();
+	/**
+	 * Toggles persistence mode with the 'p' key
+	 */
+	public void keyPressed() {
+		if (key == 'p' || key == 'P') {
+			setPersistence(!persistence);
+		}
 	}
 
 	/**
@@ -144,6 +276,33 @@ public class OscilloscopeDisplay extends PApplet {
 				* -(model.getVoltsPerDivisionDisplayed() / VERTICAL_SECTION_SIZE);
 
 		model.setSelectedSampleVoltage(selectedSampleVoltage);
+
+		DisplayFrame frame = lastFrame;
+		dragStartX = mouseX;
+		dragStartViewport = frame != null ? frame.getViewport() : null;
+	}
+
+	/**
+	 * Dragging pans the records with the mouse, from where they were when
+	 * the mouse was pressed
+	 */
+	public void mouseDragged() {
+		DisplayFrame frame = lastFrame;
+
+		if (frame != null && dragStartViewport != null) {
+			pan(frame, dragStartViewport, dragStartX - mouseX);
+		}
+	}
+
+	/**
+	 * Scrolling pans the records a horizontal division per notch
+	 */
+	public void mouseWheel(MouseEvent event) {
+		pan(event.getCount() * HORIZONTAL_SECTION_SIZE);
+	}
+
+	public RenderScheduler getRenderScheduler() {
+		return renderScheduler;
 	}
 
 
@@ -154,7 +313,7 @@ public class OscilloscopeDisplay extends PApplet {
 	/**
 	 * Takes method replots the samples at the new resolution. It does this
 	 * by taking the appropriate scaling factors of what is currently being
-	 * displayed.
+	 * displayed. The viewport is zoomed about the middle of the display.
 	 */
 	public void updateResolution(double horizScalingFactor) {
 
@@ -164,155 +323,148 @@ public class OscilloscopeDisplay extends PApplet {
 			model.setSelectedSampleVoltage(Double.NEGATIVE_INFINITY);
 		}
 
-		clearGrid();
+		DisplayFrame frame = lastFrame;
+		Viewport viewport = frame != null ?
+				frame.getViewport().zoomTo(getHorizontalScalingFactor(),
+						frame.getNumSamples()) :
+				new Viewport(0, getHorizontalScalingFactor());
 
-		double verticalResolution = model.getVoltsPerDivisionDisplayed();
-		double scalingFactor = model.getTimePerDivision() /
-				model.getTimePerDivisionDisplayed();
-
-		if (model.getChannelAisPlotted()) {
-
-			// Is channel a - check bandpass
-			boolean bandpassOn = model.getBandpassSampling().equals("On") ?
-					true : false;
-			plotChannelNewResolution(verticalResolution,
-					scalingFactor, model.getChannelA(), bandpassOn);
-		}
-
-		// Update channel b if user wants it plotted
-		if (model.getChannelBisPlotted()) {
-			plotChannelNewResolution(verticalResolution, scalingFactor,
-					model.getChannelB(), false);
-		}
-
-		// update math channel if user wants it plotted
-		if (model.getMathChannelIsPlotted() &&
-				model.getMathChannel().getAvailableForPlotting()) {
-			plotChannelNewResolution(verticalResolution, scalingFactor,
-					model.getMathChannel(), false);
-		}
-
-		// update filter channel if user wants it plotted
-		if (model.getFilterChannelIsPlotted() &&
-				model.getFilterChannel().getAvailableForPlotting()) {
-			plotChannelNewResolution(verticalResolution, scalingFactor,
-					model.getFilterChannel(), false);
-		}
-
-		redraw();
+		submitFrame(makeFrame(model.getVoltsPerDivisionDisplayed(), viewport,
+				frame != null ? frame.getTriggerIndex() : 0,
+				model.getBandpassSampling().equals("On")));
 	}
 
+	/*************************************************
+	 * Drawing methods (animation thread only)
+	 *************************************************/
+
 	/**
-	 * Helper method for replotting a channel with the new resolution
-	 * @param channel - The osciloscope channel containing information such as
-	 *                	colors and samples
-	 * @param verticalResolution - The new vertical resolution
-	 * @param horizontalScalingFactor - The scaling factor for the horizontal
-	 * 									resolution adjustment
+	 * Composites the grid with the layers of the channels in the frame,
+	 * plotting any layer whose samples or resolution have changed, and marks
+	 * the trigger point once over them. In persistence mode a channel is
+	 * shown from its persistence buffer, unless the buffer was accumulated at
+	 * another resolution (e.g. the frame is zoomed in).
+	 * @param frame - The frame to draw
+	 * @param newFrame - Whether the frame was just taken from the scheduler,
+	 *                   rather than drawn again as the buffers fade
 	 */
-	private void plotChannelNewResolution(double verticalResolution,
-			double horizontalScalingFactor, OscilloscopeChannel channel,
-										  boolean bandpass) {
-
-		double[] chanSamples;
-
-		if (bandpass) {
-			chanSamples = ((ChannelA)channel).getbandpassedSamples();
-		} else {
-			chanSamples = channel.getChannelSamples();
-		}
-
-
-		int[] channelColors = channel.getGraphLineColor();
-		ArrayList<Double> visibleChannelSamples = new ArrayList<Double>();
-		channel.setVerticallyOffTheScreen(false);
-
-		//To handle the first one that isn't plotted
-		if (!verticallyOffScreen(channel, (float)(-(chanSamples[0] *
-				VERTICAL_SECTION_SIZE * 1/verticalResolution) + HORIZONTAL_ZERO))) {
-			visibleChannelSamples.add(chanSamples[0]);
+	private void drawFrame(DisplayFrame frame, boolean newFrame) {
+		if (!model.getResolution().equals(gridResolution)) {
+			drawGrid();
 		}
 
-		float x;
-		float y;
-		float widthScaling =  (float)1000.0/(float)chanSamples.length;
-
-		prevX = (float)0;
-		prevY = (float)(-(chanSamples[0] * VERTICAL_SECTION_SIZE * 1/verticalResolution)
-				+ HORIZONTAL_ZERO);
-
-		// Plot the channel
-		for (int i=1; i < chanSamples.length; i++) {
+		image(gridLayer, 0, 0);
 
-			stroke(channelColors[0], channelColors[1], channelColors[2]);
+		double verticalResolution = frame.getVerticalResolution();
+		Viewport viewport = frame.getViewport();
+		int triggerLayer = -1;
+		PersistenceBuffer[] buffers = persistence ? persistenceBuffers : null;
 
-			x = (float) (widthScaling * i * horizontalScalingFactor);
-			y = (float)(-(chanSamples[i] * VERTICAL_SECTION_SIZE * 1/verticalResolution)
-					+ HORIZONTAL_ZERO);
-			line(prevX,prevY, x, y);
+		for (int i = 0; i < frame.getNumLayers(); i++) {
+			MinMaxPyramid pyramid = frame.getPyramid(i);
 
-			prevX = x;
-			prevY = y;			
-
-			if (i == triggerIndex) {
-				//draw a vertical line
-				stroke(255,153,204,80);
-				line(x,0,x,HEIGHT);
+			if (pyramid == null) {
+				continue;
 			}
 
-			// stop plotting if coordinates fall off x axis - save time
-			if(horizontallyOffScreen(x)) {
-				break;
+			if (pyramid != layerPyramids[i] ||
+					verticalResolution != layerVerticalResolutions[i] ||
+					!viewport.equals(layerViewports[i])) {
+				plotLayer(i, pyramid, verticalResolution, viewport);
 			}
 
-			// check if vertically off the screen
-			if (!verticallyOffScreen(channel, y))  {
-				visibleChannelSamples.add(chanSamples[i]);
+			if (buffers != null &&
+					buffers[i].isAccumulatedAt(verticalResolution, viewport)) {
+				buffers[i].updateImage(getPersistenceImage(i));
+				image(persistenceImages[i], 0, 0);
+			} else {
+				image(channelLayers[i], 0, 0);
 			}
+			triggerLayer = triggerLayer < 0 ? i : triggerLayer;
+		}
 
+		if (triggerLayer >= 0) {
+			triggerRenderer.renderTrigger(g,
+					layerPyramids[triggerLayer].getSamples().length,
+					frame.getTriggerIndex(), viewport);
 		}
 
-		// Set the visible channel samples for measurement recalculation
-		double[] visibleChannelSamplesArray = visibleChannelSamples.
-				stream().mapToDouble(Double::doubleValue).toArray();
+		shownFrame = frame;
 
-		channel.setVisibleChannelSamples(
-				visibleChannelSamplesArray, model.getSamplingRate());
+		// the measurements follow the samples that are on the display
+		if (newFrame) {
+			model.emit(DigiscopeEvent.UPDATE_MEASUREMENT_LABELS);
+		}
+	}
 
-		redraw();
+	/**
+	 * @return the image a layer's persistence buffer is shown through, made
+	 *         the first time it is needed
+	 */
+	private PImage getPersistenceImage(int layer) {
+		if (persistenceImages == null) {
+			persistenceImages = new PImage[layerChannels.length];
+		}
 
+		if (persistenceImages[layer] == null) {
+			persistenceImages[layer] = createImage(Math.round(WIDTH),
+					Math.round(HEIGHT), ARGB);
+		}
+
+		return persistenceImages[layer];
 	}
 
 	/**
-	 * Checks if a coordinate is vertically off the screen
-	 * @param channel - The channel whose visible coordinates are off the screen
-	 * @param yCoordinate - The y coordinate to check
-     * @return whether the coordinate is outside the plotting screen
-     */
-	private boolean verticallyOffScreen(OscilloscopeChannel channel,
-										float yCoordinate) {
-		if ((yCoordinate < 0) || (yCoordinate > 650)) {
-			// let the channel know, to invalidate frequency calculation
-			channel.setVerticallyOffTheScreen(true);
-			return true;
-		}
+	 * Helper method for plotting a channel at a resolution onto its layer.
+	 * The trace is drawn from the channel's min/max pyramid, so a zoom change
+	 * reuses the pyramid built for the capture rather than going back over
+	 * every sample.
+	 * @param layer - The index of the channel's layer
+	 * @param pyramid - The pyramid of the samples to plot
+	 * @param verticalResolution - The vertical resolution
+	 * @param viewport - The part of the record to plot
+	 */
+	private void plotLayer(int layer, MinMaxPyramid pyramid,
+			double verticalResolution, Viewport viewport) {
 
-		return false;
+		OscilloscopeChannel channel = layerChannels[layer];
+		PGraphics channelLayer = channelLayers[layer];
+
+		channelLayer.beginDraw();
+		channelLayer.clear();
+		int visibleEnd = traceRenderers[layer].render(channelLayer, pyramid,
+				channel.getGraphLineColor(), verticalResolution, viewport);
+		channelLayer.endDraw();
+
+		layerPyramids[layer] = pyramid;
+		layerVerticalResolutions[layer] = verticalResolution;
+		layerViewports[layer] = viewport;
+
+		setVisibleSamples(channel, pyramid.getSamples(),
+				Math.min(viewport.getStartIndex(), visibleEnd), visibleEnd,
+				verticalResolution);
 	}
 
 	/**
-	 * Check if the xCoordinate is off the screen, so we can stop processing
-	 * samples, and plotting ones that won't be visible
-	 * @param xCoordinate - The x coordinate to check
-	 * @return whether the coordinate is beyond the horizontal range of the
-	 * 		   display
-     */
-	private boolean horizontallyOffScreen(float xCoordinate) {
-		if (xCoordinate > 1000) {
-			return true;
-		}
+	 * Sets the window of samples that are on the display on the channel, for
+	 * measurement recalculation. The screen spans NUM_VERTICAL_SECTIONS / 2
+	 * divisions either side of zero, so samples outside that band are left
+	 * out, and flag the channel so the frequency is displayed as n/a.
+	 * @param channel - The channel being plotted
+	 * @param chanSamples - The samples being plotted
+	 * @param visibleStart - The first sample on the display
+	 * @param visibleEnd - One past the last sample on the display
+	 * @param verticalResolution - The vertical resolution
+	 */
+	private void setVisibleSamples(OscilloscopeChannel channel,
+			double[] chanSamples, int visibleStart, int visibleEnd,
+			double verticalResolution) {
 
-		return false;
+		double screenVoltage = HORIZONTAL_ZERO / VERTICAL_SECTION_SIZE *
+				verticalResolution;
+
+		channel.setVisibleChannelSamples(chanSamples, visibleStart, visibleEnd,
+				-screenVoltage, screenVoltage, model.getSamplingRate());
 	}
 
 	/*************************************************
@@ -320,65 +472,72 @@ public class OscilloscopeDisplay extends PApplet {
 	 *************************************************/
 
 	/**
-	 * This method draws the inital grid
+	 * This method draws the grid and legend into the grid layer, with the
+	 * current resolution
 	 */
 	private void drawGrid() {
 
 		System.out.println("Draw grid called");
+		gridResolution = model.getResolution();
+
+		PGraphics grid = gridLayer;
+		grid.beginDraw();
+		grid.background(51);
+
 		// Legend Channel A
-		fill(200);
-		text("Channel A",10,15);
+		grid.fill(200);
+		grid.text("Channel A",10,15);
 
 		int[] channelAColors = model.getChannelA().getGraphLineColor();
-		fill(channelAColors[0],channelAColors[1],channelAColors[2]);
-		text("----------", 80, 15);
+		grid.fill(channelAColors[0],channelAColors[1],channelAColors[2]);
+		grid.text("----------", 80, 15);
 
 		// Legend Channel B
-		fill(200);
-		text("Channel B",180,15);
+		grid.fill(200);
+		grid.text("Channel B",180,15);
 
 		int[] channelBColors = model.getChannelB().getGraphLineColor();
-		fill(channelBColors[0],channelBColors[1],channelBColors[2]);
-		text("----------", 250, 15);
+		grid.fill(channelBColors[0],channelBColors[1],channelBColors[2]);
+		grid.text("----------", 250, 15);
 
 		// Legend Math Channel
-		fill(200);
-		text("Math Channel",350,15);
+		grid.fill(200);
+		grid.text("Math Channel",350,15);
 
 		int[] mathChannelColors = model.getMathChannel().getGraphLineColor();
-		fill(mathChannelColors[0],mathChannelColors[1],mathChannelColors[2]);
-		text("----------", 450, 15);
+		grid.fill(mathChannelColors[0],mathChannelColors[1],mathChannelColors[2]);
+		grid.text("----------", 450, 15);
 
 
 		// Legend Filter Channel
-		fill(200);
-		text("Filter Channel",545,15);
+		grid.fill(200);
+		grid.text("Filter Channel",545,15);
 
 		int[] filterChannelColors = model.getFilterChannel().getGraphLineColor();
-		fill(filterChannelColors[0],filterChannelColors[1],filterChannelColors[2]);
-		text("----------", 640, 15);
+		grid.fill(filterChannelColors[0],filterChannelColors[1],filterChannelColors[2]);
+		grid.text("----------", 640, 15);
 
 		// Current Resolution
-		fill(200);
-		text(model.getResolution(),735,15);
+		grid.fill(200);
+		grid.text(gridResolution,735,15);
 
 
 		/* Draw the grid */
-		stroke(122, 122, 122, 100);
+		grid.stroke(122, 122, 122, 100);
 
 		//vertical center line
-		line (VERTICAL_ZERO, 0, VERTICAL_ZERO, HEIGHT);
+		grid.line (VERTICAL_ZERO, 0, VERTICAL_ZERO, HEIGHT);
 
 		//horizontal center line
-		line (0, HORIZONTAL_ZERO, WIDTH, HORIZONTAL_ZERO);
+		grid.line (0, HORIZONTAL_ZERO, WIDTH, HORIZONTAL_ZERO);
 
-		stroke(122, 122, 122, 70);
+		grid.stroke(122, 122, 122, 70);
 
 		// draw the horizontal
 		for(int i = 1; i <= NUM_VERTICAL_SECTIONS; i++) {
 
 			if (HEIGHT/NUM_VERTICAL_SECTIONS*i  != HORIZONTAL_ZERO)  {
-				drawDashedLine(VERTICAL_SECTION_SIZE*i, true);
+				drawDashedLine(grid, VERTICAL_SECTION_SIZE*i, true);
 			}
 		}
 
@@ -386,10 +545,11 @@ public class OscilloscopeDisplay extends PApplet {
 		for(int i = 1; i <= NUM_HORIZONTAL_SECTIONS; i++) {
 
 			if (WIDTH/NUM_HORIZONTAL_SECTIONS*i != VERTICAL_ZERO)  {
-				drawDashedLine(HORIZONTAL_SECTION_SIZE*i, false);
+				drawDashedLine(grid, HORIZONTAL_SECTION_SIZE*i, false);
 			}
 		}
 
+		grid.endDraw();
 	}
 
 
@@ -397,38 +557,20 @@ public class OscilloscopeDisplay extends PApplet {
 	 * Helper methods
 	 *************************************************/
 
-	/**
-	 * This method clears the grid and is invoked when either a new lot of
-	 * samples have been received, or the resolution has been updated.
-	 */
-	public void clearGrid() {
-		System.out.println("Clearing grid called");
-		background(51);
-		drawGrid();
-	}
-
-
-	/**
-	 * Keep track of the current trigger index
-	 * @param triggerIndex
-	 */
-	public void setTriggerIndex(short triggerIndex) {
-		this.triggerIndex = triggerIndex;
-	}
-
 	/**
 	 * This method draws a dashed line
+	 * @param graphics
 	 * @param coord
 	 * @param horizontal
 	 */
-	void drawDashedLine(float coord, boolean horizontal) {
+	void drawDashedLine(PGraphics graphics, float coord, boolean horizontal) {
 		// keep the y coordinates the same
 		if (horizontal) {
 
 			int dashValue = 0;
 			int dashPoint = 20;
 			while(dashValue*dashPoint < WIDTH) {
-				line(dashValue * dashPoint, coord,
+				graphics.line(dashValue * dashPoint, coord,
 						(dashValue * dashPoint) + 10, coord);
 				dashValue++;
 			}
@@ -437,11 +579,111 @@ public class OscilloscopeDisplay extends PApplet {
 			int dashValue = 0;
 			int dashPoint = 20;
 			while (dashValue*dashPoint < HEIGHT) {
-				line(coord, dashValue * dashPoint, coord,
+				graphics.line(coord, dashValue * dashPoint, coord,
 						(dashValue * dashPoint) + 10);
 				dashValue++;
 			}
 
 		}
 	}
+
+	/**
+	 * Submits a frame for the animation thread to draw
+	 */
+	private void submitFrame(DisplayFrame frame) {
+		lastFrame = frame;
+		renderScheduler.submit(frame);
+	}
+
+	/**
+	 * Adds the channels of a capture's frame to their persistence buffers
+	 */
+	private void accumulate(DisplayFrame frame) {
+		PersistenceBuffer[] buffers = persistenceBuffers;
+
+		for (int i = 0; i < frame.getNumLayers(); i++) {
+			if (frame.getPyramid(i) != null) {
+				buffers[i].accumulate(frame.getPyramid(i),
+						frame.getVerticalResolution(), frame.getViewport());
+			}
+		}
+	}
+
+	/**
+	 * @return the persistence buffers of the layers, made the first time
+	 *         they are needed, each fading over digiscope.persistenceDecay
+	 *         milliseconds to begin with
+	 */
+	private synchronized PersistenceBuffer[] getPersistenceBuffers() {
+		if (persistenceBuffers == null) {
+			int decayMillis = Integer.getInteger("digiscope.persistenceDecay",
+					PersistenceBuffer.DEFAULT_DECAY_MILLIS);
+			PersistenceBuffer[] buffers =
+					new PersistenceBuffer[layerChannels.length];
+
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = new PersistenceBuffer(Math.round(WIDTH),
+						Math.round(HEIGHT), VERTICAL_SECTION_SIZE,
+						layerChannels[i].getGraphLineColor(), decayMillis);
+			}
+
+			persistenceBuffers = buffers;
+		}
+
+		return persistenceBuffers;
+	}
+
+	/**
+	 * @return a frame of the channels that are plotted
+	 */
+	private DisplayFrame makeFrame(double verticalResolution,
+			Viewport viewport, short triggerIndex, boolean bandpass) {
+
+		MinMaxPyramid[] pyramids = new MinMaxPyramid[layerChannels.length];
+
+		for (int i = 0; i < layerChannels.length; i++) {
+			OscilloscopeChannel channel = layerChannels[i];
+
+			if (!isPlotted(channel)) {
+				continue;
+			}
+
+			if (bandpass && channel == model.getChannelA()) {
+				if (model.getChannelA().getbandpassedSamples() != null) {
+					pyramids[i] = model.getChannelA().getBandpassedPyramid();
+				}
+			} else if (channel.getChannelSamples() != null) {
+				pyramids[i] = channel.getSamplePyramid();
+			}
+		}
+
+		return new DisplayFrame(pyramids, verticalResolution, viewport,
+				triggerIndex);
+	}
+
+	/**
+	 * @return the horizontal zoom the channels are plotted at
+	 */
+	private double getHorizontalScalingFactor() {
+		return model.getTimePerDivision() / model.getTimePerDivisionDisplayed();
+	}
+
+	/**
+	 * @return whether the user wants the channel plotted
+	 */
+	private boolean isPlotted(OscilloscopeChannel channel) {
+		if (channel == model.getChannelA()) {
+			return model.getChannelAisPlotted();
+		} else if (channel == model.getChannelB()) {
+			return model.getChannelBisPlotted();
+		} else if (channel == model.getFilterChannel()) {
+			return model.getFilterChannelIsPlotted() &&
+					channel.getAvailableForPlotting();
+		} else if (channel == model.getMathChannel()) {
+			return model.getMathChannelIsPlotted() &&
+					channel.getAvailableForPlotting();
+		}
+
+		return false;
+	}
 }
@@ -0,0 +1,41 @@
+/**
+ * Event payload: the event that was emitted and an optional value. Payloads
+ * are immutable and shared by every listener of an emit, and events without
+ * a value share one payload per event type.
+ */
+final class Payload {
+	private static final Payload[] EMPTY = new Payload[
+			DigiscopeEvent.values().length];
+
+	static {
+		for (DigiscopeEvent eventType : DigiscopeEvent.values()) {
+			EMPTY[eventType.ordinal()] = new Payload(eventType, null);
+		}
+	}
+
+	private final DigiscopeEvent eventType;
+	private final Object value;
+
+	public Payload(DigiscopeEvent eventType, Object value) {
+		this.eventType = eventType;
+		this.value = value;
+	}
+
+	/**
+	 * @return the shared payload for an event without a value
+	 */
+	public static Payload of(DigiscopeEvent eventType) {
+		return EMPTY[eventType.ordinal()];
+	}
+
+	public DigiscopeEvent getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * @return the value emitted with the event, or null if there was none
+	 */
+	public Object getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,308 @@
+import java.util.Arrays;
+
+import dsp.MinMaxPyramid;
+import processing.core.PImage;
+
+/**
+ * This class is the persistence (digital phosphor) buffer of a channel.
+ * Every capture is rasterised into a hit count per pixel of the display, in
+ * the same place TraceRenderer would draw it, and the counts fade away over
+ * time. Shown as an image graded by count, a trace that is always in the
+ * same place is bright, and a glitch that happens once in a while still
+ * shows as a faint trace for a while after the next captures have replaced
+ * it.
+ *
+ * Counts are fixed point (HIT per capture), so they can fade smoothly with
+ * integer arithmetic. Rasterising does not allocate, so it keeps up with
+ * captures arriving far faster than the display is drawn. Captures are
+ * accumulated on the capture pipeline's thread and the image is made on the
+ * display's, so the methods are synchronized.
+ */
+public class PersistenceBuffer {
+
+	static final int DEFAULT_DECAY_MILLIS = 1000;
+
+	// What a capture adds to each pixel it crosses
+	private static final int HIT = 256;
+
+	// Counts are capped well below overflow
+	private static final int MAX_COUNT = 1 << 30;
+
+	// The count at which a pixel is shown at full intensity (32 hits)
+	private static final int SATURATION = 32 * HIT;
+
+	// Intensity levels in the colour table
+	private static final int LEVELS = 1024;
+
+	private final int width;
+	private final int height;
+	private final float verticalSectionSize;
+	private final int[] counts;
+
+	// ARGB colour for each level of intensity, indexed by count * LEVELS /
+	// SATURATION
+	private final int[] intensityColors = new int[LEVELS];
+
+	// min (index 0) and max (index 1) of a column, reused between columns
+	private final double[] columnMinMax = new double[2];
+
+	// The resolution and viewport the counts were accumulated at
+	private double verticalResolution = Double.NaN;
+	private Viewport viewport;
+
+	private int decayMillis;
+	private long lastDecayNanos = System.nanoTime();
+	private long captureCount;
+
+	/**
+	 * @param width - The width of the display
+	 * @param height - The height of the display
+	 * @param verticalSectionSize - The height of one vertical division
+	 * @param color - The channel's line colour
+	 * @param decayMillis - How long the counts take to fade to 1/e
+	 */
+	public PersistenceBuffer(int width, int height, float verticalSectionSize,
+			int[] color, int decayMillis) {
+		this.width = width;
+		this.height = height;
+		this.verticalSectionSize = verticalSectionSize;
+		this.counts = new int[width * height];
+		setDecayMillis(decayMillis);
+
+		// brightness goes up with the log of the count, so a single hit is
+		// still visible next to a trace that is hit every capture
+		for (int level = 0; level < LEVELS; level++) {
+			double intensity = Math.log1p(level) / Math.log1p(LEVELS - 1);
+			int alpha = (int) Math.round(48 + 207 * intensity);
+			intensityColors[level] = alpha << 24 | color[0] << 16 |
+					color[1] << 8 | color[2];
+		}
+	}
+
+	/**
+	 * Adds a capture to the buffer. If the resolution or viewport is not the
+	 * one the buffer holds, the buffer is cleared first, as the counts are in
+	 * the wrong place.
+	 * @param pyramid - The min/max pyramid of the samples
+	 * @param verticalResolution - The volts per division they are plotted at
+	 * @param viewport - The part of the record that is plotted
+	 */
+	public synchronized void accumulate(MinMaxPyramid pyramid,
+			double verticalResolution, Viewport viewport) {
+		if (!isAccumulatedAt(verticalResolution, viewport)) {
+			clear();
+			this.verticalResolution = verticalResolution;
+			this.viewport = viewport;
+		}
+
+		decay();
+
+		int numSamples = pyramid.getSamples().length;
+		if (numSamples == 0 || viewport.getStartIndex() >= numSamples) {
+			return;
+		}
+
+		double pixelsPerSample = (1000f / numSamples) *
+				viewport.getHorizontalScalingFactor();
+
+		if (pixelsPerSample < 1) {
+			accumulateColumns(pyramid, pixelsPerSample);
+		} else {
+			accumulateLines(pyramid.getSamples());
+		}
+
+		captureCount++;
+	}
+
+	/**
+	 * Fades the counts for the time since they last faded, and writes them
+	 * into an image of the display's size
+	 * @param image - An ARGB image, the size of the display
+	 */
+	public synchronized void updateImage(PImage image) {
+		decay();
+
+		image.loadPixels();
+		int[] pixels = image.pixels;
+
+		for (int i = 0; i < counts.length; i++) {
+			int count = counts[i];
+			pixels[i] = count == 0 ? 0 : intensityColors[
+					(int) Math.min(LEVELS - 1, (long) count * LEVELS / SATURATION)];
+		}
+
+		image.updatePixels();
+	}
+
+	/**
+	 * @return whether the counts were accumulated at a resolution and
+	 *         viewport, so they line up with a trace plotted at them
+	 */
+	public synchronized boolean isAccumulatedAt(double verticalResolution,
+			Viewport viewport) {
+		return verticalResolution == this.verticalResolution &&
+				viewport.equals(this.viewport);
+	}
+
+	/**
+	 * Empties the buffer
+	 */
+	public synchronized void clear() {
+		Arrays.fill(counts, 0);
+		lastDecayNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param decayMillis - How long the counts take to fade to 1/e
+	 */
+	public synchronized void setDecayMillis(int decayMillis) {
+		if (decayMillis <= 0) {
+			throw new IllegalArgumentException(
+					"The persistence decay time must be positive");
+		}
+		this.decayMillis = decayMillis;
+	}
+
+	public synchronized int getDecayMillis() {
+		return decayMillis;
+	}
+
+	/**
+	 * @return how many captures have been added
+	 */
+	public synchronized long getCaptureCount() {
+		return captureCount;
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * Scales the counts down by e^(-elapsed / decay time)
+	 */
+	private void decay() {
+		long now = System.nanoTime();
+		double elapsedMillis = (now - lastDecayNanos) / 1e6;
+		lastDecayNanos = now;
+
+		double factor = Math.exp(-elapsedMillis / decayMillis);
+		long scale = Math.round(factor * 65536);
+
+		if (scale >= 65536) {
+			return;
+		}
+
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = (int) ((counts[i] * scale) >>> 16);
+		}
+	}
+
+	/**
+	 * More than one sample per pixel column: each column gets a vertical
+	 * span from the smallest to the largest sample in it, and the last
+	 * sample of the column before, as TraceRenderer draws it
+	 */
+	private void accumulateColumns(MinMaxPyramid pyramid,
+			double pixelsPerSample) {
+		double[] samples = pyramid.getSamples();
+		int numSamples = samples.length;
+		int start = viewport.getStartIndex();
+		int from = start;
+
+		for (int column = 0; column < width && from < numSamples; column++) {
+			int to = (int) Math.min(numSamples,
+					start + Math.ceil((column + 1) / pixelsPerSample));
+
+			if (to <= from) {
+				continue;
+			}
+
+			pyramid.range(from, to, columnMinMax);
+			double min = columnMinMax[0];
+			double max = columnMinMax[1];
+
+			if (from > 0) {
+				min = Math.min(min, samples[from - 1]);
+				max = Math.max(max, samples[from - 1]);
+			}
+
+			int top = Math.max(0, pixelY(max));
+			int bottom = Math.min(height - 1, pixelY(min));
+
+			for (int y = top; y <= bottom; y++) {
+				hit(column, y);
+			}
+
+			from = to;
+		}
+	}
+
+	/**
+	 * At least one pixel per sample: consecutive samples are joined with
+	 * Bresenham lines, up to the first sample past the right edge
+	 */
+	private void accumulateLines(double[] samples) {
+		int numSamples = samples.length;
+		int start = viewport.getStartIndex();
+		float widthScaling = 1000f / numSamples;
+		double horizontalScalingFactor = viewport.getHorizontalScalingFactor();
+
+		int x0 = 0;
+		int y0 = pixelY(samples[start]);
+
+		for (int i = start + 1; i < numSamples && x0 < width; i++) {
+			int x1 = (int) (widthScaling * (i - start) * horizontalScalingFactor);
+			int y1 = pixelY(samples[i]);
+			line(x0, y0, x1, y1);
+			x0 = x1;
+			y0 = y1;
+		}
+	}
+
+	/**
+	 * Bresenham's line, without its last point (the first point of the
+	 * next line), so a pixel is hit once where lines join
+	 */
+	private void line(int x0, int y0, int x1, int y1) {
+		int dx = Math.abs(x1 - x0);
+		int dy = -Math.abs(y1 - y0);
+		int stepX = x0 < x1 ? 1 : -1;
+		int stepY = y0 < y1 ? 1 : -1;
+		int error = dx + dy;
+
+		while (x0 != x1 || y0 != y1) {
+			hit(x0, y0);
+
+			int error2 = 2 * error;
+			if (error2 >= dy) {
+				error += dy;
+				x0 += stepX;
+			}
+			if (error2 <= dx) {
+				error += dx;
+				y0 += stepY;
+			}
+		}
+	}
+
+	private void hit(int x, int y) {
+		if (x >= 0 && x < width && y >= 0 && y < height) {
+			int i = y * width + x;
+			if (counts[i] < MAX_COUNT) {
+				counts[i] += HIT;
+			}
+		}
+	}
+
+	/**
+	 * @return the row of a voltage, clamped to just off the display so
+	 *         lines to samples far off it stay short
+	 */
+	private int pixelY(double sample) {
+		double y = -(sample * verticalSectionSize / verticalResolution) +
+				height / 2.0;
+		return (int) Math.max(-1, Math.min(height, y));
+	}
+
+}
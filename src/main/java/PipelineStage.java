@@ -0,0 +1,130 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A stage of the capture pipeline. Each stage runs its work on its own
+ * thread, fed by a bounded queue. When a stage falls behind and its queue is
+ * full, the oldest waiting item is dropped to make room, so a slow stage
+ * skips frames instead of holding up the stages before it.
+ * @param <T> - The type of item the stage works on
+ */
+public class PipelineStage<T> {
+
+	private final String name;
+	private final ThreadPoolExecutor executor;
+	private final Consumer<T> handler;
+
+	// Stage statistics
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private volatile long lastLatencyNanos;
+
+	/**
+	 * @param name - The name of the stage, used for its thread and statistics
+	 * @param capacity - How many items can wait for the stage
+	 * @param handler - The work to do for each item
+	 */
+	public PipelineStage(String name, int capacity, Consumer<T> handler) {
+		this.name = name;
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(capacity),
+				runnable -> {
+					Thread thread = new Thread(runnable, "Pipeline " + name);
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.DiscardOldestPolicy() {
+					@Override
+					public void rejectedExecution(Runnable runnable,
+							ThreadPoolExecutor executor) {
+						dropped.incrementAndGet();
+						super.rejectedExecution(runnable, executor);
+					}
+				});
+
+		this.handler = handler;
+	}
+
+	/**
+	 * Queues an item for the stage. This never blocks; if the queue is full
+	 * the oldest waiting item is dropped.
+	 * @param item - The item to work on
+	 */
+	public void submit(T item) {
+		long queuedAt = System.nanoTime();
+
+		executor.execute(() -> {
+			try {
+				handler.accept(item);
+			} catch (Exception e) {
+				System.out.println("Error in pipeline stage " + name);
+				e.printStackTrace();
+			}
+
+			long latency = System.nanoTime() - queuedAt;
+			lastLatencyNanos = latency;
+			totalLatencyNanos.addAndGet(latency);
+			processed.incrementAndGet();
+		});
+	}
+
+	/**
+	 * Stops the stage, discarding anything still waiting
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	public String getName() {
+		return name;
+	}
+
+	public long getProcessedCount() {
+		return processed.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return how many items are waiting for the stage
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return the time from the last item being queued to it being done, in
+	 * 		   nanoseconds
+	 */
+	public long getLastLatencyNanos() {
+		return lastLatencyNanos;
+	}
+
+	/**
+	 * @return the average time from an item being queued to it being done, in
+	 * 		   nanoseconds
+	 */
+	public long getAverageLatencyNanos() {
+		long count = processed.get();
+		return count == 0 ? 0 : totalLatencyNanos.get() / count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: processed %d, dropped %d, queued %d, " +
+				"latency %.2fms (avg %.2fms)", name, getProcessedCount(),
+				getDroppedCount(), getQueueDepth(), lastLatencyNanos / 1e6,
+				getAverageLatencyNanos() / 1e6);
+	}
+
+}
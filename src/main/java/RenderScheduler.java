@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class hands display frames from the threads that make them (the
+ * capture pipeline's render stage and the Swing thread) to the display's
+ * animation thread, which does all of the Processing drawing. The display
+ * takes a frame at most maxFps times a second. Only the latest frame is
+ * kept: a frame replaced before the display takes it is dropped, so the
+ * display shows the newest capture however fast captures arrive, and never
+ * draws one it would have to cover straight away.
+ */
+public class RenderScheduler {
+
+	static final int DEFAULT_MAX_FPS = 30;
+
+	private final AtomicReference<DisplayFrame> latestFrame =
+			new AtomicReference<>();
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong renderedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private volatile int maxFps;
+	private volatile long lastLatencyNanos;
+
+	/**
+	 * @param maxFps - The most frames the display draws per second
+	 */
+	public RenderScheduler(int maxFps) {
+		setMaxFps(maxFps);
+	}
+
+	/**
+	 * Makes a frame the next one the display draws, dropping the one that
+	 * was waiting, if any. This does not block.
+	 * @param frame - The frame to draw
+	 */
+	public void submit(DisplayFrame frame) {
+		submittedCount.incrementAndGet();
+
+		if (latestFrame.getAndSet(frame) != null) {
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Called by the display once per frame interval
+	 * @return the latest frame submitted since the last call, or null if
+	 *         there is none and the display can stay as it is
+	 */
+	public DisplayFrame take() {
+		DisplayFrame frame = latestFrame.getAndSet(null);
+
+		if (frame != null) {
+			renderedCount.incrementAndGet();
+			lastLatencyNanos = System.nanoTime() - frame.getCreatedNanos();
+		}
+
+		return frame;
+	}
+
+	/**
+	 * @param maxFps - The most frames the display draws per second
+	 */
+	public void setMaxFps(int maxFps) {
+		if (maxFps <= 0) {
+			throw new IllegalArgumentException(
+					"The maximum frame rate must be positive");
+		}
+		this.maxFps = maxFps;
+	}
+
+	public int getMaxFps() {
+		return maxFps;
+	}
+
+	/*************************************************
+	 * Counters
+	 *************************************************/
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	public long getRenderedCount() {
+		return renderedCount.get();
+	}
+
+	/**
+	 * @return how many frames were replaced before the display took them
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return a summary of the frames submitted, rendered and dropped
+	 */
+	@Override
+	public String toString() {
+		return "Render scheduling (" + maxFps + "fps): " + getSubmittedCount() +
+				" submitted, " + getRenderedCount() + " rendered, " +
+				getDroppedCount() + " dropped, last waited " +
+				String.format("%.2fms", lastLatencyNanos / 1e6);
+	}
+
+}
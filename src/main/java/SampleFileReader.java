@@ -0,0 +1,177 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class streams samples out of a saved sample file a chunk at a time,
+ * so files bigger than the heap can be processed. Two layouts are read:
+ * - rows of "index,A,B" (or "A,B"), one sample of each channel per line
+ * - a list of channel A voltages separated by commas, e.g. all on one line
+ * The layout is worked out from the first line: if it has two or three
+ * values it is rows, otherwise it is a list of values.
+ */
+public class SampleFileReader implements Closeable {
+
+	private final Reader reader;
+
+	// read buffer
+	private final char[] buffer = new char[64 * 1024];
+	private int bufferLength;
+	private int bufferPosition;
+
+	// the value being read
+	private final StringBuilder token = new StringBuilder();
+
+	// values read ahead while working out the layout
+	private final double[] pending = new double[4];
+	private int pendingCount;
+	private int pendingPosition;
+
+	private int columns;
+	private double lastValue;
+
+	/**
+	 * @param reader - The file to read, ideally not buffered as this class
+	 *                 buffers itself
+	 * @throws IOException
+	 */
+	public SampleFileReader(Reader reader) throws IOException {
+		this.reader = reader;
+		detectLayout();
+	}
+
+	/**
+	 * @return whether the file has channel B samples
+	 */
+	public boolean hasChannelB() {
+		return columns > 1;
+	}
+
+	/**
+	 * Reads the next chunk of samples.
+	 * @param channelASamples - Where to write the channel A samples
+	 * @param channelBSamples - Where to write the channel B samples, left
+	 *                          untouched if the file has no channel B
+	 * @param maxSamples - The most samples to read
+	 * @return the number of samples read, 0 at the end of the file
+	 * @throws IOException if the file is not a valid sample file
+	 */
+	public int read(double[] channelASamples, double[] channelBSamples,
+			int maxSamples) throws IOException {
+		int count = 0;
+
+		while (count < maxSamples) {
+			if (columns <= 1) {
+				if (!nextValue()) {
+					break;
+				}
+				channelASamples[count++] = lastValue;
+			} else {
+				// skip the index column
+				if (columns == 3 && !nextValue()) {
+					break;
+				}
+				if (!nextValue()) {
+					break;
+				}
+				double a = lastValue;
+				if (!nextValue()) {
+					throw new IOException("Missing channel B value");
+				}
+				channelASamples[count] = a;
+				channelBSamples[count++] = lastValue;
+			}
+		}
+
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * Reads values from the first line, up to one more than a row can have
+	 */
+	private void detectLayout() throws IOException {
+		int firstLineValues = 0;
+
+		while (firstLineValues < pending.length) {
+			int terminator = readToken();
+			if (token.length() > 0) {
+				pending[pendingCount++] = parse();
+				firstLineValues++;
+			}
+			if (terminator == '\n' || terminator == -1) {
+				break;
+			}
+		}
+
+		columns = firstLineValues == 2 || firstLineValues == 3 ?
+				firstLineValues : 1;
+	}
+
+	/**
+	 * Moves to the next value, read ahead or from the file
+	 * @return whether there was one
+	 */
+	private boolean nextValue() throws IOException {
+		if (pendingPosition < pendingCount) {
+			lastValue = pending[pendingPosition++];
+			return true;
+		}
+
+		while (true) {
+			int terminator = readToken();
+			if (token.length() > 0) {
+				lastValue = parse();
+				return true;
+			}
+			if (terminator == -1) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Reads characters up to the next comma or line break into token
+	 * @return the character that ended the value, or -1 at the end of file
+	 */
+	private int readToken() throws IOException {
+		token.setLength(0);
+
+		while (true) {
+			if (bufferPosition == bufferLength) {
+				bufferLength = reader.read(buffer);
+				bufferPosition = 0;
+				if (bufferLength <= 0) {
+					bufferLength = 0;
+					return -1;
+				}
+			}
+
+			char c = buffer[bufferPosition++];
+
+			if (c == ',' || c == '\n') {
+				return c;
+			}
+			if (!Character.isWhitespace(c)) {
+				token.append(c);
+			}
+		}
+	}
+
+	private double parse() throws IOException {
+		try {
+			return Double.parseDouble(token.toString());
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid sample " + token);
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * This class decodes the sample frames that the firmware sends after a
+ * SEND_SAMPLE_START command. A frame is made up of the channel A block, the
+ * channel B block and a 4 byte footer, all little endian. The whole frame is
+ * read into a pooled buffer, so decoding a capture does not allocate anything
+ * per sample. Buffers are handed back with release() once decoded, which lets
+ * a frame be decoded on another thread while the next one is being read.
+ */
+public class SampleFrameDecoder {
+
+	// Each sample is sent as a little endian 16 bit value
+	static final int BYTES_PER_SAMPLE = 2;
+
+	// The footer holds the SEND_SAMPLE_END command and padding
+	static final int FOOTER_SIZE = 4;
+
+	// How many released frame buffers are kept for reuse
+	static final int POOL_SIZE = 4;
+
+	private final ArrayBlockingQueue<byte[]> freeFrames =
+			new ArrayBlockingQueue<>(POOL_SIZE);
+
+	/**
+	 * Reads a whole frame (channel A block, channel B block and the footer)
+	 * from the input stream with a single read into a pooled buffer. A new
+	 * buffer is only allocated when none has been released, or a larger
+	 * capture than before is received.
+	 * @param input - The stream connected to the firmware
+	 * @param numSamples - The number of samples to expect per channel
+	 * @return the little endian frame buffer, valid until it is released
+	 * @throws IOException
+	 */
+	public ByteBuffer readFrame(DataInputStream input, int numSamples)
+			throws IOException {
+		int frameSize = getFrameSize(numSamples);
+
+		byte[] frame = freeFrames.poll();
+		if (frame == null || frame.length < frameSize) {
+			frame = new byte[frameSize];
+		}
+
+		input.readFully(frame, 0, frameSize);
+		return ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Hands a frame buffer back to the pool once it has been decoded. If the
+	 * pool is full the buffer is left for the garbage collector. Frames that
+	 * did not come from readFrame (e.g. replayed from a mapped capture file)
+	 * are ignored.
+	 * @param frame - A buffer returned by readFrame
+	 */
+	public void release(ByteBuffer frame) {
+		if (frame.hasArray()) {
+			freeFrames.offer(frame.array());
+		}
+	}
+
+	/**
+	 * Converts the channel A and channel B blocks of a frame into voltages in
+	 * one pass, using absolute reads so the buffer position is untouched.
+	 * @param frame - The little endian frame buffer
+	 * @param numSamples - The number of samples per channel in the frame
+	 * @param channelASamples - Where to write the channel A voltages
+	 * @param channelBSamples - Where to write the channel B voltages
+	 */
+	public static void decodeSamples(ByteBuffer frame, int numSamples,
+			double[] channelASamples, double[] channelBSamples) {
+		int channelBOffset = numSamples * BYTES_PER_SAMPLE;
+
+		for (int i = 0; i < numSamples; i++) {
+			int offset = i * BYTES_PER_SAMPLE;
+			channelASamples[i] = toVoltage(frame.getShort(offset));
+			channelBSamples[i] = toVoltage(frame.getShort(channelBOffset + offset));
+		}
+	}
+
+	/**
+	 * Gets the command in the footer of a frame. For a well formed frame this
+	 * is SEND_SAMPLE_END.
+	 * @param frame - The little endian frame buffer
+	 * @param numSamples - The number of samples per channel in the frame
+	 * @return the footer command
+	 */
+	public static short getFooterCommand(ByteBuffer frame, int numSamples) {
+		return frame.getShort(2 * numSamples * BYTES_PER_SAMPLE);
+	}
+
+	/**
+	 * @param numSamples - The number of samples per channel
+	 * @return the size of a frame in bytes, including the footer
+	 */
+	public static int getFrameSize(int numSamples) {
+		return 2 * numSamples * BYTES_PER_SAMPLE + FOOTER_SIZE;
+	}
+
+	/*
+	 * Convert raw adc reading to meaningful one.
+	 */
+	public static double toVoltage(short sample) {
+		return (3.3 * sample / 4095);
+	}
+
+}
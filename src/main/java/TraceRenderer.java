@@ -0,0 +1,311 @@
+import java.util.Arrays;
+
+import dsp.MinMaxPyramid;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * This class draws a channel trace onto the oscilloscope display. Samples are
+ * spaced evenly across the width of the display and scaled by the horizontal
+ * zoom, as they always have been, starting from the viewport's first sample
+ * at the left edge. When there is more than one sample per
+ * pixel column, each column is drawn as a single vertical line spanning the
+ * smallest and largest sample that falls in it (found from the channel's
+ * min/max pyramid), so spikes are never lost and a trace never takes more
+ * lines than there are columns, however long the record is or wherever the
+ * viewport is in it. When zoomed in past one sample per pixel the samples
+ * are joined with lines as before. Either way only the samples on the
+ * display are visited, so drawing any part of a deep record costs about the
+ * same.
+ *
+ * A trace is drawn as a single shape with its colour set once: one open
+ * polyline through the samples, or one set of LINES for the columns. The
+ * vertices are kept in pixels across and volts up, so redrawing the same
+ * trace at another vertical resolution only maps the volts to pixels
+ * again, without going back to the pyramid. The trigger marker is drawn
+ * separately with renderTrigger.
+ */
+public class TraceRenderer {
+
+	private final float width;
+	private final float height;
+	private final float verticalSectionSize;
+	private final float horizontalZero;
+
+	// min (index 0) and max (index 1) of a column, reused between columns
+	private final double[] columnMinMax = new double[2];
+
+	// The vertices of the last trace drawn (x in pixels, y in volts), and
+	// what they were built from
+	private float[] vertexX = new float[0];
+	private double[] vertexVolts = new double[0];
+	private int vertexCount;
+	private boolean envelopes;
+	private MinMaxPyramid vertexPyramid;
+	private Viewport vertexViewport;
+
+	/**
+	 * @param width - The width of the plotting area
+	 * @param height - The height of the plotting area
+	 * @param verticalSectionSize - The height of one vertical division
+	 */
+	public TraceRenderer(float width, float height, float verticalSectionSize) {
+		this.width = width;
+		this.height = height;
+		this.verticalSectionSize = verticalSectionSize;
+		this.horizontalZero = height / 2;
+	}
+
+	/**
+	 * Draws a trace.
+	 * @param graphics - The graphics to draw onto
+	 * @param pyramid - The min/max pyramid of the samples to draw
+	 * @param channelColors - The line color of the trace
+	 * @param verticalResolution - The volts per division to plot at
+	 * @param viewport - The part of the record on the display
+	 * @return one past the last sample index that is on the display
+	 */
+	public int render(PGraphics graphics, MinMaxPyramid pyramid,
+			int[] channelColors, double verticalResolution, Viewport viewport) {
+
+		int numSamples = pyramid.getSamples().length;
+
+		if (numSamples == 0) {
+			return 0;
+		}
+
+		int visibleEnd = visibleEnd(numSamples, viewport);
+
+		// only the vertical scale changed since the last trace, so the
+		// vertices can be reused
+		if (pyramid != vertexPyramid || !viewport.equals(vertexViewport)) {
+			buildVertices(pyramid, visibleEnd, viewport);
+		}
+
+		graphics.stroke(channelColors[0], channelColors[1], channelColors[2]);
+		graphics.noFill();
+
+		// the envelope columns are separate lines, the samples one polyline
+		if (envelopes) {
+			graphics.beginShape(PConstants.LINES);
+		} else {
+			graphics.beginShape();
+		}
+
+		for (int i = 0; i < vertexCount; i++) {
+			graphics.vertex(vertexX[i],
+					sampleY(vertexVolts[i], verticalResolution));
+		}
+
+		graphics.endShape();
+
+		return visibleEnd;
+	}
+
+	/**
+	 * Draws a vertical line at the trigger point, if it is on the display.
+	 * @param graphics - The graphics to draw onto
+	 * @param numSamples - The number of samples in the record the trigger
+	 *                     index is in
+	 * @param triggerIndex - The index of the trigger point
+	 * @param viewport - The part of the record on the display
+	 */
+	public void renderTrigger(PGraphics graphics, int numSamples,
+			int triggerIndex, Viewport viewport) {
+
+		if (numSamples == 0) {
+			return;
+		}
+
+		int start = viewport.getStartIndex();
+		int lastDrawn = Math.min(visibleEnd(numSamples, viewport),
+				numSamples - 1);
+
+		if (triggerIndex >= 1 && triggerIndex >= start &&
+				triggerIndex <= lastDrawn) {
+			//draw a vertical line to indicate the trigger point
+			float x = sampleX(numSamples, triggerIndex - start,
+					viewport.getHorizontalScalingFactor());
+			graphics.stroke(255,153,204,80);
+			graphics.line(x, 0, x, height);
+		}
+	}
+
+	/**
+	 * Forgets the vertices of the last trace, so the next one is built from
+	 * its pyramid even if it is the same one
+	 */
+	public void clear() {
+		vertexPyramid = null;
+	}
+
+	/**
+	 * @param numSamples - The number of samples in the record
+	 * @param viewport - The part of the record on the display
+	 * @return one past the last sample index that is on the display
+	 */
+	public int visibleEnd(int numSamples, Viewport viewport) {
+		return (int) Math.min(numSamples, (long) viewport.getStartIndex() +
+				visibleSampleCount(numSamples,
+						viewport.getHorizontalScalingFactor()));
+	}
+
+	/**
+	 * Works out how many samples from the start of a record are on the display,
+	 * i.e. the index of the first sample past the right edge, or the number of
+	 * samples if the whole record fits. The estimate is corrected against the
+	 * exact coordinate calculation so the result matches stepping through the
+	 * samples one at a time.
+	 * @param numSamples - The number of samples in the record
+	 * @param horizontalScalingFactor - The horizontal zoom
+	 * @return one past the last visible sample index
+	 */
+	public int visibleSampleCount(int numSamples, double horizontalScalingFactor) {
+		double estimate = width / ((1000f / numSamples) * horizontalScalingFactor);
+		int index = (int) Math.max(1, Math.min(numSamples, Math.floor(estimate)));
+
+		while (index > 1 && offScreen(numSamples, index - 1,
+				horizontalScalingFactor)) {
+			index--;
+		}
+
+		while (index < numSamples && !offScreen(numSamples, index,
+				horizontalScalingFactor)) {
+			index++;
+		}
+
+		return index;
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * Works out the vertices of a trace, as a polyline through the samples
+	 * when there is at least a pixel per sample, otherwise as a line per
+	 * pixel column
+	 */
+	private void buildVertices(MinMaxPyramid pyramid, int visibleEnd,
+			Viewport viewport) {
+
+		int numSamples = pyramid.getSamples().length;
+		int start = Math.min(viewport.getStartIndex(), numSamples - 1);
+		double horizontalScalingFactor = viewport.getHorizontalScalingFactor();
+
+		// the sample just past the right edge is joined to as well
+		int lastDrawn = Math.min(visibleEnd, numSamples - 1);
+
+		double pixelsPerSample = (1000f / numSamples) * horizontalScalingFactor;
+		envelopes = pixelsPerSample < 1;
+
+		if (envelopes) {
+			buildEnvelopes(pyramid, start, lastDrawn, pixelsPerSample);
+		} else {
+			buildLines(pyramid.getSamples(), start, lastDrawn,
+					horizontalScalingFactor);
+		}
+
+		vertexPyramid = pyramid;
+		vertexViewport = viewport;
+	}
+
+	/**
+	 * Joins samples start to lastDrawn
+	 */
+	private void buildLines(double[] samples, int start, int lastDrawn,
+			double horizontalScalingFactor) {
+
+		ensureCapacity(lastDrawn + 1 - start);
+		vertexCount = 0;
+
+		for (int i = start; i <= lastDrawn; i++) {
+			addVertex(sampleX(samples.length, i - start,
+					horizontalScalingFactor), samples[i]);
+		}
+	}
+
+	/**
+	 * One vertical line per pixel column, spanning the samples in that
+	 * column and the last sample of the column before, so neighbouring
+	 * columns join up.
+	 */
+	private void buildEnvelopes(MinMaxPyramid pyramid, int start,
+			int lastDrawn, double pixelsPerSample) {
+
+		double[] samples = pyramid.getSamples();
+		int from = start;
+		int drawn = lastDrawn + 1 - start;
+
+		// at most one column per sample, and per pixel across the display
+		ensureCapacity(2 * (int) Math.min(drawn,
+				Math.ceil(drawn * pixelsPerSample) + 1));
+		vertexCount = 0;
+
+		for (int column = 0; from <= lastDrawn; column++) {
+			int to = (int) Math.min(lastDrawn + 1,
+					start + Math.ceil((column + 1) / pixelsPerSample));
+
+			if (to <= from) {
+				continue;
+			}
+
+			pyramid.range(from, to, columnMinMax);
+			double min = columnMinMax[0];
+			double max = columnMinMax[1];
+
+			if (from > 0) {
+				min = Math.min(min, samples[from - 1]);
+				max = Math.max(max, samples[from - 1]);
+			}
+
+			addVertex(column, max);
+			addVertex(column, min);
+
+			from = to;
+		}
+	}
+
+	private void ensureCapacity(int vertices) {
+		if (vertexX.length < vertices) {
+			vertexX = Arrays.copyOf(vertexX, vertices);
+			vertexVolts = Arrays.copyOf(vertexVolts, vertices);
+		}
+	}
+
+	private void addVertex(float x, double volts) {
+		if (vertexCount == vertexX.length) {
+			ensureCapacity(2 * vertexCount + 2);
+		}
+
+		vertexX[vertexCount] = x;
+		vertexVolts[vertexCount] = volts;
+		vertexCount++;
+	}
+
+	/**
+	 * @return the x coordinate of a sample
+	 */
+	private float sampleX(int numSamples, int index,
+			double horizontalScalingFactor) {
+		float widthScaling = (float)1000.0/(float)numSamples;
+		return (float) (widthScaling * index * horizontalScalingFactor);
+	}
+
+	/**
+	 * @return the y coordinate of a voltage
+	 */
+	private float sampleY(double sample, double verticalResolution) {
+		return (float)(-(sample * verticalSectionSize * 1/verticalResolution)
+				+ horizontalZero);
+	}
+
+	/**
+	 * @return whether a sample is past the right edge of the display
+	 */
+	private boolean offScreen(int numSamples, int index,
+			double horizontalScalingFactor) {
+		return sampleX(numSamples, index, horizontalScalingFactor) > width;
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ * This class is the part of a record that is on the oscilloscope display:
+ * the index of the sample at the left edge, and the horizontal zoom. At a
+ * scaling factor of 1 the whole record is spread over RECORD_WIDTH pixels,
+ * as TraceRenderer plots it, so the samples per pixel follow from the zoom
+ * and the length of the record. Viewports are immutable; panning and zooming
+ * make new ones, kept within the record.
+ */
+public final class Viewport {
+
+	// The pixels a whole record spans at a scaling factor of 1
+	static final int RECORD_WIDTH = 1000;
+
+	private final int startIndex;
+	private final double horizontalScalingFactor;
+
+	/**
+	 * @param startIndex - The index of the sample at the left edge
+	 * @param horizontalScalingFactor - The horizontal zoom, 1 to fit the
+	 *                                  whole record to the display
+	 */
+	public Viewport(int startIndex, double horizontalScalingFactor) {
+		this.startIndex = startIndex;
+		this.horizontalScalingFactor = horizontalScalingFactor;
+	}
+
+	/**
+	 * @return the viewport of a whole record, which new captures are shown
+	 *         at
+	 */
+	public static Viewport wholeRecord() {
+		return new Viewport(0, 1);
+	}
+
+	/**
+	 * @param pixels - How far to move, right for positive
+	 * @param numSamples - The length of the record
+	 * @return the viewport moved across the record by a number of pixels
+	 */
+	public Viewport panBy(double pixels, int numSamples) {
+		int start = (int) Math.round(startIndex +
+				pixels * getSamplesPerPixel(numSamples));
+
+		return new Viewport(clampStart(start, numSamples,
+				horizontalScalingFactor), horizontalScalingFactor);
+	}
+
+	/**
+	 * @param horizontalScalingFactor - The new horizontal zoom
+	 * @param numSamples - The length of the record
+	 * @return the viewport at another zoom, around the same sample in the
+	 *         middle of the display
+	 */
+	public Viewport zoomTo(double horizontalScalingFactor, int numSamples) {
+		double middle = startIndex +
+				RECORD_WIDTH / 2.0 * getSamplesPerPixel(numSamples);
+		double samplesPerPixel = numSamples /
+				(RECORD_WIDTH * horizontalScalingFactor);
+		int start = (int) Math.round(middle -
+				RECORD_WIDTH / 2.0 * samplesPerPixel);
+
+		return new Viewport(clampStart(start, numSamples,
+				horizontalScalingFactor), horizontalScalingFactor);
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	public int getStartIndex() {
+		return startIndex;
+	}
+
+	public double getHorizontalScalingFactor() {
+		return horizontalScalingFactor;
+	}
+
+	/**
+	 * @param numSamples - The length of the record
+	 * @return how many samples each pixel column spans
+	 */
+	public double getSamplesPerPixel(int numSamples) {
+		return numSamples / (RECORD_WIDTH * horizontalScalingFactor);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Viewport)) {
+			return false;
+		}
+
+		Viewport viewport = (Viewport) other;
+		return startIndex == viewport.startIndex &&
+				horizontalScalingFactor == viewport.horizontalScalingFactor;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * startIndex + Double.hashCode(horizontalScalingFactor);
+	}
+
+	@Override
+	public String toString() {
+		return "Viewport from sample " + startIndex + " at x" +
+				horizontalScalingFactor;
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	/**
+	 * @return the start index moved, if need be, so the display starts within
+	 *         the record and is filled up to the end of it
+	 */
+	private static int clampStart(int start, int numSamples,
+			double horizontalScalingFactor) {
+		int samplesOnDisplay = (int) Math.ceil(numSamples /
+				horizontalScalingFactor);
+
+		return Math.max(0, Math.min(start, numSamples - samplesOnDisplay));
+	}
+
+}
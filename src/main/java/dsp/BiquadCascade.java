@@ -0,0 +1,605 @@
+package dsp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An IIR filter factored into a cascade of second order sections (biquads),
+ * each run in transposed direct form II. The filter's a and b polynomials
+ * are factored once, when the filter is loaded, by finding their roots and
+ * pairing complex conjugate roots into real second order factors. High order
+ * filters are then far less sensitive to rounding than the single high order
+ * difference equation IirFilter runs, and each output sample costs five
+ * multiply-adds per section, with the whole filter state in one small array.
+ *
+ * The factorisation is checked by multiplying the sections back out and
+ * comparing with the original coefficients. design returns null if that
+ * check fails, and the filter should then be run with IirFilter.
+ */
+public final class BiquadCascade {
+
+	// Coefficients per section: b0, b1, b2, a1, a2 (a0 is 1)
+	private static final int COEFFICIENTS = 5;
+
+	// How close the sections multiplied back out must be to the original
+	// coefficients, relative to the largest coefficient. Tight clusters of
+	// poles (a high order filter with a low cut off) are only determined by
+	// the coefficients to about 1e-8.
+	private static final double DESIGN_TOLERANCE = 1e-7;
+
+	// Root finding
+	private static final int MAX_ITERATIONS = 500;
+	private static final double ROOT_TOLERANCE = 1e-15;
+
+	// Distances (relative to the root) within which neighbouring roots are
+	// taken to be one multiple root, tried in turn until the factors match
+	// the polynomial
+	private static final double[] CLUSTER_RADII = {0, 1e-7, 1e-5, 1e-3, 1e-2,
+			3e-2, 1e-1};
+
+	private final int numSections;
+	private final double[] coefficients;
+
+	// s1 and s2 of each section, carried from one call of filter to the next
+	private final double[] state;
+
+	private BiquadCascade(double[] coefficients) {
+		this.numSections = coefficients.length / COEFFICIENTS;
+		this.coefficients = coefficients;
+		this.state = new double[2 * numSections];
+	}
+
+	/**
+	 * Factors an IIR filter into second order sections.
+	 * @param b - The feedforward coefficients
+	 * @param a - The feedback coefficients, a[0] normalises the output
+	 * @return the cascade, or null if the filter could not be factored
+	 *         accurately
+	 */
+	public static BiquadCascade design(double[] b, double[] a) {
+		if (a.length == 0 || a[0] == 0 || b.length == 0 || b[0] == 0) {
+			return null;
+		}
+
+		// normalise so a[0] is 1 and b[0] is the overall gain
+		double[] normalB = trim(scale(b, 1 / a[0]));
+		double[] normalA = trim(scale(a, 1 / a[0]));
+		double gain = normalB[0];
+
+		double[][] zeroFactors = quadraticFactors(normalB);
+		double[][] poleFactors = quadraticFactors(normalA);
+
+		if (zeroFactors == null || poleFactors == null) {
+			return null;
+		}
+
+		double[] coefficients = pairSections(zeroFactors, poleFactors, gain);
+
+		if (!matches(coefficients, normalB, normalA)) {
+			return null;
+		}
+
+		return new BiquadCascade(coefficients);
+	}
+
+	public int getNumSections() {
+		return numSections;
+	}
+
+	/**
+	 * Clears the filter state, so the next sample is filtered as if all
+	 * earlier samples were 0
+	 */
+	public void reset() {
+		Arrays.fill(state, 0);
+	}
+
+	/**
+	 * Filters in[from, to) into out[from, to), carrying on from the state
+	 * the last call left. in and out may be the same array.
+	 * @param in - The samples to filter
+	 * @param out - Where to write the filtered samples
+	 * @param from - The first index to filter
+	 * @param to - One past the last index to filter
+	 */
+	public void filter(double[] in, double[] out, int from, int to) {
+		double[] source = in;
+
+		// each section filters the whole block in turn, the first reading the
+		// input and the rest working in place on the output
+		for (int s = 0; s < numSections; s++) {
+			int c = s * COEFFICIENTS;
+			double b0 = coefficients[c];
+			double b1 = coefficients[c + 1];
+			double b2 = coefficients[c + 2];
+			double a1 = coefficients[c + 3];
+			double a2 = coefficients[c + 4];
+			double s1 = state[2 * s];
+			double s2 = state[2 * s + 1];
+
+			for (int i = from; i < to; i++) {
+				double x = source[i];
+				double y = b0 * x + s1;
+				s1 = b1 * x - a1 * y + s2;
+				s2 = b2 * x - a2 * y;
+				out[i] = y;
+			}
+
+			state[2 * s] = s1;
+			state[2 * s + 1] = s2;
+			source = out;
+		}
+	}
+
+	/*************************************************
+	 * Private helper methods
+	 *************************************************/
+
+	private static double[] scale(double[] values, double factor) {
+		double[] scaled = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			scaled[i] = values[i] * factor;
+		}
+		return scaled;
+	}
+
+	/**
+	 * Drops trailing zero coefficients, e.g. the padding of the shorter
+	 * column of a filter file
+	 */
+	private static double[] trim(double[] values) {
+		int length = values.length;
+		while (length > 1 && values[length - 1] == 0) {
+			length--;
+		}
+		return Arrays.copyOf(values, length);
+	}
+
+	/**
+	 * Factors 1 + c[1] z^-1 + ... + c[n] z^-n (c scaled so c[0] is 1) into
+	 * factors of the form 1 + f1 z^-1 + f2 z^-2 with real coefficients. An
+	 * odd order leaves one first order factor, with f2 = 0.
+	 *
+	 * A root of multiplicity m is only found to about the m-th root of the
+	 * rounding error, e.g. the (1 + z^-1)^n numerator of a Butterworth low
+	 * pass, although the centre of the cluster of roots found is accurate.
+	 * If the roots as found do not multiply back out to the polynomial,
+	 * roots that are closer and closer together are replaced by the centre
+	 * of their cluster until they do.
+	 * @param polynomial - The coefficients, c[0] non zero
+	 * @return {f1, f2} of each factor, or null if the roots could not be
+	 *         found or paired accurately
+	 */
+	private static double[][] quadraticFactors(double[] polynomial) {
+		if (polynomial.length == 1) {
+			return new double[0][];
+		}
+
+		// the roots of c[0] z^n + c[1] z^(n-1) + ... + c[n]
+		double[][] roots = findRoots(polynomial);
+		if (roots == null) {
+			return null;
+		}
+
+		for (double clusterRadius : CLUSTER_RADII) {
+			double[][] factors = pairRoots(cluster(polynomial, roots,
+					clusterRadius));
+
+			if (factors != null && close(expand(factors, polynomial[0]),
+					polynomial)) {
+				return factors;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Replaces each group of roots that are each within a radius of another
+	 * in the group by one multiple root. A root of multiplicity m is a simple
+	 * root of the (m - 1)th derivative, so it is found accurately with
+	 * Newton's method on the derivative, starting from the centre of the
+	 * group.
+	 */
+	private static double[][] cluster(double[] polynomial, double[][] roots,
+			double radius) {
+		double[] re = roots[0].clone();
+		double[] im = roots[1].clone();
+
+		if (radius == 0) {
+			return new double[][]{re, im};
+		}
+
+		int n = re.length;
+		boolean[] assigned = new boolean[n];
+		int[] members = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			if (assigned[i]) {
+				continue;
+			}
+
+			assigned[i] = true;
+			members[0] = i;
+			int count = 1;
+
+			// grow the group until no other root is near any of its members
+			for (int k = 0; k < count; k++) {
+				int member = members[k];
+				double limit = radius * Math.max(1,
+						Math.hypot(roots[0][member], roots[1][member]));
+
+				for (int j = i + 1; j < n; j++) {
+					if (!assigned[j] && Math.hypot(roots[0][j] - roots[0][member],
+							roots[1][j] - roots[1][member]) <= limit) {
+						assigned[j] = true;
+						members[count++] = j;
+					}
+				}
+			}
+
+			double sumRe = 0;
+			double sumIm = 0;
+			for (int m = 0; m < count; m++) {
+				sumRe += roots[0][members[m]];
+				sumIm += roots[1][members[m]];
+			}
+
+			double[] root = {sumRe / count, sumIm / count};
+			if (count > 1) {
+				root = newton(derivative(polynomial, count - 1), root);
+			}
+
+			for (int m = 0; m < count; m++) {
+				re[members[m]] = root[0];
+				im[members[m]] = root[1];
+			}
+		}
+
+		return new double[][]{re, im};
+	}
+
+	/**
+	 * Pairs complex roots with their conjugates, and real roots two at a
+	 * time, into real second order factors
+	 * @return {f1, f2} of each factor, or null if a complex root has no
+	 *         conjugate
+	 */
+	private static double[][] pairRoots(double[][] roots) {
+		double[] re = roots[0];
+		double[] im = roots[1];
+		int n = re.length;
+
+		List<double[]> factors = new ArrayList<>();
+		List<Double> realRoots = new ArrayList<>();
+		boolean[] used = new boolean[n];
+
+		for (int i = 0; i < n; i++) {
+			if (used[i]) {
+				continue;
+			}
+			used[i] = true;
+
+			double magnitude = Math.max(1, Math.hypot(re[i], im[i]));
+			if (Math.abs(im[i]) <= 1e-9 * magnitude) {
+				realRoots.add(re[i]);
+				continue;
+			}
+
+			// pair with the closest unused root to the conjugate
+			int conjugate = -1;
+			double best = Double.MAX_VALUE;
+			for (int j = 0; j < n; j++) {
+				double distance = Math.hypot(re[j] - re[i], im[j] + im[i]);
+				if (!used[j] && distance < best) {
+					best = distance;
+					conjugate = j;
+				}
+			}
+
+			if (conjugate < 0 || best > Math.abs(im[i])) {
+				return null;
+			}
+			used[conjugate] = true;
+
+			// (1 - r z^-1)(1 - conj(r) z^-1)
+			double real = (re[i] + re[conjugate]) / 2;
+			double imaginary = (im[i] - im[conjugate]) / 2;
+			factors.add(new double[]{-2 * real,
+					real * real + imaginary * imaginary});
+		}
+
+		// real roots two at a time, the last one on its own if odd
+		for (int i = 0; i < realRoots.size(); i += 2) {
+			double r1 = realRoots.get(i);
+			if (i + 1 < realRoots.size()) {
+				double r2 = realRoots.get(i + 1);
+				factors.add(new double[]{-(r1 + r2), r1 * r2});
+			} else {
+				factors.add(new double[]{-r1, 0});
+			}
+		}
+
+		return factors.toArray(new double[factors.size()][]);
+	}
+
+	/**
+	 * @return the coefficients of the order-th derivative of c[0] z^n +
+	 *         c[1] z^(n-1) + ... + c[n], in the same form
+	 */
+	private static double[] derivative(double[] c, int order) {
+		double[] result = c;
+		for (int k = 0; k < order; k++) {
+			int n = result.length - 1;
+			double[] next = new double[n];
+			for (int i = 0; i < n; i++) {
+				next[i] = result[i] * (n - i);
+			}
+			result = next;
+		}
+		return result;
+	}
+
+	/**
+	 * Polishes a simple root of c[0] z^n + ... + c[n] with Newton's method
+	 * @param start - The real and imaginary parts of the starting point
+	 * @return the real and imaginary parts of the root
+	 */
+	private static double[] newton(double[] c, double[] start) {
+		double re = start[0];
+		double im = start[1];
+
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			double[] value = evaluate(c, re, im);
+			double dNorm = value[2] * value[2] + value[3] * value[3];
+			if (dNorm == 0) {
+				break;
+			}
+
+			double stepRe = (value[0] * value[2] + value[1] * value[3]) / dNorm;
+			double stepIm = (value[1] * value[2] - value[0] * value[3]) / dNorm;
+			re -= stepRe;
+			im -= stepIm;
+
+			if (Math.hypot(stepRe, stepIm) <= ROOT_TOLERANCE *
+					Math.max(1, Math.hypot(re, im))) {
+				break;
+			}
+		}
+
+		return new double[]{re, im};
+	}
+
+	/**
+	 * Evaluates c[0] z^n + ... + c[n] and its derivative by Horner's method
+	 * @return the real and imaginary parts of p(z), then of p'(z)
+	 */
+	private static double[] evaluate(double[] c, double re, double im) {
+		double pRe = c[0], pIm = 0, dRe = 0, dIm = 0;
+
+		for (int j = 1; j < c.length; j++) {
+			double nextDRe = dRe * re - dIm * im + pRe;
+			double nextDIm = dRe * im + dIm * re + pIm;
+			dRe = nextDRe;
+			dIm = nextDIm;
+			double nextPRe = pRe * re - pIm * im + c[j];
+			double nextPIm = pRe * im + pIm * re;
+			pRe = nextPRe;
+			pIm = nextPIm;
+		}
+
+		return new double[]{pRe, pIm, dRe, dIm};
+	}
+
+	/**
+	 * Multiplies factors of the form 1 + f1 z^-1 + f2 z^-2 out
+	 */
+	private static double[] expand(double[][] factors, double gain) {
+		double[] product = {gain};
+		for (double[] factor : factors) {
+			product = multiply(product, 1, factor[0], factor[1]);
+		}
+		return product;
+	}
+
+	/**
+	 * Finds all the complex roots of c[0] z^n + c[1] z^(n-1) + ... + c[n]
+	 * at once with the Aberth-Ehrlich method, so no accuracy is lost to
+	 * deflation.
+	 * @return the real parts and imaginary parts of the roots, or null if
+	 *         they did not converge
+	 */
+	private static double[][] findRoots(double[] c) {
+		int n = c.length - 1;
+		double[] re = new double[n];
+		double[] im = new double[n];
+
+		// start on a circle with the geometric mean radius of the roots
+		double radius = Math.pow(Math.abs(c[n] / c[0]), 1.0 / n);
+		if (radius == 0 || Double.isNaN(radius) || Double.isInfinite(radius)) {
+			radius = 1;
+		}
+		for (int k = 0; k < n; k++) {
+			double angle = 2 * Math.PI * k / n + 0.4;
+			re[k] = radius * Math.cos(angle);
+			im[k] = radius * Math.sin(angle);
+		}
+
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			boolean converged = true;
+
+			for (int k = 0; k < n; k++) {
+				double[] value = evaluate(c, re[k], im[k]);
+				double pRe = value[0], pIm = value[1];
+				double dRe = value[2], dIm = value[3];
+
+				if (pRe == 0 && pIm == 0) {
+					continue;
+				}
+
+				// ratio = p / p'
+				double dNorm = dRe * dRe + dIm * dIm;
+				if (dNorm == 0) {
+					return null;
+				}
+				double ratioRe = (pRe * dRe + pIm * dIm) / dNorm;
+				double ratioIm = (pIm * dRe - pRe * dIm) / dNorm;
+
+				// sum of 1 / (z_k - z_j) over the other roots
+				double sumRe = 0, sumIm = 0;
+				for (int j = 0; j < n; j++) {
+					if (j != k) {
+						double diffRe = re[k] - re[j];
+						double diffIm = im[k] - im[j];
+						double diffNorm = diffRe * diffRe + diffIm * diffIm;
+						sumRe += diffRe / diffNorm;
+						sumIm -= diffIm / diffNorm;
+					}
+				}
+
+				// w = ratio / (1 - ratio * sum)
+				double denRe = 1 - (ratioRe * sumRe - ratioIm * sumIm);
+				double denIm = -(ratioRe * sumIm + ratioIm * sumRe);
+				double denNorm = denRe * denRe + denIm * denIm;
+				double wRe = (ratioRe * denRe + ratioIm * denIm) / denNorm;
+				double wIm = (ratioIm * denRe - ratioRe * denIm) / denNorm;
+
+				re[k] -= wRe;
+				im[k] -= wIm;
+
+				if (Math.hypot(wRe, wIm) > ROOT_TOLERANCE *
+						Math.max(1, Math.hypot(re[k], im[k]))) {
+					converged = false;
+				}
+			}
+
+			if (converged) {
+				return new double[][]{re, im};
+			}
+		}
+
+		// double rounding can stop the last digit settling, so accept the
+		// roots and leave the check against the coefficients to decide
+		for (int k = 0; k < n; k++) {
+			if (Double.isNaN(re[k]) || Double.isNaN(im[k])) {
+				return null;
+			}
+		}
+		return new double[][]{re, im};
+	}
+
+	/**
+	 * Pairs each pole factor with the zero factor nearest to it, starting
+	 * from the poles closest to the unit circle, and puts the gain on the
+	 * first section.
+	 * @return the coefficients of the sections, b0, b1, b2, a1, a2 each
+	 */
+	private static double[] pairSections(double[][] zeroFactors,
+			double[][] poleFactors, double gain) {
+		int numSections = Math.max(1, Math.max(zeroFactors.length,
+				poleFactors.length));
+
+		// a factor's f2 is the product of its roots, so |f2| (or |f1| for a
+		// first order factor) says how close to the unit circle it is
+		Integer[] poleOrder = new Integer[poleFactors.length];
+		for (int i = 0; i < poleOrder.length; i++) {
+			poleOrder[i] = i;
+		}
+		Arrays.sort(poleOrder, (x, y) -> Double.compare(
+				radius(poleFactors[y]), radius(poleFactors[x])));
+
+		double[] coefficients = new double[numSections * COEFFICIENTS];
+		boolean[] zeroUsed = new boolean[zeroFactors.length];
+
+		for (int s = 0; s < numSections; s++) {
+			int c = s * COEFFICIENTS;
+			double[] pole = s < poleOrder.length ?
+					poleFactors[poleOrder[s]] : new double[]{0, 0};
+
+			int nearest = -1;
+			double best = Double.MAX_VALUE;
+			for (int z = 0; z < zeroFactors.length; z++) {
+				double distance = Math.hypot(zeroFactors[z][0] - pole[0],
+						zeroFactors[z][1] - pole[1]);
+				if (!zeroUsed[z] && distance < best) {
+					best = distance;
+					nearest = z;
+				}
+			}
+
+			double[] zero = new double[]{0, 0};
+			if (nearest >= 0) {
+				zeroUsed[nearest] = true;
+				zero = zeroFactors[nearest];
+			}
+
+			coefficients[c] = 1;
+			coefficients[c + 1] = zero[0];
+			coefficients[c + 2] = zero[1];
+			coefficients[c + 3] = pole[0];
+			coefficients[c + 4] = pole[1];
+		}
+
+		coefficients[0] *= gain;
+		coefficients[1] *= gain;
+		coefficients[2] *= gain;
+		return coefficients;
+	}
+
+	private static double radius(double[] factor) {
+		return factor[1] != 0 ? Math.sqrt(Math.abs(factor[1])) :
+				Math.abs(factor[0]);
+	}
+
+	/**
+	 * Multiplies the sections back out and compares them with the
+	 * normalised coefficients they were factored from
+	 */
+	private static boolean matches(double[] coefficients, double[] b,
+			double[] a) {
+		double[] productB = {1};
+		double[] productA = {1};
+
+		for (int c = 0; c < coefficients.length; c += COEFFICIENTS) {
+			productB = multiply(productB, coefficients[c], coefficients[c + 1],
+					coefficients[c + 2]);
+			productA = multiply(productA, 1, coefficients[c + 3],
+					coefficients[c + 4]);
+		}
+
+		return close(productB, b) && close(productA, a);
+	}
+
+	private static double[] multiply(double[] polynomial, double f0, double f1,
+			double f2) {
+		double[] product = new double[polynomial.length + 2];
+		for (int i = 0; i < polynomial.length; i++) {
+			product[i] += polynomial[i] * f0;
+			product[i + 1] += polynomial[i] * f1;
+			product[i + 2] += polynomial[i] * f2;
+		}
+		return product;
+	}
+
+	/**
+	 * Compares coefficients, reading the shorter array as padded with zeros
+	 */
+	private static boolean close(double[] product, double[] original) {
+		double largest = 0;
+		for (double value : original) {
+			largest = Math.max(largest, Math.abs(value));
+		}
+
+		int length = Math.max(product.length, original.length);
+		for (int i = 0; i < length; i++) {
+			double p = i < product.length ? product[i] : 0;
+			double o = i < original.length ? original[i] : 0;
+			if (!(Math.abs(p - o) <= DESIGN_TOLERANCE * largest)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,57 @@
+package dsp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+/**
+ * A cache of FFT plans keyed by transform size. Constructing a DoubleFFT_1D
+ * precomputes its twiddle tables, which costs about as much as the transform
+ * itself, so plans are shared between channels and captures. The cache holds
+ * a bounded number of sizes and evicts the least recently used one, so a run
+ * of captures with different sample counts cannot grow it without limit.
+ */
+public final class FftPlanCache {
+
+	// The four channels share one record length, the FFT convolution engine
+	// adds one or two more sizes
+	static final int MAX_CACHED_PLANS = 8;
+
+	private static final Map<Integer, DoubleFFT_1D> plans =
+			new LinkedHashMap<Integer, DoubleFFT_1D>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Integer, DoubleFFT_1D> eldest) {
+					return size() > MAX_CACHED_PLANS;
+				}
+			};
+
+	private FftPlanCache() {}
+
+	/**
+	 * Gets the plan for a transform size, creating it if it is not cached.
+	 * Plans only hold read only tables, so they can be used by several
+	 * threads at once.
+	 * @param size - The number of points in the transform
+	 * @return the plan
+	 */
+	public static synchronized DoubleFFT_1D get(int size) {
+		DoubleFFT_1D plan = plans.get(size);
+
+		if (plan == null) {
+			plan = new DoubleFFT_1D(size);
+			plans.put(size, plan);
+		}
+
+		return plan;
+	}
+
+	/**
+	 * @return the number of plans currently cached
+	 */
+	public static synchronized int size() {
+		return plans.size();
+	}
+
+}
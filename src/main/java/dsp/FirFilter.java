@@ -0,0 +1,49 @@
+package dsp;
+
+/**
+ * Direct form FIR filter kernel. The output is causal with a zero initial
+ * state: out[i] is the sum of taps[j] * in[i - j] over the taps that reach
+ * back no further than the start of the input.
+ *
+ * The loop is split into a warm-up prefix, where the filter hangs off the
+ * start of the input, and a steady state body with a fixed trip count and no
+ * branches so the JIT can unroll and vectorise it.
+ */
+public final class FirFilter {
+
+	private FirFilter() {}
+
+	/**
+	 * Filters in[from, to) into out[from, to). Samples before from are read
+	 * as history, so a record can be filtered in independent chunks.
+	 * @param in - The samples to filter
+	 * @param taps - The filter coefficients
+	 * @param out - Where to write the filtered samples
+	 * @param from - The first output index to compute
+	 * @param to - One past the last output index to compute
+	 */
+	public static void filter(double[] in, double[] taps, double[] out,
+			int from, int to) {
+		int numTaps = taps.length;
+		int warmUpEnd = Math.min(Math.max(numTaps - 1, from), to);
+
+		// warm-up: only taps[0..i] overlap the input
+		for (int i = from; i < warmUpEnd; i++) {
+			double sum = 0;
+			for (int j = 0; j <= i; j++) {
+				sum += taps[j] * in[i - j];
+			}
+			out[i] = sum;
+		}
+
+		// steady state: every tap overlaps the input
+		for (int i = warmUpEnd; i < to; i++) {
+			double sum = 0;
+			for (int j = 0; j < numTaps; j++) {
+				sum += taps[j] * in[i - j];
+			}
+			out[i] = sum;
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package dsp;
+
+/**
+ * Direct form IIR filter kernel, with the coefficients as they are loaded
+ * from a two column filter file: the feedback (denominator) coefficients a
+ * and the feedforward (numerator) coefficients b.
+ *
+ * out[i] = (sum of b[j] * in[i - j] - sum over j >= 1 of a[j] * out[i - j])
+ *          / a[0]
+ *
+ * As with FirFilter the loop is split into a warm-up prefix and a branch free
+ * steady state body.
+ */
+public final class IirFilter {
+
+	private IirFilter() {}
+
+	/**
+	 * Filters in[from, to) into out[from, to). Inputs and outputs before from
+	 * are read as the filter's history.
+	 * @param in - The samples to filter
+	 * @param b - The feedforward coefficients
+	 * @param a - The feedback coefficients, a[0] normalises the output
+	 * @param out - Where to write the filtered samples
+	 * @param from - The first output index to compute
+	 * @param to - One past the last output index to compute
+	 */
+	public static void filter(double[] in, double[] b, double[] a,
+			double[] out, int from, int to) {
+		double gain = 1 / a[0];
+		int order = Math.max(b.length, a.length);
+		int warmUpEnd = Math.min(Math.max(order - 1, from), to);
+
+		// warm-up: the filter reaches back past the start of the input
+		for (int i = from; i < warmUpEnd; i++) {
+			double feedforward = 0;
+			double feedback = 0;
+
+			int bEnd = Math.min(b.length - 1, i);
+			for (int j = 0; j <= bEnd; j++) {
+				feedforward += b[j] * in[i - j];
+			}
+
+			int aEnd = Math.min(a.length - 1, i);
+			for (int j = 1; j <= aEnd; j++) {
+				feedback += a[j] * out[i - j];
+			}
+
+			out[i] = (feedforward - feedback) * gain;
+		}
+
+		// steady state: all of the history is available
+		for (int i = warmUpEnd; i < to; i++) {
+			double feedforward = 0;
+			double feedback = 0;
+
+			for (int j = 0; j < b.length; j++) {
+				feedforward += b[j] * in[i - j];
+			}
+
+			for (int j = 1; j < a.length; j++) {
+				feedback += a[j] * out[i - j];
+			}
+
+			out[i] = (feedforward - feedback) * gain;
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package dsp;
+
+/**
+ * Linear interpolation kernel used to upsample a record by an integer
+ * factor.
+ */
+public final class Interpolator {
+
+	private Interpolator() {}
+
+	/**
+	 * @return the number of samples linear() writes for a record
+	 */
+	public static int outputLength(int numSamples, int factor) {
+		return numSamples == 0 ? 0 : (numSamples - 1) * factor + 1;
+	}
+
+	/**
+	 * Upsamples in[0, numSamples) by the factor, writing factor - 1 evenly
+	 * stepped points between each pair of input samples. The last input
+	 * sample is written on its own, so outputLength() samples are written.
+	 * @param in - The samples to upsample
+	 * @param numSamples - The number of input samples
+	 * @param factor - The upsampling factor
+	 * @param out - Where to write the upsampled samples
+	 */
+	public static void linear(double[] in, int numSamples, int factor,
+			double[] out) {
+		for (int i = 0; i < numSamples - 1; i++) {
+			double start = in[i];
+			double interval = (in[i + 1] - start) / factor;
+			int base = i * factor;
+
+			for (int j = 0; j < factor; j++) {
+				out[base + j] = start + (interval * j);
+			}
+		}
+
+		if (numSamples > 0) {
+			out[(numSamples - 1) * factor] = in[numSamples - 1];
+		}
+	}
+
+}
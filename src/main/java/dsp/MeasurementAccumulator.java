@@ -0,0 +1,142 @@
+package dsp;
+
+/**
+ * Accumulates the channel measurements (min, max, peak to peak, mean and
+ * standard deviation) in a single pass, straight over a range of a sample
+ * array. Nothing is copied, so a window of a capture can be measured without
+ * materialising it, and ranges can be accepted one after the other to
+ * measure a record in chunks. The mean and variance use Welford's method,
+ * which stays accurate for long records with a large DC offset.
+ */
+public final class MeasurementAccumulator {
+
+	private long count;
+	private long rejectedCount;
+	private double min;
+	private double max;
+	private double mean;
+	private double sumOfSquaredDeviations;
+
+	public MeasurementAccumulator() {
+		reset();
+	}
+
+	/**
+	 * Clears everything accumulated so far.
+	 */
+	public void reset() {
+		count = 0;
+		rejectedCount = 0;
+		min = Double.NaN;
+		max = Double.NaN;
+		mean = 0;
+		sumOfSquaredDeviations = 0;
+	}
+
+	/**
+	 * Accumulates samples[from, to).
+	 * @param samples - The samples to measure
+	 * @param from - The first index to measure
+	 * @param to - One past the last index to measure
+	 */
+	public void accept(double[] samples, int from, int to) {
+		acceptWithin(samples, from, to, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Accumulates the samples in samples[from, to) that lie within
+	 * [lower, upper]. Samples outside it are counted as rejected, e.g. points
+	 * that are off the top or bottom of the display.
+	 * @param samples - The samples to measure
+	 * @param from - The first index to measure
+	 * @param to - One past the last index to measure
+	 * @param lower - The smallest value to accept
+	 * @param upper - The largest value to accept
+	 */
+	public void acceptWithin(double[] samples, int from, int to, double lower,
+			double upper) {
+		long n = count;
+		double newMin = count == 0 ? Double.POSITIVE_INFINITY : min;
+		double newMax = count == 0 ? Double.NEGATIVE_INFINITY : max;
+		double newMean = mean;
+		double m2 = sumOfSquaredDeviations;
+
+		for (int i = from; i < to; i++) {
+			double x = samples[i];
+
+			if (x < lower || x > upper) {
+				continue;
+			}
+
+			n++;
+			double delta = x - newMean;
+			newMean += delta / n;
+			m2 += delta * (x - newMean);
+
+			if (x < newMin) {
+				newMin = x;
+			}
+			if (x > newMax) {
+				newMax = x;
+			}
+		}
+
+		rejectedCount += (to - from) - (n - count);
+
+		if (n > 0) {
+			min = newMin;
+			max = newMax;
+		}
+
+		count = n;
+		mean = newMean;
+		sumOfSquaredDeviations = m2;
+	}
+
+	/*************************************************
+	 * Getter methods
+	 *************************************************/
+
+	/**
+	 * @return the number of samples accumulated
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of samples rejected by acceptWithin
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getPeakToPeak() {
+		return max - min;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * @return the sample (n - 1) standard deviation, 0 for a single sample
+	 */
+	public double getStandardDeviation() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+
+		return count == 1 ? 0 : Math.sqrt(sumOfSquaredDeviations / (count - 1));
+	}
+
+}
@@ -0,0 +1,108 @@
+package dsp;
+
+/**
+ * A min/max pyramid over a record of samples, built once per capture. Level
+ * k holds the minimum and maximum of each aligned block of 2^k samples, with
+ * level 0 being the samples themselves, so the extremes of any range can be
+ * found in O(log n) by combining at most two blocks per level. This lets a
+ * trace be reduced to per pixel column envelopes at any zoom without
+ * rescanning the samples, and without losing single sample spikes.
+ */
+public final class MinMaxPyramid {
+
+	private final double[] samples;
+
+	// mins[k - 1] and maxs[k - 1] hold level k, for k >= 1
+	private final double[][] mins;
+	private final double[][] maxs;
+
+	/**
+	 * Builds the pyramid. The samples are referenced, not copied, so they
+	 * must not change while the pyramid is in use.
+	 * @param samples - The samples to build the pyramid over
+	 */
+	public MinMaxPyramid(double[] samples) {
+		this.samples = samples;
+
+		int levels = 0;
+		for (int length = samples.length; length > 1; length = (length + 1) / 2) {
+			levels++;
+		}
+
+		mins = new double[levels][];
+		maxs = new double[levels][];
+
+		double[] belowMin = samples;
+		double[] belowMax = samples;
+
+		for (int k = 0; k < levels; k++) {
+			int length = (belowMin.length + 1) / 2;
+			double[] levelMin = new double[length];
+			double[] levelMax = new double[length];
+
+			for (int j = 0; j < length; j++) {
+				int left = 2 * j;
+				int right = Math.min(left + 1, belowMin.length - 1);
+				levelMin[j] = Math.min(belowMin[left], belowMin[right]);
+				levelMax[j] = Math.max(belowMax[left], belowMax[right]);
+			}
+
+			mins[k] = levelMin;
+			maxs[k] = levelMax;
+			belowMin = levelMin;
+			belowMax = levelMax;
+		}
+	}
+
+	/**
+	 * @return the samples the pyramid was built over
+	 */
+	public double[] getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Finds the minimum and maximum of samples[from, to).
+	 * @param from - The first index of the range
+	 * @param to - One past the last index of the range, greater than from
+	 * @param minMax - Where to write the minimum (index 0) and maximum
+	 *                 (index 1)
+	 */
+	public void range(int from, int to, double[] minMax) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+
+		// level 0 is the samples themselves
+		if ((from & 1) != 0) {
+			min = Math.min(min, samples[from]);
+			max = Math.max(max, samples[from]);
+			from++;
+		}
+		if ((to & 1) != 0 && from < to) {
+			to--;
+			min = Math.min(min, samples[to]);
+			max = Math.max(max, samples[to]);
+		}
+		from >>= 1;
+		to >>= 1;
+
+		for (int k = 0; from < to; k++) {
+			if ((from & 1) != 0) {
+				min = Math.min(min, mins[k][from]);
+				max = Math.max(max, maxs[k][from]);
+				from++;
+			}
+			if ((to & 1) != 0 && from < to) {
+				to--;
+				min = Math.min(min, mins[k][to]);
+				max = Math.max(max, maxs[k][to]);
+			}
+			from >>= 1;
+			to >>= 1;
+		}
+
+		minMax[0] = min;
+		minMax[1] = max;
+	}
+
+}
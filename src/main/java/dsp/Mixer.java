@@ -0,0 +1,66 @@
+package dsp;
+
+/**
+ * Mixes a signal with a periodic oscillator held in a lookup table, so the
+ * oscillator is never evaluated with Math.sin while mixing. The table holds
+ * exactly one period: sample k is multiplied by table[k % table.length].
+ */
+public final class Mixer {
+
+	private Mixer() {}
+
+	/**
+	 * Builds the table for a sine oscillator that holds each value for a
+	 * number of samples, e.g. an oscillator running at the input rate of an
+	 * interpolated signal.
+	 * @param period - The period of the sine in steps
+	 * @param hold - How many samples each step is held for
+	 * @return a table of period * hold values
+	 */
+	public static double[] sineTable(int period, int hold) {
+		double[] table = new double[period * hold];
+
+		for (int step = 0; step < period; step++) {
+			double value = Math.sin(2 * Math.PI * step / period);
+			for (int k = 0; k < hold; k++) {
+				table[step * hold + k] = value;
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Multiplies in[from, to) by the oscillator into out[from, to). in and
+	 * out may be the same array.
+	 * @param in - The signal to mix
+	 * @param table - One period of the oscillator
+	 * @param out - Where to write the mixed signal
+	 * @param from - The first index to mix
+	 * @param to - One past the last index to mix
+	 */
+	public static void mix(double[] in, double[] table, double[] out,
+			int from, int to) {
+		int period = table.length;
+		int k = from;
+
+		// warm-up: finish the partial period we start in
+		int phase = from % period;
+		int warmUpEnd = Math.min(from + (period - phase) % period, to);
+		for (; k < warmUpEnd; k++) {
+			out[k] = in[k] * table[k - from + phase];
+		}
+
+		// steady state: whole periods, no modulo in the inner loop
+		for (; k + period <= to; k += period) {
+			for (int p = 0; p < period; p++) {
+				out[k + p] = in[k + p] * table[p];
+			}
+		}
+
+		for (int p = 0; k < to; k++, p++) {
+			out[k] = in[k] * table[p];
+		}
+	}
+
+}
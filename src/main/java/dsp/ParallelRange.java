@@ -0,0 +1,93 @@
+package dsp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a loop over an index range in chunks on the common fork-join pool, for
+ * kernels that work out each output index independently of the others, e.g.
+ * FirFilter (which reads the input before a chunk as its history) or a math
+ * channel equation. Every index is computed by the same code whichever chunk
+ * it falls in, so the results are bit for bit the same as running the loop
+ * in one go on the calling thread.
+ *
+ * Ranges shorter than a threshold are not worth handing to other threads and
+ * are run on the calling thread.
+ */
+public final class ParallelRange {
+
+	// Ranges shorter than this many indexes run on the calling thread
+	public static final int DEFAULT_THRESHOLD = 8192;
+
+	// The smallest chunk a range is split into
+	private static final int MIN_CHUNK = 2048;
+
+	// Chunks per pool thread, so threads that finish early can steal work
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * The body of the loop
+	 */
+	public interface Body {
+		/**
+		 * Computes the outputs for indexes [from, to)
+		 */
+		void run(int from, int to);
+	}
+
+	private ParallelRange() {}
+
+	/**
+	 * Runs body over [from, to), in parallel if the range is at least
+	 * threshold long. Returns once the whole range is done.
+	 * @param from - The first index
+	 * @param to - One past the last index
+	 * @param threshold - The shortest range to run in parallel
+	 * @param body - Computes a chunk of the range
+	 */
+	public static void run(int from, int to, int threshold, Body body) {
+		int length = to - from;
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+		if (length < threshold || parallelism < 2) {
+			body.run(from, to);
+			return;
+		}
+
+		int chunk = Math.max(MIN_CHUNK,
+				length / (parallelism * CHUNKS_PER_THREAD) + 1);
+		ForkJoinPool.commonPool().invoke(new Chunk(from, to, chunk, body));
+	}
+
+	/**
+	 * Splits its range in half until it is no longer than a chunk
+	 */
+	private static final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final int chunk;
+		private final Body body;
+
+		Chunk(int from, int to, int chunk, Body body) {
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunk) {
+				body.run(from, to);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new Chunk(from, middle, chunk, body),
+					new Chunk(middle, to, chunk, body));
+		}
+	}
+
+}